@@ -1,15 +1,27 @@
 package etf.openpgp.iu170057d_sm170081d;
 
 import java.io.File;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import etf.openpgp.iu170057d_sm170081d.utils.FileChooserUtils;
 import etf.openpgp.iu170057d_sm170081d.utils.FileUtils;
+import etf.openpgp.iu170057d_sm170081d.encryption.CryptoProviders;
 import etf.openpgp.iu170057d_sm170081d.encryption.Encryption;
+import etf.openpgp.iu170057d_sm170081d.encryption.KeyPairPool;
 import etf.openpgp.iu170057d_sm170081d.encryption.PGPKeys;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.table.DefaultTableModel;
 import org.bouncycastle.openpgp.PGPException;
 import org.bouncycastle.openpgp.PGPKeyRingGenerator;
@@ -22,6 +34,8 @@ public class App extends javax.swing.JFrame
 {
 
     Encryption.PgpMessage pgpMessage;
+    // the opened message, which the decrypt button continues reading from
+    Encryption.PgpMessageSession pgpMessageSession;
 
     /**
      * Creates new form App
@@ -29,8 +43,10 @@ public class App extends javax.swing.JFrame
     public App()
     {
         initComponents();
-        populatePublicKeyRingTable();
-        populatePrivateKeyRingTable();
+        populateKeyRingTablesAsync();
+        pregenerateDomainParameters();
+        PGPKeys.startKeyPairPools();
+        CryptoProviders.initialize();
     }
 
     /**
@@ -147,7 +163,7 @@ public class App extends javax.swing.JFrame
 
         jSend_EncryptionLabel.setText("Encryption");
 
-        jSend_EncryptionCombobox.setModel(new javax.swing.DefaultComboBoxModel<>(new String[] { "ElGamal + IDEA", "ElGamal + 3DES", "none" }));
+        jSend_EncryptionCombobox.setModel(new javax.swing.DefaultComboBoxModel<>(new String[] { "ElGamal + IDEA", "ElGamal + 3DES", "ElGamal + AES-128", "ElGamal + AES-192", "ElGamal + AES-256", "ElGamal + AES-128 OCB", "ElGamal + AES-256 OCB", "ElGamal + AES-128 GCM", "ElGamal + AES-256 GCM", "none" }));
 
         jSend_PassphraseLabel.setText("Passphrase");
 
@@ -567,13 +583,13 @@ public class App extends javax.swing.JFrame
             }
         });
 
-        jPriv_DSABitsCombobox.setModel(new javax.swing.DefaultComboBoxModel<>(new String[] { "2048", "1024" }));
+        jPriv_DSABitsCombobox.setModel(new javax.swing.DefaultComboBoxModel<>(new String[] { "Ed25519", "DSA 2048", "DSA 1024" }));
 
-        jPriv_DSABitsLabel.setText("DSA bits");
+        jPriv_DSABitsLabel.setText("Signing key");
 
-        jPriv_ElGamalBitsLabel.setText("ElGamal bits");
+        jPriv_ElGamalBitsLabel.setText("Encryption key");
 
-        jPriv_ElGamalBitsCombobox.setModel(new javax.swing.DefaultComboBoxModel<>(new String[] { "4096", "2048", "1024" }));
+        jPriv_ElGamalBitsCombobox.setModel(new javax.swing.DefaultComboBoxModel<>(new String[] { "X25519", "ElGamal 4096", "ElGamal 2048", "ElGamal 1024" }));
 
         javax.swing.GroupLayout jPriv_TabLayout = new javax.swing.GroupLayout(jPriv_Tab);
         jPriv_Tab.setLayout(jPriv_TabLayout);
@@ -685,7 +701,6 @@ public class App extends javax.swing.JFrame
             PGPSecretKeyRing secretKeyringToBeDeleted = PGPKeys.getSecretKeyRing( keyID );
             PGPKeys.removeSecretKey( secretKeyringToBeDeleted );
 
-            PGPKeys.saveSecretKeysToFile();
             populatePrivateKeyRingTable();
 
             jStatusbar.setText( "Deleted private key successfully." );
@@ -699,7 +714,7 @@ public class App extends javax.swing.JFrame
 
     private void jPriv_ExportButtonActionPerformed(java.awt.event.ActionEvent evt)//GEN-FIRST:event_jPriv_ExportButtonActionPerformed
     {//GEN-HEADEREND:event_jPriv_ExportButtonActionPerformed
-        String exportSecretKeyFilePath = FileUtils.getUserSelectedFilePath( FileUtils.SAVE_DIALOG, FileUtils.PGP_KEY_FILE );
+        String exportSecretKeyFilePath = FileChooserUtils.getUserSelectedFilePath( FileChooserUtils.SAVE_DIALOG, FileChooserUtils.PGP_KEY_FILE );
         if( exportSecretKeyFilePath == null )
         {
             jStatusbar.setText( "No file selected." );
@@ -730,7 +745,7 @@ public class App extends javax.swing.JFrame
 
     private void jPriv_ImportButtonActionPerformed(java.awt.event.ActionEvent evt)//GEN-FIRST:event_jPriv_ImportButtonActionPerformed
     {//GEN-HEADEREND:event_jPriv_ImportButtonActionPerformed
-        String importSecretKeyFilePath = FileUtils.getUserSelectedFilePath( FileUtils.OPEN_DIALOG, FileUtils.PGP_KEY_FILE );
+        String importSecretKeyFilePath = FileChooserUtils.getUserSelectedFilePath( FileChooserUtils.OPEN_DIALOG, FileChooserUtils.PGP_KEY_FILE );
         if( importSecretKeyFilePath == null )
         {
             jStatusbar.setText( "No file selected." );
@@ -740,7 +755,6 @@ public class App extends javax.swing.JFrame
         try
         {
             PGPKeys.importSecretKey( new File( importSecretKeyFilePath ) );
-            PGPKeys.saveSecretKeysToFile();
             populatePrivateKeyRingTable();
             jStatusbar.setText( "Imported private key successfully." );
         }
@@ -758,12 +772,9 @@ public class App extends javax.swing.JFrame
 
     private void jPriv_GenerateButtonActionPerformed(java.awt.event.ActionEvent evt)//GEN-FIRST:event_jPriv_GenerateButtonActionPerformed
     {//GEN-HEADEREND:event_jPriv_GenerateButtonActionPerformed
-        // TODO: check why DSS 2048 and ElGamal 4096 generation never completes
-        int selectedDSABitsIndex = jPriv_DSABitsCombobox.getSelectedIndex();
-        int selectedDSABits = Integer.parseInt( jPriv_DSABitsCombobox.getItemAt( selectedDSABitsIndex ) );
-
-        int selectedElGamalBitsIndex = jPriv_ElGamalBitsCombobox.getSelectedIndex();
-        int selectedElGamalBits = Integer.parseInt( jPriv_ElGamalBitsCombobox.getItemAt( selectedElGamalBitsIndex ) );
+        // the key types are either a curve25519 key or an algorithm name followed by its key size, e.g. "DSA 2048"
+        String selectedSigningKey = jPriv_DSABitsCombobox.getItemAt( jPriv_DSABitsCombobox.getSelectedIndex() );
+        String selectedEncryptionKey = jPriv_ElGamalBitsCombobox.getItemAt( jPriv_ElGamalBitsCombobox.getSelectedIndex() );
 
         String name = jPriv_NameTextbox.getText();
         String email = jPriv_EmailTextbox.getText();
@@ -776,19 +787,78 @@ public class App extends javax.swing.JFrame
         }
 
         String userID = name + " <" + email + ">";
+        char[] passphraseChars = passphrase.toCharArray();
+
+        // generate the signing and encryption halves in parallel in the background, so that the ui stays responsive
+        CompletableFuture<KeyPair> signingKeyPairFuture = "Ed25519".equals( selectedSigningKey )
+                ? PGPKeys.generateEd25519KeyPairAsync()
+                : PGPKeys.generateDsaKeyPairAsync( parseKeySize( selectedSigningKey ) );
+        CompletableFuture<KeyPair> encryptionKeyPairFuture = "X25519".equals( selectedEncryptionKey )
+                ? PGPKeys.generateX25519KeyPairAsync()
+                : PGPKeys.generateElGamalKeyPairAsync( parseKeySize( selectedEncryptionKey ) );
+        CompletableFuture<PGPKeyRingGenerator> keyRingGeneratorFuture = PGPKeys.createPGPKeyRingGeneratorAsync(
+                signingKeyPairFuture,
+                encryptionKeyPairFuture,
+                userID,
+                passphraseChars );
+        // the key rings are journaled, so persisting them only appends the new key rings to the key ring files, off the ui thread
+        CompletableFuture<PGPKeyRingGenerator> keyRingAddedFuture = PGPKeys.addKeyRingAsync( keyRingGeneratorFuture );
+
+        // show the generation progress, and allow the user to cancel it
+        ProgressMonitor progressMonitor = new ProgressMonitor( this, "Generating private key for " + userID, "Generating " + selectedSigningKey + " and " + selectedEncryptionKey + " key pairs...", 0, 3 );
+        progressMonitor.setMillisToDecideToPopup( 0 );
+        progressMonitor.setMillisToPopup( 0 );
+        progressMonitor.setProgress( 0 );
+
+        AtomicInteger generatedKeyPairCount = new AtomicInteger( 0 );
+        Runnable keyPairGenerated = () -> SwingUtilities.invokeLater( () ->
+        {
+            progressMonitor.setProgress( generatedKeyPairCount.incrementAndGet() );
+        } );
+        signingKeyPairFuture.thenRun( keyPairGenerated );
+        encryptionKeyPairFuture.thenRun( keyPairGenerated );
 
-        try
+        Timer cancelTimer = new Timer( 100, timerEvt ->
+        {
+            if( progressMonitor.isCanceled() )
+            {
+                // ! the key pair generators can't be interrupted, so their results are only discarded
+                keyRingGeneratorFuture.cancel( true );
+                signingKeyPairFuture.cancel( true );
+                encryptionKeyPairFuture.cancel( true );
+            }
+        } );
+        cancelTimer.start();
+
+        jPriv_GenerateButton.setEnabled( false );
+        jStatusbar.setText( "Generating private key..." );
+
+        keyRingAddedFuture.whenComplete( ( pgpKeyRingGenerator, ex ) -> SwingUtilities.invokeLater( () ->
         {
-            PGPKeyRingGenerator pgpKeyRingGenerator = PGPKeys.createPGPKeyRingGenerator(
-                    PGPKeys.generateDsaKeyPair( selectedDSABits ),
-                    PGPKeys.generateElGamalKeyPair( selectedElGamalBits ),
-                    userID,
-                    passphrase.toCharArray() );
+            cancelTimer.stop();
+            progressMonitor.close();
+            jPriv_GenerateButton.setEnabled( true );
 
-            PGPKeys.addPublicKey( pgpKeyRingGenerator );
-            PGPKeys.addSecretKey( pgpKeyRingGenerator );
-            PGPKeys.savePublicKeysToFile();
-            PGPKeys.saveSecretKeysToFile();
+            // necessary to prevent side channel attacks - memory reads of the passphrase
+            Arrays.fill( passphraseChars, '\0' );
+
+            if( keyRingGeneratorFuture.isCancelled() )
+            {
+                jStatusbar.setText( "Private key generation cancelled." );
+                return;
+            }
+            if( keyRingGeneratorFuture.isCompletedExceptionally() )
+            {
+                Logger.getLogger( App.class.getName() ).log( Level.INFO, "Could not generate private key.", ex );
+                jStatusbar.setText( "Could not generate private key." );
+                return;
+            }
+            if( ex != null )
+            {
+                Logger.getLogger( App.class.getName() ).log( Level.INFO, "Could not save generated private key.", ex );
+                jStatusbar.setText( "Could not save generated private key." );
+                return;
+            }
 
             populatePrivateKeyRingTable();
             populatePublicKeyRingTable();
@@ -797,17 +867,20 @@ public class App extends javax.swing.JFrame
             jPriv_EmailTextbox.setText( "" );
             jPriv_PassphrasePasswordbox.setText( "" );
             jStatusbar.setText( "Private key generated successfully." );
-        }
-        catch( Exception ex )
-        {
-            Logger.getLogger( App.class.getName() ).log( Level.INFO, "Could not generate private key.", ex );
-            jStatusbar.setText( "Could not generate private key." );
-        }
+            // the pool statistics are shown when hovering over the status bar
+            List<String> poolStatistics = new ArrayList<>();
+            for( KeyPairPool.Statistics statistics : PGPKeys.getKeyPairPoolStatistics() )
+            {
+                Logger.getLogger( App.class.getName() ).log( Level.INFO, statistics.toString() );
+                poolStatistics.add( statistics.toString() );
+            }
+            jStatusbar.setToolTipText( "<html>" + String.join( "<br>", poolStatistics ) + "</html>" );
+        } ) );
     }//GEN-LAST:event_jPriv_GenerateButtonActionPerformed
 
     private void jPubl_ExportButtonActionPerformed(java.awt.event.ActionEvent evt)//GEN-FIRST:event_jPubl_ExportButtonActionPerformed
     {//GEN-HEADEREND:event_jPubl_ExportButtonActionPerformed
-        String exportPublicKeyFilePath = FileUtils.getUserSelectedFilePath( FileUtils.SAVE_DIALOG, FileUtils.PGP_KEY_FILE );
+        String exportPublicKeyFilePath = FileChooserUtils.getUserSelectedFilePath( FileChooserUtils.SAVE_DIALOG, FileChooserUtils.PGP_KEY_FILE );
         if( exportPublicKeyFilePath == null )
         {
             jStatusbar.setText( "No file selected." );
@@ -838,7 +911,7 @@ public class App extends javax.swing.JFrame
 
     private void jPubl_ImportButtonActionPerformed(java.awt.event.ActionEvent evt)//GEN-FIRST:event_jPubl_ImportButtonActionPerformed
     {//GEN-HEADEREND:event_jPubl_ImportButtonActionPerformed
-        String importPublicKeyFilePath = FileUtils.getUserSelectedFilePath( FileUtils.OPEN_DIALOG, FileUtils.PGP_KEY_FILE );
+        String importPublicKeyFilePath = FileChooserUtils.getUserSelectedFilePath( FileChooserUtils.OPEN_DIALOG, FileChooserUtils.PGP_KEY_FILE );
         if( importPublicKeyFilePath == null )
         {
             jStatusbar.setText( "No file selected." );
@@ -848,7 +921,6 @@ public class App extends javax.swing.JFrame
         try
         {
             PGPKeys.importPublicKey( new File( importPublicKeyFilePath ) );
-            PGPKeys.savePublicKeysToFile();
             populatePublicKeyRingTable();
             jStatusbar.setText( "Imported public key successfully." );
         }
@@ -879,7 +951,6 @@ public class App extends javax.swing.JFrame
         {
             PGPPublicKeyRing keyRingToBeDeleted = PGPKeys.getPublicKeyRing( keyID );
             PGPKeys.removePublicKey( keyRingToBeDeleted );
-            PGPKeys.savePublicKeysToFile();
             populatePublicKeyRingTable();
 
             jStatusbar.setText( "Deleted public key successfully." );
@@ -904,7 +975,7 @@ public class App extends javax.swing.JFrame
             return;
         }
 
-        String saveMessageFilePath = FileUtils.getUserSelectedFilePath( FileUtils.SAVE_DIALOG, FileUtils.TXT_FILE );
+        String saveMessageFilePath = FileChooserUtils.getUserSelectedFilePath( FileChooserUtils.SAVE_DIALOG, FileChooserUtils.TXT_FILE );
         if( saveMessageFilePath == null )
         {
             jStatusbar.setText( "No file selected." );
@@ -922,7 +993,7 @@ public class App extends javax.swing.JFrame
 
     private void jRecv_OpenButtonActionPerformed(java.awt.event.ActionEvent evt)//GEN-FIRST:event_jRecv_OpenButtonActionPerformed
     {//GEN-HEADEREND:event_jRecv_OpenButtonActionPerformed
-        String encryptedFilePath = FileUtils.getUserSelectedFilePath( FileUtils.OPEN_DIALOG, FileUtils.PGP_MESSAGE_FILE );
+        String encryptedFilePath = FileChooserUtils.getUserSelectedFilePath( FileChooserUtils.OPEN_DIALOG, FileChooserUtils.PGP_MESSAGE_FILE );
         if( encryptedFilePath == null )
         {
             jStatusbar.setText( "No file selected." );
@@ -937,7 +1008,7 @@ public class App extends javax.swing.JFrame
         // Read PGP message (without decrypting it)
         try
         {
-            Encryption.readPgpMessage( pgpMessage );
+            pgpMessageSession = Encryption.readPgpMessage( pgpMessage );
             resetReceiveTabComponents();
 
             jRecv_CompressionCheckbox.setSelected( pgpMessage.isCompressed );
@@ -1070,7 +1141,8 @@ public class App extends javax.swing.JFrame
 
         // Read encryption metadata
         boolean addSignature = jSend_SignatureCheckbox.isSelected();
-        boolean addCompression = jSend_CompressionCheckbox.isSelected();
+        // compress only if the message doesn't look already compressed
+        Encryption.CompressionAlgorithm compressionAlgorithm = jSend_CompressionCheckbox.isSelected() ? Encryption.CompressionAlgorithm.AUTO : Encryption.CompressionAlgorithm.NONE;
         boolean addConversionToRadix64 = jSend_Radix64Checkbox.isSelected();
 
         // Read sender secret key id
@@ -1110,6 +1182,11 @@ public class App extends javax.swing.JFrame
         }
 
         // check if there is at least one selected recepient
+        if( jSend_ToCombobox.getItemCount() == 0 )
+        {
+            jStatusbar.setText( "No recepients selected." );
+            return;
+        }
         for( int i = 0; i < jSend_ToCombobox.getItemCount(); i++ )
         {
             // Read receiver public key id
@@ -1126,23 +1203,24 @@ public class App extends javax.swing.JFrame
         }
 
         // get the file path
-        String selectedFilePath = FileUtils.getUserSelectedFilePath( FileUtils.SAVE_DIALOG, FileUtils.PGP_MESSAGE_FILE );
+        String selectedFilePath = FileChooserUtils.getUserSelectedFilePath( FileChooserUtils.SAVE_DIALOG, FileChooserUtils.PGP_MESSAGE_FILE );
         if( selectedFilePath == null )
         {
             jStatusbar.setText( "No file selected." );
             return;
         }
 
-        int sentMessagesCount = 0;
+        // Read sender email
+        String senderNameEmailAndKeyID = jSend_FromCombobox.getItemAt( jSend_FromCombobox.getSelectedIndex() );
+
+        // Read all the selected receivers' public keys
+        // + a single message is created for all receivers, so that it is signed, compressed and encrypted only once
+        List<PGPPublicKey> receiverPublicKeys = new ArrayList<>();
+        List<String> receiverNameEmailAndKeyIDs = new ArrayList<>();
         for( int i = 0; i < jSend_ToCombobox.getItemCount(); i++ )
         {
-            // Read sender email
-            String senderNameEmailAndKeyID = jSend_FromCombobox.getItemAt( jSend_FromCombobox.getSelectedIndex() );
-            
             // Read receiver public key id
             String receiverNameEmailAndKeyID = jSend_ToCombobox.getItemAt( i );
-            String originalReceiverNameEmailAndKeyID = jSend_ToCombobox.getItemAt( i );
-            originalReceiverNameEmailAndKeyID = originalReceiverNameEmailAndKeyID.substring(2, originalReceiverNameEmailAndKeyID.length());
             if( !"x ".equals( receiverNameEmailAndKeyID.substring( 0, 2 ) ) )
             {
                 continue;
@@ -1154,19 +1232,14 @@ public class App extends javax.swing.JFrame
             String receiverKeyIdHexString = receiverNameEmailAndKeyID.split( "> \\| " )[ 1 ];
             long receiverKeyID = PGPKeys.hexStringToKeyId( receiverKeyIdHexString );
 
-            // fix the receiver name, email and key id string
-            receiverNameEmailAndKeyID = receiverNameEmailAndKeyID.replaceAll( "<", "[" );
-            receiverNameEmailAndKeyID = receiverNameEmailAndKeyID.replaceAll( ">", "]" );
-            receiverNameEmailAndKeyID = receiverNameEmailAndKeyID.replaceAll( "\\|", "." );
-
             // Read receiver public key
-            PGPPublicKey receiverPublicKey;
             try
             {
                 PGPPublicKeyRing receiverKeyRing = PGPKeys.getPublicKeyRing( receiverKeyID );
                 Iterator<PGPPublicKey> keyIter = receiverKeyRing.getPublicKeys();
-                keyIter.next();   // skip the DSA signing key, and use the ElGamal encryption key
-                receiverPublicKey = keyIter.next();
+                keyIter.next();   // skip the signing key (DSA or Ed25519), and use the encryption key (ElGamal or X25519)
+                receiverPublicKeys.add( keyIter.next() );
+                receiverNameEmailAndKeyIDs.add( receiverNameEmailAndKeyID );
             }
             catch( IOException | PGPException ex )
             {
@@ -1174,71 +1247,115 @@ public class App extends javax.swing.JFrame
                 jStatusbar.setText( "Receiver(s) public key corrupted." );
                 return;
             }
+        }
+
+        // the single message is built for the collected receivers, so there has to be at least one of them
+        if( receiverPublicKeys.isEmpty() )
+        {
+            jStatusbar.setText( "No recepients selected." );
+            return;
+        }
 
-            // Read encryption algorithm
-            Encryption.EncryptionAlgorithm encryptionAlgorithm = Encryption.EncryptionAlgorithm.NONE;
+        // Read encryption algorithm
+        Encryption.EncryptionAlgorithm encryptionAlgorithm = Encryption.EncryptionAlgorithm.NONE;
 
-            int encryptionAlgorithmIndex = jSend_EncryptionCombobox.getSelectedIndex();
-            switch( encryptionAlgorithmIndex )
+        int encryptionAlgorithmIndex = jSend_EncryptionCombobox.getSelectedIndex();
+        switch( encryptionAlgorithmIndex )
+        {
+            case 0:
             {
-                case 0:
-                {
-                    encryptionAlgorithm = Encryption.EncryptionAlgorithm.ELGAMAL_IDEA;
-                    break;
-                }
-                case 1:
-                {
-                    encryptionAlgorithm = Encryption.EncryptionAlgorithm.ELGAMAL_3DES;
-                    break;
-                }
-                case 2:
-                {
-                    encryptionAlgorithm = Encryption.EncryptionAlgorithm.NONE;
-                    break;
-                }
+                encryptionAlgorithm = Encryption.EncryptionAlgorithm.ELGAMAL_IDEA;
+                break;
             }
-            
-            byte[] byteMessage = new SimpleRFC288Message(senderNameEmailAndKeyID, originalReceiverNameEmailAndKeyID, textMessage).ConvertToSimplifiedRFC822().getBytes();
-
-            // Encryption
-            byte[] encryptedMessage;
-            try
+            case 1:
             {
-                encryptedMessage = Encryption.createPgpMessage(
-                        byteMessage,
-                        senderSecretKey,
-                        receiverPublicKey,
-                        encryptionAlgorithm,
-                        senderPassphrase,
-                        addSignature,
-                        addCompression,
-                        addConversionToRadix64 );
+                encryptionAlgorithm = Encryption.EncryptionAlgorithm.ELGAMAL_3DES;
+                break;
             }
-            catch( IOException ex )
+            case 2:
             {
-                jStatusbar.setText( ex.getMessage() );
-                return;
+                encryptionAlgorithm = Encryption.EncryptionAlgorithm.ELGAMAL_AES_128;
+                break;
+            }
+            case 3:
+            {
+                encryptionAlgorithm = Encryption.EncryptionAlgorithm.ELGAMAL_AES_192;
+                break;
+            }
+            case 4:
+            {
+                encryptionAlgorithm = Encryption.EncryptionAlgorithm.ELGAMAL_AES_256;
+                break;
+            }
+            case 5:
+            {
+                encryptionAlgorithm = Encryption.EncryptionAlgorithm.ELGAMAL_AES_128_OCB;
+                break;
+            }
+            case 6:
+            {
+                encryptionAlgorithm = Encryption.EncryptionAlgorithm.ELGAMAL_AES_256_OCB;
+                break;
+            }
+            case 7:
+            {
+                encryptionAlgorithm = Encryption.EncryptionAlgorithm.ELGAMAL_AES_128_GCM;
+                break;
             }
+            case 8:
+            {
+                encryptionAlgorithm = Encryption.EncryptionAlgorithm.ELGAMAL_AES_256_GCM;
+                break;
+            }
+            case 9:
+            {
+                encryptionAlgorithm = Encryption.EncryptionAlgorithm.NONE;
+                break;
+            }
+        }
 
-            // Append receiver name to file path
-            String filePath = selectedFilePath.replaceAll( "(\\..*)$", " . " + receiverNameEmailAndKeyID + "$1" );
-            FileUtils.writeToFile( filePath, encryptedMessage );
+        String receiversNameEmailAndKeyID = String.join( ", ", receiverNameEmailAndKeyIDs );
+        byte[] byteMessage = new SimpleRFC288Message(senderNameEmailAndKeyID, receiversNameEmailAndKeyID, textMessage).ConvertToSimplifiedRFC822().getBytes();
 
-            sentMessagesCount++;
+        // Encryption
+        byte[] encryptedMessage;
+        try
+        {
+            encryptedMessage = Encryption.createPgpMessage(
+                    byteMessage,
+                    senderSecretKey,
+                    receiverPublicKeys,
+                    encryptionAlgorithm,
+                    senderPassphrase,
+                    addSignature,
+                    compressionAlgorithm,
+                    Encryption.DEFAULT_COMPRESSION_LEVEL,
+                    addConversionToRadix64 );
+        }
+        catch( IOException ex )
+        {
+            jStatusbar.setText( ex.getMessage() );
+            return;
         }
+        if( encryptedMessage == null )
+        {
+            jStatusbar.setText( "Could not create the message." );
+            return;
+        }
+
+        FileUtils.writeToFile( selectedFilePath, encryptedMessage );
 
-        switch( sentMessagesCount )
+        switch( receiverPublicKeys.size() )
         {
-            case 0:
-                jStatusbar.setText( "No recipient selected." );
-                break;
             case 1:
                 jStatusbar.setText( "Sent message." );
                 break;
             default:
-                jStatusbar.setText( "Sent messages." );
+                jStatusbar.setText( "Sent message to " + receiverPublicKeys.size() + " recipients." );
                 break;
         }
+        if( Encryption.getEffectiveEncryptionAlgorithm( encryptionAlgorithm, receiverPublicKeys ) != encryptionAlgorithm )
+            jStatusbar.setText( jStatusbar.getText() + " " + Encryption.AEAD_FALLBACK_WARNING );
     }//GEN-LAST:event_jSend_SendButtonActionPerformed
 
     private void jRecv_DecryptButtonActionPerformed(java.awt.event.ActionEvent evt)//GEN-FIRST:event_jRecv_DecryptButtonActionPerformed
@@ -1250,7 +1367,10 @@ public class App extends javax.swing.JFrame
         // TODO(uros): Check if the passphrase is valid
         try
         {
-            Encryption.decryptPgpMessage( passphrase, pgpMessage );
+            // the message is read again only if the opened session was already consumed, e.g. by a failed decryption
+            if( pgpMessageSession == null || pgpMessageSession.isConsumed() )
+                pgpMessageSession = Encryption.openPgpMessage( pgpMessage );
+            pgpMessageSession.decrypt( passphrase );
 
             System.out.println( "pgpMessage.senderSecretKeyId: " + pgpMessage.senderSecretKeyId );
 
@@ -1431,6 +1551,51 @@ public class App extends javax.swing.JFrame
         }
     }
 
+    // prepare the domain parameters for every key size offered in the ui, so that generating a key pair doesn't have to wait for them
+    // + the curve25519 keys have no domain parameters
+    private void pregenerateDomainParameters()
+    {
+        PGPKeys.pregenerateDomainParameters( getOfferedKeySizes( jPriv_DSABitsCombobox ), getOfferedKeySizes( jPriv_ElGamalBitsCombobox ) );
+    }
+
+    private static int[] getOfferedKeySizes( javax.swing.JComboBox<String> keyTypeCombobox )
+    {
+        List<Integer> keySizes = new ArrayList<>();
+        for( int i = 0; i < keyTypeCombobox.getItemCount(); i++ )
+        {
+            int keySize = parseKeySize( keyTypeCombobox.getItemAt( i ) );
+            if( keySize > 0 )
+                keySizes.add( keySize );
+        }
+        return keySizes.stream().mapToInt( Integer::intValue ).toArray();
+    }
+
+    // get the key size from a key type such as "ElGamal 4096", or zero if the key type has no key size
+    private static int parseKeySize( String keyType )
+    {
+        int separatorIndex = keyType.lastIndexOf( ' ' );
+        return separatorIndex < 0 ? 0 : Integer.parseInt( keyType.substring( separatorIndex + 1 ) );
+    }
+
+    // fill the key ring tables once the key rings are decoded in the background, so that the window is shown without waiting for them
+    private void populateKeyRingTablesAsync()
+    {
+        jStatusbar.setText( "Loading key rings..." );
+        PGPKeys.loadKeyRingsAsync().whenComplete( ( result, ex ) -> SwingUtilities.invokeLater( () ->
+        {
+            if( ex != null )
+            {
+                Logger.getLogger( App.class.getName() ).log( Level.SEVERE, "Could not load the key rings.", ex );
+                jStatusbar.setText( "Could not load the key rings." );
+                return;
+            }
+
+            populatePublicKeyRingTable();
+            populatePrivateKeyRingTable();
+            jStatusbar.setText( "Key rings loaded." );
+        } ) );
+    }
+
     private void populatePublicKeyRingTable()
     {
         try
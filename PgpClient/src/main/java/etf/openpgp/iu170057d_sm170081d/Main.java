@@ -1,43 +1,62 @@
 package etf.openpgp.iu170057d_sm170081d;
 
+import etf.openpgp.iu170057d_sm170081d.cli.CommandLine;
+
 public class Main
 {
 
-    /* Set the Nimbus look and feel (preferably)
-     * If Nimbus (introduced in Java SE 6) is not available, stay with the default look and feel.
-     * For details see http://download.oracle.com/javase/tutorial/uiswing/lookandfeel/plaf.html 
-     */
-    private static void SetLookAndFeel( String lookAndFeelName )
+    // the gui is started from its own class, so that the command line batch mode doesn't load any awt classes
+    private static class Gui
     {
-        if( lookAndFeelName == null )
-            return;
 
-        try
+        /* Set the Nimbus look and feel (preferably)
+         * If Nimbus (introduced in Java SE 6) is not available, stay with the default look and feel.
+         * For details see http://download.oracle.com/javase/tutorial/uiswing/lookandfeel/plaf.html 
+         */
+        private static void SetLookAndFeel( String lookAndFeelName )
         {
-            for( javax.swing.UIManager.LookAndFeelInfo info : javax.swing.UIManager.getInstalledLookAndFeels() )
+            if( lookAndFeelName == null )
+                return;
+
+            try
             {
-                if( lookAndFeelName.equals( info.getName() ) )
+                for( javax.swing.UIManager.LookAndFeelInfo info : javax.swing.UIManager.getInstalledLookAndFeels() )
                 {
-                    javax.swing.UIManager.setLookAndFeel( info.getClassName() );
-                    break;
+                    if( lookAndFeelName.equals( info.getName() ) )
+                    {
+                        javax.swing.UIManager.setLookAndFeel( info.getClassName() );
+                        break;
+                    }
                 }
             }
+            catch( ClassNotFoundException | InstantiationException | IllegalAccessException | javax.swing.UnsupportedLookAndFeelException ex )
+            {
+                java.util.logging.Logger.getLogger( App.class.getName() ).log( java.util.logging.Level.SEVERE, null, ex );
+            }
         }
-        catch( ClassNotFoundException | InstantiationException | IllegalAccessException | javax.swing.UnsupportedLookAndFeelException ex )
+
+        private static void start()
         {
-            java.util.logging.Logger.getLogger( App.class.getName() ).log( java.util.logging.Level.SEVERE, null, ex );
+            SetLookAndFeel( "Nimbus" );
+            App app = new App();
+
+            java.awt.EventQueue.invokeLater( () ->
+            {
+                app.setVisible( true );
+            } );
         }
     }
 
+    // with arguments, run the headless command line batch mode instead of the gui
     public static void main( String[] args )
     {
-        SetLookAndFeel( "Nimbus" );
-        App app = new App();
-
-        java.awt.EventQueue.invokeLater( () ->
+        if( args.length > 0 )
         {
-            app.setVisible( true );
-        } );
+            CommandLine.main( args );
+            return;
+        }
+
+        Gui.start();
     }
 
 }
@@ -0,0 +1,598 @@
+package etf.openpgp.iu170057d_sm170081d.cli;
+
+import etf.openpgp.iu170057d_sm170081d.encryption.BulkJob;
+import etf.openpgp.iu170057d_sm170081d.encryption.Encryption;
+import etf.openpgp.iu170057d_sm170081d.encryption.PGPKeys;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Console;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPPublicKeyRing;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+
+// headless batch mode, for scripting the client without a display
+// + every operand is a file, a glob (e.g. "mail/**.txt"), a directory tree or "-" for the standard input and output
+// + the files are processed in parallel by the given number of jobs of a bulk job, and the time spent on every file is reported
+// ! must not load any awt or swing classes, so it doesn't use the gui utilities
+public class CommandLine
+{
+    private static enum Command
+    {
+        ENCRYPT, DECRYPT, SIGN, VERIFY
+    }
+
+    private static final String USAGE
+            = "usage: PgpClient <command> [options] <file | glob | ->...\n"
+            + "commands:\n"
+            + "    encrypt   --to <key id | email>[,...] [--algorithm <algorithm>] [--sign <key id | email>] [<compression>] [--armor]\n"
+            + "    decrypt\n"
+            + "    sign      --sign <key id | email> [<compression>] [--armor]\n"
+            + "    verify\n"
+            + "    serve     [--port <port>] [--threads <n>] [--token-file <file>] [--passphrase-env <var>]\n"
+            + "              run the loopback encryption daemon: POST /encrypt, /sign, /decrypt, /verify; GET and POST /keys; GET /stats\n"
+            + "              every request needs the header \"Authorization: Bearer <token>\", with the token from the token file\n"
+            + "              (default ./settings/server.token, readable only by its owner)\n"
+            + "algorithms: idea (default), 3des, aes128, aes192, aes256, aes128-ocb, aes256-ocb, aes128-gcm, aes256-gcm\n"
+            + "compression: --compress                 compress unless the data looks already compressed (same as --compression auto)\n"
+            + "             --compression <algorithm>  zip, zlib, bzip2, auto or none (default)\n"
+            + "             --compression-level <n>    0 (fastest) to 9 (smallest), for zip and zlib\n"
+            + "options:\n"
+            + "    --jobs <n>                number of files processed in parallel (default 1)\n"
+            + "    --output-dir <dir>        directory for the output files (default: next to the input files)\n"
+            + "                              a directory operand is mirrored into it, together with a manifest.tsv\n"
+            + "    --manifest <file>         write a tab separated line with the result of every file into the file\n"
+            + "    --passphrase-env <var>    read the secret key passphrase from the environment variable\n"
+            + "    --passphrase-file <file>  read the secret key passphrase from the first line of the file\n"
+            + "the passphrase is asked for on the console if it is needed and not given otherwise\n";
+
+    private static final int EXIT_SUCCESS = 0;
+    private static final int EXIT_FAILURE = 1;
+    private static final int EXIT_USAGE = 2;
+
+    private Command command;
+    private final List<String> operands = new ArrayList<>();
+    private final List<String> receivers = new ArrayList<>();
+    private String signer = null;
+    private Encryption.EncryptionAlgorithm encryptionAlgorithm = Encryption.EncryptionAlgorithm.ELGAMAL_IDEA;
+    private Encryption.CompressionAlgorithm compressionAlgorithm = Encryption.CompressionAlgorithm.NONE;
+    private int compressionLevel = Encryption.DEFAULT_COMPRESSION_LEVEL;
+    private boolean addConversionToRadix64 = false;
+    private int jobs = 1;
+    private Path outputDirectory = null;
+    private Path manifestFile = null;
+    private String passphraseEnvironmentVariable = null;
+    private Path passphraseFile = null;
+
+    private List<PGPPublicKey> receiverPublicKeys = new ArrayList<>();
+    private PGPSecretKeyRing signerSecretKeyRing = null;
+    private PGPSecretKey signerSecretKey = null;
+    private char[] passphrase = null;
+
+    public static void main( String[] args )
+    {
+        if( args.length > 0 && "serve".equals( args[ 0 ] ) )
+        {
+            EncryptionServer.main( Arrays.copyOfRange( args, 1, args.length ) );
+            return;
+        }
+
+        System.exit( new CommandLine().run( args ) );
+    }
+
+    private int run( String[] args )
+    {
+        try
+        {
+            parseArguments( args );
+        }
+        catch( IllegalArgumentException ex )
+        {
+            System.err.println( ex.getMessage() );
+            System.err.print( USAGE );
+            return EXIT_USAGE;
+        }
+
+        List<Path> inputFiles = new ArrayList<>();
+        List<Path> inputDirectories = new ArrayList<>();
+        boolean useStandardStreams = false;
+        try
+        {
+            for( String operand : operands )
+            {
+                if( "-".equals( operand ) )
+                    useStandardStreams = true;
+                else if( Files.isDirectory( Paths.get( operand ) ) )
+                    inputDirectories.add( Paths.get( operand ) );
+                else
+                    inputFiles.addAll( expandGlob( operand ) );
+            }
+            if( useStandardStreams && (!inputFiles.isEmpty() || !inputDirectories.isEmpty()) )
+                throw new IllegalArgumentException( "The standard input can't be processed together with files." );
+            // the output files are written while the tree is walked, so they must not end up in it
+            if( !inputDirectories.isEmpty() && outputDirectory == null )
+                throw new IllegalArgumentException( "Processing a directory needs an output directory (--output-dir)." );
+
+            resolveKeys();
+            readPassphrase();
+        }
+        catch( IllegalArgumentException | IOException | PGPException ex )
+        {
+            System.err.println( ex.getMessage() );
+            return useStandardStreams || !inputFiles.isEmpty() || !inputDirectories.isEmpty() ? EXIT_FAILURE : EXIT_USAGE;
+        }
+
+        try
+        {
+            if( useStandardStreams )
+                return processStandardStreams();
+            else
+                return processFiles( inputFiles, inputDirectories );
+        }
+        finally
+        {
+            // necessary to prevent side channel attacks - memory reads of the passphrase
+            if( passphrase != null )
+                Arrays.fill( passphrase, '\0' );
+        }
+    }
+
+    private void parseArguments( String[] args )
+    {
+        if( args.length == 0 )
+            throw new IllegalArgumentException( "No command given." );
+
+        try
+        {
+            command = Command.valueOf( args[ 0 ].toUpperCase( Locale.ROOT ) );
+        }
+        catch( IllegalArgumentException ex )
+        {
+            throw new IllegalArgumentException( "Unknown command: " + args[ 0 ] );
+        }
+
+        for( int i = 1; i < args.length; i++ )
+        {
+            String arg = args[ i ];
+            switch( arg )
+            {
+                case "--to":
+                    receivers.addAll( Arrays.asList( optionValue( args, ++i, arg ).split( "," ) ) );
+                    break;
+                case "--sign":
+                    signer = optionValue( args, ++i, arg );
+                    break;
+                case "--algorithm":
+                    encryptionAlgorithm = parseEncryptionAlgorithm( optionValue( args, ++i, arg ) );
+                    break;
+                case "--compress":
+                    compressionAlgorithm = Encryption.CompressionAlgorithm.AUTO;
+                    break;
+                case "--compression":
+                    compressionAlgorithm = parseCompressionAlgorithm( optionValue( args, ++i, arg ) );
+                    break;
+                case "--compression-level":
+                    compressionLevel = parseCompressionLevel( optionValue( args, ++i, arg ) );
+                    break;
+                case "--armor":
+                    addConversionToRadix64 = true;
+                    break;
+                case "--jobs":
+                {
+                    String value = optionValue( args, ++i, arg );
+                    try
+                    {
+                        jobs = Integer.parseInt( value );
+                    }
+                    catch( NumberFormatException ex )
+                    {
+                        jobs = 0;
+                    }
+                    if( jobs < 1 )
+                        throw new IllegalArgumentException( "Invalid number of jobs: " + value );
+                    break;
+                }
+                case "--output-dir":
+                    outputDirectory = Paths.get( optionValue( args, ++i, arg ) );
+                    break;
+                case "--manifest":
+                    manifestFile = Paths.get( optionValue( args, ++i, arg ) );
+                    break;
+                case "--passphrase-env":
+                    passphraseEnvironmentVariable = optionValue( args, ++i, arg );
+                    break;
+                case "--passphrase-file":
+                    passphraseFile = Paths.get( optionValue( args, ++i, arg ) );
+                    break;
+                default:
+                    if( arg.startsWith( "--" ) )
+                        throw new IllegalArgumentException( "Unknown option: " + arg );
+                    operands.add( arg );
+                    break;
+            }
+        }
+
+        if( operands.isEmpty() )
+            throw new IllegalArgumentException( "No input files given." );
+        if( command == Command.ENCRYPT && receivers.isEmpty() )
+            throw new IllegalArgumentException( "The encrypt command needs at least one receiver (--to)." );
+        if( command == Command.SIGN && signer == null )
+            throw new IllegalArgumentException( "The sign command needs a signer (--sign)." );
+    }
+
+    // the symmetric algorithm by its name, e.g. "aes256" or "aes128-ocb"
+    static Encryption.EncryptionAlgorithm parseEncryptionAlgorithm( String name )
+    {
+        switch( name.toLowerCase( Locale.ROOT ) )
+        {
+            case "idea":
+                return Encryption.EncryptionAlgorithm.ELGAMAL_IDEA;
+            case "3des":
+                return Encryption.EncryptionAlgorithm.ELGAMAL_3DES;
+            case "aes128":
+                return Encryption.EncryptionAlgorithm.ELGAMAL_AES_128;
+            case "aes192":
+                return Encryption.EncryptionAlgorithm.ELGAMAL_AES_192;
+            case "aes256":
+                return Encryption.EncryptionAlgorithm.ELGAMAL_AES_256;
+            case "aes128-ocb":
+                return Encryption.EncryptionAlgorithm.ELGAMAL_AES_128_OCB;
+            case "aes256-ocb":
+                return Encryption.EncryptionAlgorithm.ELGAMAL_AES_256_OCB;
+            case "aes128-gcm":
+                return Encryption.EncryptionAlgorithm.ELGAMAL_AES_128_GCM;
+            case "aes256-gcm":
+                return Encryption.EncryptionAlgorithm.ELGAMAL_AES_256_GCM;
+            default:
+                throw new IllegalArgumentException( "Unknown encryption algorithm: " + name );
+        }
+    }
+
+    // the compression algorithm by its name, e.g. "zlib" or "auto"
+    static Encryption.CompressionAlgorithm parseCompressionAlgorithm( String name )
+    {
+        try
+        {
+            return Encryption.CompressionAlgorithm.valueOf( name.toUpperCase( Locale.ROOT ) );
+        }
+        catch( IllegalArgumentException ex )
+        {
+            throw new IllegalArgumentException( "Unknown compression algorithm: " + name );
+        }
+    }
+
+    // the deflate compression level, from 0 to 9
+    static int parseCompressionLevel( String value )
+    {
+        int level;
+        try
+        {
+            level = Integer.parseInt( value );
+        }
+        catch( NumberFormatException ex )
+        {
+            level = -1;
+        }
+        if( level < 0 || level > 9 )
+            throw new IllegalArgumentException( "Invalid compression level: " + value );
+        return level;
+    }
+
+    private static String optionValue( String[] args, int i, String option )
+    {
+        if( i >= args.length )
+            throw new IllegalArgumentException( "Missing value for option " + option + "." );
+        return args[ i ];
+    }
+
+    // expand the glob into the regular files it matches, or return the path itself if it isn't a glob
+    // + the glob is matched against the paths under the longest leading directory without glob characters
+    private static List<Path> expandGlob( String glob ) throws IOException
+    {
+        if( !glob.matches( ".*[*?\\[{].*" ) )
+        {
+            Path file = Paths.get( glob );
+            if( !Files.isRegularFile( file ) )
+                throw new IOException( "No such file: " + glob );
+            return Arrays.asList( file );
+        }
+
+        // replace everything from the first glob character on, so that the parent is the directory to search
+        Path globPrefix = Paths.get( glob.replaceAll( "[*?\\[{].*", "x" ) );
+        Path baseDirectory = globPrefix.getParent() != null ? globPrefix.getParent() : Paths.get( "." );
+
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher( "glob:" + glob );
+        try( Stream<Path> paths = Files.walk( baseDirectory ) )
+        {
+            List<Path> files = paths
+                    .filter( Files::isRegularFile )
+                    .filter( path -> matcher.matches( path ) || matcher.matches( baseDirectory.relativize( path ) ) )
+                    .sorted()
+                    .collect( Collectors.toList() );
+            if( files.isEmpty() )
+                throw new IOException( "No files match: " + glob );
+            return files;
+        }
+    }
+
+    // look up the receivers' encryption keys and the signer's signing key
+    private void resolveKeys() throws IOException, PGPException
+    {
+        for( String receiver : receivers )
+            receiverPublicKeys.add( findEncryptionKey( receiver.trim() ) );
+        if( command == Command.ENCRYPT && Encryption.getEffectiveEncryptionAlgorithm( encryptionAlgorithm, receiverPublicKeys ) != encryptionAlgorithm )
+            System.err.println( "Warning: " + Encryption.AEAD_FALLBACK_WARNING );
+
+        if( signer != null )
+        {
+            signerSecretKeyRing = findSecretKeyRing( signer.trim() );
+            signerSecretKey = signerSecretKeyRing.getSecretKey();
+        }
+    }
+
+    // get the encryption key (ElGamal or X25519) of the receiver with the given key id or email
+    static PGPPublicKey findEncryptionKey( String keyIdOrEmail ) throws IOException, PGPException
+    {
+        Iterator<PGPPublicKey> keyIter = findPublicKeyRing( keyIdOrEmail ).getPublicKeys();
+        keyIter.next();   // skip the signing key (DSA or Ed25519), and use the encryption key (ElGamal or X25519)
+        if( !keyIter.hasNext() )
+            throw new IllegalArgumentException( "Receiver has no encryption key: " + keyIdOrEmail );
+        return keyIter.next();
+    }
+
+    static PGPPublicKeyRing findPublicKeyRing( String keyIdOrEmail ) throws IOException, PGPException
+    {
+        if( keyIdOrEmail.contains( "@" ) )
+        {
+            List<PGPPublicKeyRing> keyRings = PGPKeys.getPublicKeyRingsByEmail( keyIdOrEmail );
+            if( keyRings.size() != 1 )
+                throw new IllegalArgumentException( (keyRings.isEmpty() ? "No public key for: " : "More than one public key for: ") + keyIdOrEmail );
+            return keyRings.get( 0 );
+        }
+
+        return PGPKeys.getPublicKeyRing( parseKeyId( keyIdOrEmail ) );
+    }
+
+    static PGPSecretKeyRing findSecretKeyRing( String keyIdOrEmail ) throws IOException, PGPException
+    {
+        if( keyIdOrEmail.contains( "@" ) )
+        {
+            List<PGPSecretKeyRing> keyRings = PGPKeys.getSecretKeyRingsByEmail( keyIdOrEmail );
+            if( keyRings.size() != 1 )
+                throw new IllegalArgumentException( (keyRings.isEmpty() ? "No secret key for: " : "More than one secret key for: ") + keyIdOrEmail );
+            return keyRings.get( 0 );
+        }
+
+        return PGPKeys.getSecretKeyRing( parseKeyId( keyIdOrEmail ) );
+    }
+
+    private static long parseKeyId( String keyId )
+    {
+        try
+        {
+            return PGPKeys.hexStringToKeyId( keyId );
+        }
+        catch( NumberFormatException ex )
+        {
+            throw new IllegalArgumentException( "Invalid key id: " + keyId );
+        }
+    }
+
+    // read the passphrase if the command needs a secret key
+    // + decrypting needs it unless no message is encrypted, which isn't known before the files are read, so it fails right away if it can't be asked for
+    // + verifying only needs it for encrypted messages, so it doesn't fail if it can't be asked for
+    private void readPassphrase() throws IOException
+    {
+        boolean isPassphraseRequired = signerSecretKey != null || command == Command.DECRYPT;
+        if( command == Command.ENCRYPT && !isPassphraseRequired )
+            return;
+
+        if( passphraseEnvironmentVariable != null )
+        {
+            String value = System.getenv( passphraseEnvironmentVariable );
+            if( value == null )
+                throw new IllegalArgumentException( "Environment variable not set: " + passphraseEnvironmentVariable );
+            passphrase = value.toCharArray();
+        }
+        else if( passphraseFile != null )
+        {
+            try( Stream<String> lines = Files.lines( passphraseFile, StandardCharsets.UTF_8 ) )
+            {
+                passphrase = lines.findFirst().orElse( "" ).toCharArray();
+            }
+        }
+        else
+        {
+            Console console = System.console();
+            if( console == null || command == Command.VERIFY )
+            {
+                if( isPassphraseRequired )
+                    throw new IllegalArgumentException( "A passphrase is required, but there is no console to read it from: use --passphrase-env or --passphrase-file." );
+                return;
+            }
+
+            passphrase = console.readPassword( "Passphrase: " );
+            if( passphrase == null )
+                throw new IllegalArgumentException( "No passphrase given." );
+        }
+
+        if( signerSecretKey != null && !PGPKeys.isValidPassphrase( signerSecretKeyRing, 0, passphrase ) )
+            throw new IllegalArgumentException( "Invalid passphrase." );
+    }
+
+    private int processStandardStreams()
+    {
+        long start = System.nanoTime();
+        try
+        {
+            OutputStream outputStream = command == Command.VERIFY ? new BulkJob.DiscardingOutputStream() : new BufferedOutputStream( System.out );
+            String status = process( new BufferedInputStream( System.in ), outputStream );
+            outputStream.flush();
+            report( "-", System.nanoTime() - start, status );
+            return EXIT_SUCCESS;
+        }
+        catch( IOException | PGPException | RuntimeException ex )
+        {
+            report( "-", System.nanoTime() - start, "failed: " + ex.getMessage() );
+            return EXIT_FAILURE;
+        }
+    }
+
+    // process the files and directory trees on the bulk job's workers, reporting every file as it is done
+    private int processFiles( List<Path> inputFiles, List<Path> inputDirectories )
+    {
+        Stream<BulkJob.Task> tasks = inputFiles.stream().map( inputFile -> new BulkJob.Task( inputFile, getOutputFile( inputFile ) ) );
+        BulkJob.Manifest manifest = null;
+        try
+        {
+            // every directory tree is mirrored into its own subdirectory of the output directory, and nothing from the output directory is processed
+            Path normalizedOutputDirectory = outputDirectory == null ? null : outputDirectory.toAbsolutePath().normalize();
+            for( Path inputDirectory : inputDirectories )
+            {
+                Path mirrorDirectory = outputDirectory.resolve( inputDirectory.toAbsolutePath().normalize().getFileName() );
+                tasks = Stream.concat( tasks, BulkJob.walk( inputDirectory, mirrorDirectory, this::getOutputFileName )
+                        .filter( task -> !task.inputFile.toAbsolutePath().normalize().startsWith( normalizedOutputDirectory ) ) );
+            }
+
+            if( manifestFile == null && !inputDirectories.isEmpty() )
+                manifestFile = outputDirectory.resolve( "manifest.tsv" );
+            if( manifestFile != null )
+                manifest = new BulkJob.Manifest( manifestFile );
+
+            BulkJob.Manifest resultManifest = manifest;
+            BulkJob.Summary summary = new BulkJob( this::process, jobs ).run( tasks.iterator(), result ->
+            {
+                report( result.task.inputFile + (result.task.outputFile == null ? "" : " -> " + result.task.outputFile), result.nanos, result.status );
+                if( resultManifest != null )
+                    resultManifest.completed( result );
+            } );
+
+            System.err.println( summary );
+            return summary.failedFiles == 0 ? EXIT_SUCCESS : EXIT_FAILURE;
+        }
+        catch( IOException | UncheckedIOException ex )
+        {
+            System.err.println( "Could not process the files: " + ex.getMessage() );
+            return EXIT_FAILURE;
+        }
+        catch( InterruptedException ex )
+        {
+            System.err.println( "Interrupted." );
+            return EXIT_FAILURE;
+        }
+        finally
+        {
+            tasks.close();
+            try
+            {
+                if( manifest != null )
+                    manifest.close();
+            }
+            catch( IOException ex )
+            {
+                System.err.println( "Could not write the manifest: " + ex.getMessage() );
+            }
+        }
+    }
+
+    // the output file is put next to the input file, or into the output directory if it is given
+    // + verifying doesn't write any output
+    private Path getOutputFile( Path inputFile )
+    {
+        if( command == Command.VERIFY )
+            return null;
+
+        Path directory = outputDirectory != null ? outputDirectory : inputFile.toAbsolutePath().getParent();
+        return directory.resolve( getOutputFileName( inputFile.getFileName().toString() ) );
+    }
+
+    // the output file is named after the input file: encrypting appends .gpg, signing appends .sig, decrypting removes either
+    private String getOutputFileName( String fileName )
+    {
+        switch( command )
+        {
+            case ENCRYPT:
+                return fileName + ".gpg";
+            case SIGN:
+                return fileName + ".sig";
+            default:
+                if( fileName.endsWith( ".gpg" ) || fileName.endsWith( ".sig" ) || fileName.endsWith( ".asc" ) )
+                    return fileName.substring( 0, fileName.length() - 4 );
+                else
+                    return fileName + ".out";
+        }
+    }
+
+    // run the command on a single input, and return its status
+    private String process( InputStream inputStream, OutputStream outputStream ) throws IOException, PGPException
+    {
+        switch( command )
+        {
+            case ENCRYPT:
+            case SIGN:
+            {
+                Encryption.createPgpMessage(
+                        inputStream,
+                        outputStream,
+                        signerSecretKey,
+                        receiverPublicKeys,
+                        command == Command.ENCRYPT ? encryptionAlgorithm : Encryption.EncryptionAlgorithm.NONE,
+                        passphrase,
+                        signerSecretKey != null,
+                        compressionAlgorithm,
+                        compressionLevel,
+                        addConversionToRadix64 );
+                return command == Command.ENCRYPT ? "encrypted" : "signed";
+            }
+            default:
+            {
+                Encryption.PgpMessage pgpMessage = new Encryption.PgpMessage();
+                Encryption.PgpMessageSession session = Encryption.openPgpMessage( inputStream, pgpMessage );
+                if( pgpMessage.isEncrypted && passphrase == null )
+                    throw new PGPException( "The message is encrypted, a passphrase is required (--passphrase-env or --passphrase-file)." );
+                session.decrypt( passphrase, outputStream );
+
+                if( pgpMessage.isEncrypted && !pgpMessage.isIntegrityVerified )
+                    throw new PGPException( "Message integrity check failed." );
+                if( command == Command.VERIFY && !pgpMessage.isSigned )
+                    throw new PGPException( "Message is not signed." );
+                if( command == Command.VERIFY && (!pgpMessage.isSignatureVerified || pgpMessage.senderSecretKeyId == 0) )
+                    throw new PGPException( "Message signature could not be verified." );
+
+                String status = pgpMessage.isEncrypted ? "decrypted" : "read";
+                if( pgpMessage.isSigned )
+                    status += pgpMessage.isSignatureVerified ? ", signature verified" : ", signature NOT verified";
+                return status;
+            }
+        }
+    }
+
+    // print the file's timing to the standard error, since the standard output may carry the message itself
+    private static void report( String file, long nanos, String status )
+    {
+        PrintStream err = System.err;
+        synchronized( err )
+        {
+            err.printf( "%10.1f ms  %s: %s%n", nanos / 1e6, file, status );
+        }
+    }
+}
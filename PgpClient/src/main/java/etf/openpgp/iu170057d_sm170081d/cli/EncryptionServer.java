@@ -0,0 +1,680 @@
+package etf.openpgp.iu170057d_sm170081d.cli;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import etf.openpgp.iu170057d_sm170081d.encryption.BulkJob;
+import etf.openpgp.iu170057d_sm170081d.encryption.CryptoProviders;
+import etf.openpgp.iu170057d_sm170081d.encryption.Encryption;
+import etf.openpgp.iu170057d_sm170081d.encryption.KeyPairPool;
+import etf.openpgp.iu170057d_sm170081d.encryption.PGPKeys;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.bouncycastle.bcpg.ArmoredOutputStream;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPPublicKeyRing;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+
+// long running loopback http daemon, so that other processes on the host can encrypt and decrypt without starting a jvm per file
+// + the key rings are loaded once, and unlocked private keys stay in the private key cache between requests
+// + request and response bodies are streamed through the pgp pipeline, so the memory used does not depend on the message size
+// + every request is handled on its own thread: a virtual thread if the runtime has them (java 21+), a pooled platform thread otherwise
+//
+// requests (keys are given by key id or email, flags are true if present):
+//     POST /encrypt?to=<key>[,...][&sign=<key>][&algorithm=<algorithm>][&compress][&armor]   body: plaintext, response: message
+//     POST /sign?sign=<key>[&compress][&armor]                                               body: plaintext, response: message
+//     POST /decrypt[?require-signature]                                                      body: message, response: plaintext
+//     POST /verify                                                                           body: message, response: status
+//     GET  /keys                                                                             response: key list (tsv)
+//     GET  /keys/<key>                                                                       response: armored public key ring
+//     POST /keys                                                                             body: armored public key rings
+//     GET  /stats                                                                            response: key pair pool statistics, one pool per line
+// the algorithms are named as on the command line (idea, 3des, aes128, aes256-ocb, ...)
+// compress is short for compression=auto; the compression and compression-level parameters take the command line's values (zip, zlib, bzip2, auto, none; 0 to 9)
+// every request has to carry the daemon's access token (Authorization: Bearer <token>), which is written to an owner-only token file on startup
+// + the loopback address is reachable by every user and process on the host, the token file only by the user running the daemon
+// the passphrase of the secret key is taken from the X-Passphrase header, or from the daemon's --passphrase-env variable
+// ! the default passphrase is only ever used for requests which carried the access token
+// ! errors found before any output is sent get a 4xx/5xx status; errors found while the response is streamed (e.g. a failed
+//   integrity check at the end of the message) abort the connection, so the client sees an incomplete response instead of a valid one
+// ! binds only to the loopback address, and rejects requests from browsers (which carry an Origin header)
+public class EncryptionServer
+{
+    private static final String USAGE = "usage: PgpClient serve [--port <port>] [--threads <n>] [--token-file <file>] [--passphrase-env <var>]\n";
+
+    private static final int DEFAULT_PORT = 8490;
+    private static final Path DEFAULT_TOKEN_FILE = Paths.get( "./settings/server.token" );
+    private static final String PASSPHRASE_HEADER = "X-Passphrase";
+    private static final String AUTHORIZATION_HEADER = "Authorization";
+    private static final String BEARER_PREFIX = "Bearer ";
+    // number of random bytes in the access token
+    private static final int TOKEN_SIZE = 32;
+    // size of the buffers between the connection and the pgp pipeline
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+
+    private static final List<String> MESSAGE_PATHS = Arrays.asList( "/encrypt", "/sign", "/decrypt", "/verify" );
+
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final int HTTP_UNAUTHORIZED = 401;
+    private static final int HTTP_FORBIDDEN = 403;
+    private static final int HTTP_NOT_FOUND = 404;
+    private static final int HTTP_BAD_METHOD = 405;
+    private static final int HTTP_CONFLICT = 409;
+    private static final int HTTP_UNPROCESSABLE = 422;
+    private static final int HTTP_INTERNAL_ERROR = 500;
+
+    // thrown by a request handler to answer with the given status
+    private static class HttpException extends Exception
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        HttpException( int status, String message )
+        {
+            super( message );
+            this.status = status;
+        }
+    }
+
+    private final char[] defaultPassphrase;
+    private final byte[] token;
+
+    private EncryptionServer( char[] defaultPassphrase )
+    {
+        this.defaultPassphrase = defaultPassphrase;
+        this.token = createToken();
+    }
+
+    public static void main( String[] args )
+    {
+        int port = DEFAULT_PORT;
+        int threads = 4 * Runtime.getRuntime().availableProcessors();
+        Path tokenFile = DEFAULT_TOKEN_FILE;
+        char[] defaultPassphrase = null;
+        try
+        {
+            for( int i = 0; i < args.length; i++ )
+            {
+                String option = args[ i ];
+                if( i + 1 >= args.length )
+                    throw new IllegalArgumentException( "Missing value for option " + option + "." );
+                String value = args[ ++i ];
+
+                switch( option )
+                {
+                    case "--port":
+                        port = Integer.parseInt( value );
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt( value );
+                        if( threads < 1 )
+                            throw new IllegalArgumentException( "Invalid number of threads: " + value );
+                        break;
+                    case "--token-file":
+                        tokenFile = Paths.get( value );
+                        break;
+                    case "--passphrase-env":
+                    {
+                        String passphrase = System.getenv( value );
+                        if( passphrase == null )
+                            throw new IllegalArgumentException( "Environment variable not set: " + value );
+                        defaultPassphrase = passphrase.toCharArray();
+                        break;
+                    }
+                    default:
+                        throw new IllegalArgumentException( "Unknown option: " + option );
+                }
+            }
+        }
+        catch( IllegalArgumentException ex )
+        {
+            // also catches number format exceptions
+            System.err.println( ex.getMessage() );
+            System.err.print( USAGE );
+            System.exit( 2 );
+        }
+
+        try
+        {
+            new EncryptionServer( defaultPassphrase ).start( port, threads, tokenFile );
+        }
+        catch( IOException | PGPException ex )
+        {
+            System.err.println( "Could not start the encryption server: " + ex.getMessage() );
+            System.exit( 1 );
+        }
+    }
+
+    // start serving on the loopback address; the server keeps the jvm running until it is stopped
+    // + the access token is written before the server starts listening, so there is no moment in which requests are served without it
+    private void start( int port, int threads, Path tokenFile ) throws IOException, PGPException
+    {
+        writeTokenFile( tokenFile );
+
+        // keep the keys warm: decode the (possibly memory mapped) key rings and their indexes before the first request
+        PGPKeys.getPublicKeysCollection();
+        PGPKeys.getSecretKeysCollection();
+        // and choose the providers, so that their benchmark doesn't delay the first request
+        CryptoProviders.initialize();
+
+        ExecutorService executor = createRequestExecutor( threads );
+        HttpServer server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), port ), 0 );
+        server.createContext( "/", this::handle );
+        server.setExecutor( executor );
+        server.start();
+
+        Runtime.getRuntime().addShutdownHook( new Thread( () ->
+        {
+            server.stop( 1 );
+            executor.shutdown();
+        } ) );
+
+        System.err.println( "Listening on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/" );
+        System.err.println( "Access token written to " + tokenFile.toAbsolutePath() );
+    }
+
+    // a new random access token, hex encoded, so that it can be sent in a header as is
+    private static byte[] createToken()
+    {
+        byte[] randomBytes = new byte[ TOKEN_SIZE ];
+        new SecureRandom().nextBytes( randomBytes );
+
+        StringBuilder token = new StringBuilder( 2 * TOKEN_SIZE );
+        for( byte b : randomBytes )
+            token.append( String.format( "%02x", b ) );
+        return token.toString().getBytes( StandardCharsets.US_ASCII );
+    }
+
+    // write the access token to a new file which only the owner can read and write
+    // + the file is restricted before the token is written into it, so the token is never readable by anyone else
+    // ! refuses to start if the file system can restrict access neither with posix permissions nor with an acl
+    private void writeTokenFile( Path tokenFile ) throws IOException
+    {
+        Path directory = tokenFile.toAbsolutePath().getParent();
+        Files.createDirectories( directory );
+        // a token file left by an earlier run may have been replaced by someone else, so it is never reused
+        Files.deleteIfExists( tokenFile );
+
+        if( directory.getFileSystem().supportedFileAttributeViews().contains( "posix" ) )
+        {
+            Files.createFile( tokenFile, PosixFilePermissions.asFileAttribute( PosixFilePermissions.fromString( "rw-------" ) ) );
+        }
+        else
+        {
+            Files.createFile( tokenFile );
+            AclFileAttributeView aclView = Files.getFileAttributeView( tokenFile, AclFileAttributeView.class );
+            if( aclView == null )
+            {
+                Files.delete( tokenFile );
+                throw new IOException( "Access to the token file can't be restricted to its owner: " + tokenFile );
+            }
+
+            AclEntry ownerEntry = AclEntry.newBuilder()
+                    .setType( AclEntryType.ALLOW )
+                    .setPrincipal( aclView.getOwner() )
+                    .setPermissions( EnumSet.allOf( AclEntryPermission.class ) )
+                    .build();
+            aclView.setAcl( Collections.singletonList( ownerEntry ) );
+        }
+
+        Files.write( tokenFile, token, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING );
+    }
+
+    // a thread per request: virtual threads are looked up reflectively, since the client is built for java 8
+    // + the platform thread pool grows up to the given number of threads, and queues the requests beyond that
+    private static ExecutorService createRequestExecutor( int threads )
+    {
+        try
+        {
+            return ( ExecutorService )Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+        }
+        catch( ReflectiveOperationException ex )
+        {
+            // no virtual threads in this runtime
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor( threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable ->
+        {
+            Thread thread = new Thread( runnable, "encryption-server-" + threadCount.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        executor.allowCoreThreadTimeOut( true );
+        return executor;
+    }
+
+    private void handle( HttpExchange exchange ) throws IOException
+    {
+        ResponseOutputStream responseStream = new ResponseOutputStream( exchange );
+        try
+        {
+            if( exchange.getRequestHeaders().containsKey( "Origin" ) )
+                throw new HttpException( HTTP_FORBIDDEN, "Requests from browsers are not allowed." );
+            if( !isAuthorized( exchange ) )
+            {
+                exchange.getResponseHeaders().set( "WWW-Authenticate", "Bearer" );
+                throw new HttpException( HTTP_UNAUTHORIZED, "Missing or invalid access token." );
+            }
+
+            route( exchange, responseStream );
+            responseStream.close();
+        }
+        catch( HttpException ex )
+        {
+            sendError( exchange, responseStream, ex.status, ex.getMessage() );
+        }
+        catch( IllegalArgumentException ex )
+        {
+            // unknown keys and invalid key ids
+            sendError( exchange, responseStream, HTTP_BAD_REQUEST, ex.getMessage() );
+        }
+        catch( PGPException ex )
+        {
+            sendError( exchange, responseStream, HTTP_UNPROCESSABLE, ex.getMessage() );
+        }
+        catch( IOException | RuntimeException ex )
+        {
+            Logger.getLogger( EncryptionServer.class.getName() ).log( Level.WARNING, "Could not process the request " + exchange.getRequestURI() + ".", ex );
+            sendError( exchange, responseStream, HTTP_INTERNAL_ERROR, ex.getMessage() );
+        }
+    }
+
+    // whether the request carries the access token
+    // + compared in constant time, so that the token can't be guessed byte by byte from the response times
+    private boolean isAuthorized( HttpExchange exchange )
+    {
+        String authorization = exchange.getRequestHeaders().getFirst( AUTHORIZATION_HEADER );
+        if( authorization == null || !authorization.regionMatches( true, 0, BEARER_PREFIX, 0, BEARER_PREFIX.length() ) )
+            return false;
+
+        byte[] requestToken = authorization.substring( BEARER_PREFIX.length() ).trim().getBytes( StandardCharsets.US_ASCII );
+        return MessageDigest.isEqual( requestToken, token );
+    }
+
+    private void route( HttpExchange exchange, OutputStream responseStream ) throws HttpException, IOException, PGPException
+    {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        Map<String, String> query = parseQuery( exchange.getRequestURI().getRawQuery() );
+
+        if( "/stats".equals( path ) )
+        {
+            if( !"GET".equals( method ) )
+                throw new HttpException( HTTP_BAD_METHOD, "Use GET." );
+            writeStatistics( responseStream );
+            return;
+        }
+
+        if( "/keys".equals( path ) )
+        {
+            if( "GET".equals( method ) )
+                listKeys( responseStream );
+            else if( "POST".equals( method ) )
+                importKeys( exchange.getRequestBody() );
+            else
+                throw new HttpException( HTTP_BAD_METHOD, "Use GET or POST." );
+            return;
+        }
+
+        if( path.startsWith( "/keys/" ) )
+        {
+            if( !"GET".equals( method ) )
+                throw new HttpException( HTTP_BAD_METHOD, "Use GET." );
+            exportKey( path.substring( "/keys/".length() ), responseStream );
+            return;
+        }
+
+        if( !"POST".equals( method ) )
+            throw new HttpException( MESSAGE_PATHS.contains( path ) ? HTTP_BAD_METHOD : HTTP_NOT_FOUND, "Unknown request: " + method + " " + path );
+
+        InputStream requestStream = new BufferedInputStream( exchange.getRequestBody(), STREAM_BUFFER_SIZE );
+        char[] passphrase = getPassphrase( exchange );
+        try
+        {
+            switch( path )
+            {
+                case "/encrypt":
+                    encrypt( exchange, requestStream, responseStream, query, passphrase, true );
+                    break;
+                case "/sign":
+                    encrypt( exchange, requestStream, responseStream, query, passphrase, false );
+                    break;
+                case "/decrypt":
+                    decrypt( requestStream, responseStream, passphrase, query.containsKey( "require-signature" ) );
+                    break;
+                case "/verify":
+                    verify( requestStream, responseStream, passphrase );
+                    break;
+                default:
+                    throw new HttpException( HTTP_NOT_FOUND, "Unknown request: " + method + " " + path );
+            }
+        }
+        finally
+        {
+            // necessary to prevent side channel attacks - memory reads of the passphrase
+            if( passphrase != null && passphrase != defaultPassphrase )
+                Arrays.fill( passphrase, '\0' );
+        }
+    }
+
+    private void encrypt( HttpExchange exchange, InputStream requestStream, OutputStream responseStream, Map<String, String> query, char[] passphrase, boolean isEncrypted ) throws HttpException, IOException, PGPException
+    {
+        List<PGPPublicKey> receiverPublicKeys = new ArrayList<>();
+        Encryption.EncryptionAlgorithm encryptionAlgorithm = Encryption.EncryptionAlgorithm.NONE;
+        if( isEncrypted )
+        {
+            String receivers = query.get( "to" );
+            if( receivers == null || receivers.isEmpty() )
+                throw new HttpException( HTTP_BAD_REQUEST, "Encrypting needs at least one receiver (to)." );
+            for( String receiver : receivers.split( "," ) )
+                receiverPublicKeys.add( CommandLine.findEncryptionKey( receiver.trim() ) );
+
+            encryptionAlgorithm = CommandLine.parseEncryptionAlgorithm( query.getOrDefault( "algorithm", "idea" ) );
+            // the response headers are sent with the first output, so the warning has to be set before the message is created
+            if( Encryption.getEffectiveEncryptionAlgorithm( encryptionAlgorithm, receiverPublicKeys ) != encryptionAlgorithm )
+                exchange.getResponseHeaders().set( "Warning", "199 - \"" + Encryption.AEAD_FALLBACK_WARNING + "\"" );
+        }
+
+        PGPSecretKey signerSecretKey = null;
+        String signer = query.get( "sign" );
+        if( signer != null )
+        {
+            PGPSecretKeyRing signerSecretKeyRing = CommandLine.findSecretKeyRing( signer.trim() );
+            if( passphrase == null )
+                throw new HttpException( HTTP_BAD_REQUEST, "Signing needs a passphrase (" + PASSPHRASE_HEADER + " header)." );
+            if( !PGPKeys.isValidPassphrase( signerSecretKeyRing, 0, passphrase ) )
+                throw new HttpException( HTTP_FORBIDDEN, "Invalid passphrase." );
+            signerSecretKey = signerSecretKeyRing.getSecretKey();
+        }
+        else if( !isEncrypted )
+            throw new HttpException( HTTP_BAD_REQUEST, "Signing needs a signer (sign)." );
+
+        // compress is short for compression=auto
+        Encryption.CompressionAlgorithm compressionAlgorithm = isFlagSet( query, "compress" ) ? Encryption.CompressionAlgorithm.AUTO : Encryption.CompressionAlgorithm.NONE;
+        if( query.containsKey( "compression" ) )
+            compressionAlgorithm = CommandLine.parseCompressionAlgorithm( query.get( "compression" ) );
+        int compressionLevel = Encryption.DEFAULT_COMPRESSION_LEVEL;
+        if( query.containsKey( "compression-level" ) )
+            compressionLevel = CommandLine.parseCompressionLevel( query.get( "compression-level" ) );
+
+        Encryption.createPgpMessage(
+                requestStream,
+                responseStream,
+                signerSecretKey,
+                receiverPublicKeys,
+                encryptionAlgorithm,
+                passphrase,
+                signerSecretKey != null,
+                compressionAlgorithm,
+                compressionLevel,
+                isFlagSet( query, "armor" ) );
+    }
+
+    private void decrypt( InputStream requestStream, OutputStream responseStream, char[] passphrase, boolean isSignatureRequired ) throws HttpException, IOException, PGPException
+    {
+        Encryption.PgpMessage pgpMessage = new Encryption.PgpMessage();
+        openPgpMessage( requestStream, pgpMessage, passphrase ).decrypt( passphrase, responseStream );
+
+        if( pgpMessage.isEncrypted && !pgpMessage.isIntegrityVerified )
+            throw new PGPException( "Message integrity check failed." );
+        if( isSignatureRequired && !(pgpMessage.isSigned && pgpMessage.isSignatureVerified && pgpMessage.senderSecretKeyId != 0) )
+            throw new PGPException( pgpMessage.isSigned ? "Message signature could not be verified." : "Message is not signed." );
+    }
+
+    private void verify( InputStream requestStream, OutputStream responseStream, char[] passphrase ) throws HttpException, IOException, PGPException
+    {
+        Encryption.PgpMessage pgpMessage = new Encryption.PgpMessage();
+        openPgpMessage( requestStream, pgpMessage, passphrase ).decrypt( passphrase, new BulkJob.DiscardingOutputStream() );
+
+        if( pgpMessage.isEncrypted && !pgpMessage.isIntegrityVerified )
+            throw new PGPException( "Message integrity check failed." );
+        if( !pgpMessage.isSigned )
+            throw new PGPException( "Message is not signed." );
+        // ! the signer has to be known, a message whose signature packet is missing has no signer
+        if( !pgpMessage.isSignatureVerified || pgpMessage.senderSecretKeyId == 0 )
+            throw new PGPException( "Message signature could not be verified." );
+
+        responseStream.write( ("signature verified, signed by " + PGPKeys.keyIdToHexString( pgpMessage.senderSecretKeyId ) + "\n").getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    // open the message, and reject it before anything is decrypted if it is encrypted and there is no passphrase to unlock its receiver's key with
+    private static Encryption.PgpMessageSession openPgpMessage( InputStream requestStream, Encryption.PgpMessage pgpMessage, char[] passphrase ) throws HttpException, IOException, PGPException
+    {
+        Encryption.PgpMessageSession session = Encryption.openPgpMessage( requestStream, pgpMessage );
+        if( pgpMessage.isEncrypted && passphrase == null )
+            throw new HttpException( HTTP_BAD_REQUEST, "Decrypting needs a passphrase (" + PASSPHRASE_HEADER + " header)." );
+        return session;
+    }
+
+    // write the statistics of the key pair pools, one pool per line
+    private static void writeStatistics( OutputStream responseStream ) throws IOException
+    {
+        StringBuilder statistics = new StringBuilder();
+        for( KeyPairPool.Statistics poolStatistics : PGPKeys.getKeyPairPoolStatistics() )
+            statistics.append( poolStatistics ).append( '\n' );
+
+        responseStream.write( statistics.toString().getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    // list the key rings, one per line: type, master key id and user id, separated by tabs
+    private static void listKeys( OutputStream responseStream ) throws IOException, PGPException
+    {
+        StringBuilder keyList = new StringBuilder();
+
+        Iterator<PGPPublicKeyRing> publicKeyRingIter = PGPKeys.getPublicKeysCollection().getKeyRings();
+        while( publicKeyRingIter.hasNext() )
+            appendKey( keyList, "public", publicKeyRingIter.next().getPublicKey() );
+
+        Iterator<PGPSecretKeyRing> secretKeyRingIter = PGPKeys.getSecretKeysCollection().getKeyRings();
+        while( secretKeyRingIter.hasNext() )
+            appendKey( keyList, "secret", secretKeyRingIter.next().getPublicKey() );
+
+        responseStream.write( keyList.toString().getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    private static void appendKey( StringBuilder keyList, String type, PGPPublicKey masterKey )
+    {
+        Iterator<String> userIdIter = masterKey.getUserIDs();
+        String userId = userIdIter.hasNext() ? userIdIter.next() : "";
+        keyList.append( type ).append( '\t' ).append( String.format( "%016x", masterKey.getKeyID() ) ).append( '\t' ).append( userId ).append( '\n' );
+    }
+
+    private static void importKeys( InputStream requestStream ) throws HttpException, IOException, PGPException
+    {
+        try
+        {
+            PGPKeys.importPublicKey( requestStream );
+        }
+        catch( IllegalArgumentException ex )
+        {
+            throw new HttpException( HTTP_CONFLICT, "Key already exists." );
+        }
+    }
+
+    private static void exportKey( String keyIdOrEmail, OutputStream responseStream ) throws HttpException, IOException, PGPException
+    {
+        PGPPublicKeyRing publicKeyRing;
+        try
+        {
+            publicKeyRing = CommandLine.findPublicKeyRing( decode( keyIdOrEmail ) );
+        }
+        catch( IllegalArgumentException ex )
+        {
+            throw new HttpException( HTTP_NOT_FOUND, ex.getMessage() );
+        }
+
+        // the armored output stream's close only writes the armor trailer, and leaves the response open
+        ArmoredOutputStream aos = new ArmoredOutputStream( responseStream );
+        publicKeyRing.encode( aos );
+        aos.close();
+    }
+
+    // the passphrase from the request header, or the daemon's default passphrase; null if there is neither
+    // ! only called for authorized requests, since the default passphrase unlocks the owner's secret keys
+    private char[] getPassphrase( HttpExchange exchange )
+    {
+        String passphrase = exchange.getRequestHeaders().getFirst( PASSPHRASE_HEADER );
+        if( passphrase != null )
+            return passphrase.toCharArray();
+        return defaultPassphrase;
+    }
+
+    private static Map<String, String> parseQuery( String rawQuery ) throws UnsupportedEncodingException
+    {
+        Map<String, String> query = new HashMap<>();
+        if( rawQuery == null || rawQuery.isEmpty() )
+            return query;
+
+        for( String parameter : rawQuery.split( "&" ) )
+        {
+            int separator = parameter.indexOf( '=' );
+            if( separator < 0 )
+                query.put( decode( parameter ), "" );
+            else
+                query.put( decode( parameter.substring( 0, separator ) ), decode( parameter.substring( separator + 1 ) ) );
+        }
+        return query;
+    }
+
+    private static String decode( String value ) throws UnsupportedEncodingException
+    {
+        return URLDecoder.decode( value, StandardCharsets.UTF_8.name() );
+    }
+
+    // a flag is set if it is given without a value, or with the value true
+    private static boolean isFlagSet( Map<String, String> query, String flag )
+    {
+        String value = query.get( flag );
+        return value != null && (value.isEmpty() || "true".equalsIgnoreCase( value ));
+    }
+
+    private static void sendError( HttpExchange exchange, ResponseOutputStream responseStream, int status, String message ) throws IOException
+    {
+        if( responseStream.isCommitted() )
+        {
+            // too late for an error status: throwing out of the handler makes the server drop the connection without ending the response
+            throw new IOException( "Request failed after the response was started: " + message );
+        }
+
+        byte[] body = ((message != null ? message : "Request failed.") + "\n").getBytes( StandardCharsets.UTF_8 );
+        exchange.getResponseHeaders().set( "Content-Type", "text/plain; charset=utf-8" );
+        exchange.sendResponseHeaders( status, body.length );
+        try( OutputStream outputStream = exchange.getResponseBody() )
+        {
+            outputStream.write( body );
+        }
+    }
+
+    // response body which sends the success status only once the first output is flushed
+    // + until then an error can still be answered with an error status
+    // + the response is chunked, since its length isn't known in advance; a response which fits the buffer is sent with its length
+    private static class ResponseOutputStream extends OutputStream
+    {
+        private final HttpExchange exchange;
+        private final byte[] buffer = new byte[ STREAM_BUFFER_SIZE ];
+        private int bufferedCount = 0;
+        private OutputStream responseBody = null;
+
+        ResponseOutputStream( HttpExchange exchange )
+        {
+            this.exchange = exchange;
+        }
+
+        boolean isCommitted()
+        {
+            return responseBody != null;
+        }
+
+        @Override
+        public void write( int b ) throws IOException
+        {
+            if( bufferedCount == buffer.length )
+                flushBuffer();
+            buffer[ bufferedCount++ ] = ( byte )b;
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len ) throws IOException
+        {
+            while( len > 0 )
+            {
+                if( bufferedCount == buffer.length )
+                    flushBuffer();
+                int count = Math.min( len, buffer.length - bufferedCount );
+                System.arraycopy( b, off, buffer, bufferedCount, count );
+                bufferedCount += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        // ! flushing before the pipeline is done would send the success status early, so only a full buffer is sent
+        @Override
+        public void flush()
+        {
+        }
+
+        private void flushBuffer() throws IOException
+        {
+            if( responseBody == null )
+            {
+                exchange.sendResponseHeaders( HTTP_OK, 0 );
+                responseBody = exchange.getResponseBody();
+            }
+            responseBody.write( buffer, 0, bufferedCount );
+            bufferedCount = 0;
+        }
+
+        // end the response successfully
+        @Override
+        public void close() throws IOException
+        {
+            if( responseBody == null )
+            {
+                exchange.sendResponseHeaders( HTTP_OK, bufferedCount == 0 ? -1 : bufferedCount );
+                responseBody = exchange.getResponseBody();
+            }
+            responseBody.write( buffer, 0, bufferedCount );
+            bufferedCount = 0;
+            responseBody.close();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package etf.openpgp.iu170057d_sm170081d.encryption;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// pool of the buffers the packet generators work in, so that creating or reading a message doesn't allocate new buffers for its framing layers
+// + packet buffers have a fixed size, and are used as the partial packet buffers of the generators and for copying between streams
+// + output buffers are growable byte array output streams holding a whole packet; they keep their grown arrays between messages
+// + the pool is shared by all threads (instead of being thread local), since the encryption server may run every request on a new virtual thread
+// ! released buffers are zeroized, since they hold plaintext; a buffer must not be used after it is released
+class BufferPool
+{
+    // a byte array output stream whose array is reused once it is released back to the pool
+    // + the array is grown here instead of in the byte array output stream, so that the outgrown array is zeroized before it is dropped
+    public static class OutputBuffer extends ByteArrayOutputStream
+    {
+        private OutputBuffer()
+        {
+            super( PACKET_BUFFER_SIZE );
+        }
+
+        @Override
+        public synchronized void write( int b )
+        {
+            ensureCapacity( count + 1 );
+            super.write( b );
+        }
+
+        @Override
+        public synchronized void write( byte[] b, int off, int len )
+        {
+            if( off < 0 || len < 0 || len > b.length - off )
+                throw new IndexOutOfBoundsException();
+
+            ensureCapacity( count + len );
+            super.write( b, off, len );
+        }
+
+        // grow the array to hold at least the given number of bytes, at least doubling it, and zeroize the old array
+        private void ensureCapacity( int minCapacity )
+        {
+            if( minCapacity <= buf.length )
+                return;
+            if( minCapacity < 0 )
+                throw new OutOfMemoryError( "The output buffer can't grow beyond 2 GiB." );
+
+            int newCapacity = buf.length << 1;
+            if( newCapacity < minCapacity )
+                newCapacity = minCapacity;
+            if( newCapacity < 0 || newCapacity > MAX_ARRAY_SIZE )
+                newCapacity = Math.max( minCapacity, MAX_ARRAY_SIZE );
+
+            byte[] oldBuf = buf;
+            buf = Arrays.copyOf( oldBuf, newCapacity );
+            Arrays.fill( oldBuf, 0, count, ( byte )0 );
+        }
+
+        // the array holding the written bytes; only the first size() bytes are valid
+        public byte[] buffer()
+        {
+            return buf;
+        }
+
+        // hand the written bytes over to the given buffer, and take its array to write into anew
+        // + lets the stages of a pipeline pass their output to the next stage without copying it
+        public void passTo( OutputBuffer next )
+        {
+            next.reset();
+
+            byte[] nextBuf = next.buf;
+            next.buf = buf;
+            next.count = count;
+            buf = nextBuf;
+            count = 0;
+        }
+
+        // zeroize the written bytes and discard them
+        @Override
+        public void reset()
+        {
+            Arrays.fill( buf, 0, count, ( byte )0 );
+            count = 0;
+        }
+
+        // ! closing doesn't release the buffer, it has to be released to the pool explicitly
+        @Override
+        public void close()
+        {
+        }
+    }
+
+    // size of the packet buffers
+    // + the generators emit partial packets of the largest power of two that fits in their buffer, so this is a power of two
+    public static final int PACKET_BUFFER_SIZE = 1 << 16;
+    // the largest array size the vm reliably allocates
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    // the total size of the arrays the pool keeps, the buffers released once it is reached are left to the garbage collector
+    // + messages larger than this still allocate their output buffers on every call
+    public static final String MAX_RETAINED_BYTES_PROPERTY = "pgpclient.bufferPool.maxRetainedBytes";
+    private static final long MAX_RETAINED_BYTES = Long.getLong( MAX_RETAINED_BYTES_PROPERTY, 64L << 20 );
+    // every thread creating a message uses at most three packet buffers and two output buffers at once
+    private static final int MAX_POOLED_BUFFERS = 4 * Runtime.getRuntime().availableProcessors();
+
+    private static final BlockingQueue<byte[]> packetBuffers = new ArrayBlockingQueue<>( MAX_POOLED_BUFFERS );
+    private static final BlockingQueue<OutputBuffer> outputBuffers = new ArrayBlockingQueue<>( MAX_POOLED_BUFFERS );
+    private static final AtomicLong retainedBytes = new AtomicLong();
+
+    private BufferPool()
+    {
+    }
+
+    // take a packet buffer from the pool, or allocate one if the pool is empty
+    public static byte[] acquirePacketBuffer()
+    {
+        byte[] buffer = packetBuffers.poll();
+        if( buffer == null )
+            return new byte[PACKET_BUFFER_SIZE];
+
+        retainedBytes.addAndGet( -buffer.length );
+        return buffer;
+    }
+
+    // zeroize the packet buffer and return it to the pool
+    public static void release( byte[] buffer )
+    {
+        if( buffer == null || buffer.length != PACKET_BUFFER_SIZE )
+            return;
+
+        Arrays.fill( buffer, ( byte )0 );
+        if( reserve( buffer.length ) && !packetBuffers.offer( buffer ) )
+            retainedBytes.addAndGet( -buffer.length );
+    }
+
+    // take an empty output buffer from the pool, or allocate one if the pool is empty
+    public static OutputBuffer acquireOutputBuffer()
+    {
+        OutputBuffer buffer = outputBuffers.poll();
+        if( buffer == null )
+            return new OutputBuffer();
+
+        retainedBytes.addAndGet( -buffer.buffer().length );
+        return buffer;
+    }
+
+    // zeroize the output buffer and return it to the pool
+    public static void release( OutputBuffer buffer )
+    {
+        if( buffer == null )
+            return;
+
+        buffer.reset();
+        if( reserve( buffer.buffer().length ) && !outputBuffers.offer( buffer ) )
+            retainedBytes.addAndGet( -buffer.buffer().length );
+    }
+
+    // count the array as retained by the pool, if it fits into the pool's size limit
+    private static boolean reserve( int length )
+    {
+        long retained;
+        do
+        {
+            retained = retainedBytes.get();
+            if( retained + length > MAX_RETAINED_BYTES )
+                return false;
+        }
+        while( !retainedBytes.compareAndSet( retained, retained + length ) );
+
+        return true;
+    }
+}
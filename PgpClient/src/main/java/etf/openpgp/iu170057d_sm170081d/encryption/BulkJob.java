@@ -0,0 +1,310 @@
+package etf.openpgp.iu170057d_sm170081d.encryption;
+
+import etf.openpgp.iu170057d_sm170081d.utils.FileUtils;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import org.bouncycastle.openpgp.PGPException;
+
+// runs a pgp operation over many files on a pool of worker threads
+// + the files are handed to the workers through a bounded queue, so a walk over a huge directory tree is never further ahead of the workers than the queue capacity
+// + the workers share nothing but the queue and the listener, so the throughput scales with the number of cores
+// + the result of every file is reported to the listener as soon as the file is done, e.g. for writing a manifest
+public class BulkJob
+{
+    // processes a single file; returns a short status which is reported to the listener
+    public static interface FileOperation
+    {
+        String process( InputStream inputStream, OutputStream outputStream ) throws IOException, PGPException;
+    }
+
+    // gets the result of every processed file
+    // ! called concurrently by the workers
+    // ! a listener which throws doesn't stop the job, the file is counted as failed instead
+    public static interface Listener
+    {
+        void completed( Result result );
+    }
+
+    // an input file and the file its output is written to (null if the output should be discarded)
+    public static class Task
+    {
+        public final Path inputFile;
+        public final Path outputFile;
+
+        public Task( Path inputFile, Path outputFile )
+        {
+            this.inputFile = inputFile;
+            this.outputFile = outputFile;
+        }
+    }
+
+    public static class Result
+    {
+        public final Task task;
+        public final boolean isSuccessful;
+        public final String status;
+        public final long inputSize;
+        public final long outputSize;
+        public final long nanos;
+
+        private Result( Task task, boolean isSuccessful, String status, long inputSize, long outputSize, long nanos )
+        {
+            this.task = task;
+            this.isSuccessful = isSuccessful;
+            this.status = status;
+            this.inputSize = inputSize;
+            this.outputSize = outputSize;
+            this.nanos = nanos;
+        }
+    }
+
+    public static class Summary
+    {
+        public final long files;
+        public final long failedFiles;
+        public final long inputBytes;
+        public final long outputBytes;
+        public final long nanos;
+
+        private Summary( long files, long failedFiles, long inputBytes, long outputBytes, long nanos )
+        {
+            this.files = files;
+            this.failedFiles = failedFiles;
+            this.inputBytes = inputBytes;
+            this.outputBytes = outputBytes;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            double seconds = Math.max( nanos / 1e9, 1e-9 );
+            return String.format( "%d files processed, %d failed, in %.1f ms (%.1f files/s, %.1f MB/s)",
+                    files, failedFiles, nanos / 1e6, files / seconds, inputBytes / seconds / (1024 * 1024) );
+        }
+    }
+
+    // tab separated manifest of the processed files, one line per file in the order they were completed
+    public static class Manifest implements Listener, Closeable
+    {
+        private final BufferedWriter writer;
+
+        public Manifest( Path manifestFile ) throws IOException
+        {
+            Path parent = manifestFile.toAbsolutePath().getParent();
+            if( parent != null )
+                Files.createDirectories( parent );
+
+            writer = Files.newBufferedWriter( manifestFile, StandardCharsets.UTF_8 );
+            writer.write( "status\tinput\toutput\tinput bytes\toutput bytes\tmillis\tmessage" );
+            writer.newLine();
+        }
+
+        @Override
+        public synchronized void completed( Result result )
+        {
+            try
+            {
+                writer.write( String.format( "%s\t%s\t%s\t%d\t%d\t%.3f\t%s",
+                        result.isSuccessful ? "ok" : "failed",
+                        result.task.inputFile,
+                        result.task.outputFile == null ? "" : result.task.outputFile,
+                        result.inputSize,
+                        result.outputSize,
+                        result.nanos / 1e6,
+                        result.status.replaceAll( "[\t\r\n]", " " ) ) );
+                writer.newLine();
+            }
+            catch( IOException ex )
+            {
+                Logger.getLogger( BulkJob.class.getName() ).log( Level.WARNING, "Could not write the manifest entry for " + result.task.inputFile + ".", ex );
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException
+        {
+            writer.close();
+        }
+    }
+
+    // marks the end of the tasks for the workers
+    private static final Task END_OF_TASKS = new Task( null, null );
+
+    private final FileOperation operation;
+    private final int workerCount;
+    private final int queueCapacity;
+
+    // create a job with the given number of workers, whose queue holds a few tasks per worker
+    public BulkJob( FileOperation operation, int workerCount )
+    {
+        this( operation, workerCount, 4 * workerCount );
+    }
+
+    public BulkJob( FileOperation operation, int workerCount, int queueCapacity )
+    {
+        if( workerCount < 1 || queueCapacity < 1 )
+            throw new IllegalArgumentException( "A bulk job needs at least one worker and a queue capacity of at least one." );
+
+        this.operation = operation;
+        this.workerCount = workerCount;
+        this.queueCapacity = queueCapacity;
+    }
+
+    // list the tasks for all the regular files in the given directory tree, lazily as the tree is walked
+    // + the output file of every input file is at the same relative path in the output directory, named by the given function
+    // + files in the output directory are skipped, in case it is inside the input directory
+    // ! the returned stream has to be closed
+    public static Stream<Task> walk( Path inputDirectory, Path outputDirectory, Function<String, String> outputFileNamer ) throws IOException
+    {
+        Path normalizedOutputDirectory = outputDirectory.toAbsolutePath().normalize();
+        return Files.walk( inputDirectory )
+                .filter( Files::isRegularFile )
+                .filter( file -> !file.toAbsolutePath().normalize().startsWith( normalizedOutputDirectory ) )
+                .map( file ->
+                {
+                    Path relativeFile = inputDirectory.relativize( file );
+                    Path outputFile = outputDirectory.resolve( relativeFile ).resolveSibling( outputFileNamer.apply( file.getFileName().toString() ) );
+                    return new Task( file, outputFile );
+                } );
+    }
+
+    // process all the given tasks, and wait until they are done
+    // + the calling thread feeds the queue, and blocks while it is full
+    public Summary run( Iterator<Task> tasks, Listener listener ) throws InterruptedException
+    {
+        long start = System.nanoTime();
+        BlockingQueue<Task> queue = new ArrayBlockingQueue<>( queueCapacity );
+        AtomicLong files = new AtomicLong();
+        AtomicLong failedFiles = new AtomicLong();
+        AtomicLong inputBytes = new AtomicLong();
+        AtomicLong outputBytes = new AtomicLong();
+
+        List<Thread> workers = new ArrayList<>( workerCount );
+        for( int i = 0; i < workerCount; i++ )
+        {
+            Thread worker = new Thread( () ->
+            {
+                try
+                {
+                    Task task;
+                    while( (task = queue.take()) != END_OF_TASKS )
+                    {
+                        // ! nothing may escape the loop body: a dead worker stops taking tasks, and once all of them are dead the feeder blocks forever
+                        Result result = process( task );
+                        boolean isReported = report( listener, result );
+
+                        files.incrementAndGet();
+                        if( !result.isSuccessful || !isReported )
+                            failedFiles.incrementAndGet();
+                        inputBytes.addAndGet( result.inputSize );
+                        outputBytes.addAndGet( result.outputSize );
+                    }
+                }
+                catch( InterruptedException ex )
+                {
+                    // the job was cancelled
+                }
+            }, "bulk-job-worker-" + i );
+            worker.setDaemon( true );
+            worker.start();
+            workers.add( worker );
+        }
+
+        try
+        {
+            while( tasks.hasNext() )
+                queue.put( tasks.next() );
+            for( int i = 0; i < workerCount; i++ )
+                queue.put( END_OF_TASKS );
+
+            for( Thread worker : workers )
+                worker.join();
+        }
+        finally
+        {
+            // stop the workers if the job was interrupted, or if walking the tasks failed
+            for( Thread worker : workers )
+                worker.interrupt();
+        }
+
+        return new Summary( files.get(), failedFiles.get(), inputBytes.get(), outputBytes.get(), System.nanoTime() - start );
+    }
+
+    // pass the result to the listener, and return whether it got it
+    private static boolean report( Listener listener, Result result )
+    {
+        try
+        {
+            listener.completed( result );
+            return true;
+        }
+        catch( RuntimeException ex )
+        {
+            Logger.getLogger( BulkJob.class.getName() ).log( Level.WARNING, "Could not report the result of " + result.task.inputFile + ".", ex );
+            return false;
+        }
+    }
+
+    // process the task, and turn any failure into a failed result
+    // + errors (e.g. running out of memory on a single huge file) fail only the file, so that the worker goes on with the next one
+    private Result process( Task task )
+    {
+        long start = System.nanoTime();
+        long inputSize = 0;
+        try
+        {
+            inputSize = Files.size( task.inputFile );
+            if( task.outputFile != null && task.outputFile.getParent() != null )
+                Files.createDirectories( task.outputFile.getParent() );
+
+            String status;
+            // the output file replaces an existing one only once it is complete, and is never left behind incomplete
+            try( InputStream inputStream = FileUtils.openInputStream( task.inputFile );
+                 OutputStream outputStream = task.outputFile == null ? new DiscardingOutputStream() : FileUtils.openAtomicOutputStream( task.outputFile ) )
+            {
+                status = operation.process( inputStream, outputStream );
+                if( outputStream instanceof FileUtils.AtomicFileOutputStream )
+                    (( FileUtils.AtomicFileOutputStream )outputStream).commit();
+            }
+
+            long outputSize = task.outputFile == null ? 0 : Files.size( task.outputFile );
+            return new Result( task, true, status, inputSize, outputSize, System.nanoTime() - start );
+        }
+        catch( IOException | PGPException | RuntimeException | Error ex )
+        {
+            String message = ex.getMessage() != null ? ex.getMessage() : ex.getClass().getSimpleName();
+            return new Result( task, false, "failed: " + message, inputSize, 0, System.nanoTime() - start );
+        }
+    }
+
+    // output stream which drops everything written to it, for operations whose output isn't needed
+    public static class DiscardingOutputStream extends OutputStream
+    {
+        @Override
+        public void write( int b )
+        {
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len )
+        {
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package etf.openpgp.iu170057d_sm170081d.encryption;
+
+// the crc-24 checksum of the radix64 armor (rfc 4880, section 6.1)
+// + slice-by-3: the crc is 24 bits wide, so three bytes xored into it are shifted out at once, with one table lookup per byte
+// + three bytes are also one radix64 group, so the armor codecs update the crc a group at a time
+final class Crc24
+{
+    private static final int INITIAL_VALUE = 0xb704ce;
+    private static final int POLYNOMIAL = 0x1864cfb;
+
+    // TABLE0[ i ] is i * x^24 mod p, and TABLE1 and TABLE2 shift it one and two bytes further
+    private static final int[] TABLE0 = new int[256];
+    private static final int[] TABLE1 = new int[256];
+    private static final int[] TABLE2 = new int[256];
+
+    static
+    {
+        for( int i = 0; i < 256; i++ )
+        {
+            int crc = i << 16;
+            for( int bit = 0; bit < 8; bit++ )
+            {
+                crc <<= 1;
+                if( (crc & 0x1000000) != 0 )
+                    crc ^= POLYNOMIAL;
+            }
+            TABLE0[ i ] = crc;
+        }
+        for( int i = 0; i < 256; i++ )
+        {
+            TABLE1[ i ] = shiftByte( TABLE0[ i ] );
+            TABLE2[ i ] = shiftByte( TABLE1[ i ] );
+        }
+    }
+
+    private int crc = INITIAL_VALUE;
+
+    private static int shiftByte( int crc )
+    {
+        return ((crc << 8) & 0xffffff) ^ TABLE0[ crc >>> 16 ];
+    }
+
+    public void update( int b )
+    {
+        crc = ((crc << 8) & 0xffffff) ^ TABLE0[ ((crc >>> 16) ^ b) & 0xff ];
+    }
+
+    // update the crc with the three bytes of a radix64 group
+    public void update3( int b0, int b1, int b2 )
+    {
+        int x = crc ^ ((b0 & 0xff) << 16) ^ ((b1 & 0xff) << 8) ^ (b2 & 0xff);
+        crc = TABLE2[ x >>> 16 ] ^ TABLE1[ (x >>> 8) & 0xff ] ^ TABLE0[ x & 0xff ];
+    }
+
+    public void update( byte[] buffer, int offset, int length )
+    {
+        int end = offset + length;
+        for( ; offset + 3 <= end; offset += 3 )
+            update3( buffer[ offset ], buffer[ offset + 1 ], buffer[ offset + 2 ] );
+        for( ; offset < end; offset++ )
+            update( buffer[ offset ] );
+    }
+
+    public int getValue()
+    {
+        return crc;
+    }
+}
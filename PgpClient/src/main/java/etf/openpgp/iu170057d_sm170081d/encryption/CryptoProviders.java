@@ -0,0 +1,388 @@
+package etf.openpgp.iu170057d_sm170081d.encryption;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.security.Security;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.bouncycastle.bcpg.AEADAlgorithmTags;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.PublicKeyAlgorithmTags;
+import org.bouncycastle.bcpg.SymmetricKeyAlgorithmTags;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+// chooses the jce provider of every kind of cryptographic primitive, instead of running everything on bouncy castle
+// + the jdk providers use the cpu's aes and sha instructions, which bouncy castle's pure java implementations can't
+// + the provider of a primitive can be overridden with a system property, e.g. -Dpgpclient.provider.cipher=SunJCE
+// + with -Dpgpclient.provider.benchmark=true, a short micro benchmark picks the fastest installed provider of every primitive which isn't overridden
+// + otherwise bouncy castle is used, as before
+// + if the chosen provider doesn't implement a specific algorithm (e.g. the jdk has no IDEA, OCB or ElGamal), bouncy castle is used for that algorithm
+// + the providers are chosen by initialize, which is called on the first use if the application didn't call it at startup
+public final class CryptoProviders
+{
+    public static enum Primitive
+    {
+        // symmetric encryption of messages and secret keys
+        SYMMETRIC_CIPHER( "cipher", "symmetric cipher" ),
+        // hashing for signatures and the passphrase key derivation
+        DIGEST( "digest", "digest" ),
+        // modular exponentiation: dsa signatures, elgamal encryption and key pair generation (and curve25519 key pair generation)
+        PUBLIC_KEY( "publicKey", "public key algorithm" );
+
+        // the system property overriding the provider
+        public final String propertyName;
+        private final String description;
+
+        private Primitive( String propertySuffix, String description )
+        {
+            this.propertyName = "pgpclient.provider." + propertySuffix;
+            this.description = description;
+        }
+    }
+
+    public static final String BENCHMARK_PROPERTY = "pgpclient.provider.benchmark";
+
+    private static final String DEFAULT_PROVIDER = BouncyCastleProvider.PROVIDER_NAME;
+    // how long every provider runs every benchmark, after warming up for the same time
+    private static final long BENCHMARK_NANOS = 100_000_000L;
+    private static final int BENCHMARK_BUFFER_SIZE = 1 << 16;
+
+    // null until the providers are chosen
+    private static volatile Map<Primitive, String> chosenProviders = null;
+    // whether a provider implements an algorithm, by "provider/type/algorithm"
+    private static final Map<String, Boolean> availability = new ConcurrentHashMap<>();
+
+    static
+    {
+        if( Security.getProvider( DEFAULT_PROVIDER ) == null )
+        {
+            Security.addProvider( new BouncyCastleProvider() );
+        }
+    }
+
+    // This is a static class and should never be instantiated
+    private CryptoProviders()
+    {
+    }
+
+    // choose the providers now (running the benchmark if it's enabled), instead of on the first cryptographic operation
+    // + the providers are chosen only once, later calls do nothing
+    public static synchronized void initialize()
+    {
+        if( chosenProviders != null )
+            return;
+
+        Map<Primitive, String> providers = new EnumMap<>( Primitive.class );
+        boolean isBenchmarkEnabled = Boolean.getBoolean( BENCHMARK_PROPERTY );
+        for( Primitive primitive : Primitive.values() )
+        {
+            String provider = System.getProperty( primitive.propertyName );
+            String reason = "set by " + primitive.propertyName;
+            if( provider != null && Security.getProvider( provider ) == null )
+            {
+                Logger.getLogger( CryptoProviders.class.getName() ).log( Level.WARNING, "The provider " + provider + " set by " + primitive.propertyName + " is not installed." );
+                provider = null;
+            }
+            if( provider == null && isBenchmarkEnabled )
+            {
+                provider = benchmark( primitive );
+                reason = "fastest in the benchmark";
+            }
+            if( provider == null )
+            {
+                provider = DEFAULT_PROVIDER;
+                reason = "default";
+            }
+
+            providers.put( primitive, provider );
+            Logger.getLogger( CryptoProviders.class.getName() ).log( DEFAULT_PROVIDER.equals( provider ) && !isBenchmarkEnabled ? Level.FINE : Level.INFO, "Using the " + provider + " provider for the " + primitive.description + " (" + reason + ")." );
+        }
+        chosenProviders = providers;
+    }
+
+    public static String getProvider( Primitive primitive )
+    {
+        Map<Primitive, String> providers = chosenProviders;
+        if( providers == null )
+        {
+            initialize();
+            providers = chosenProviders;
+        }
+        return providers.get( primitive );
+    }
+
+    // the provider for the symmetric algorithm, in cfb mode or in the given aead mode
+    public static String getCipherProvider( int symmetricAlgorithm, int aeadAlgorithm )
+    {
+        String cipherName = getCipherName( symmetricAlgorithm );
+        if( cipherName == null )
+            return DEFAULT_PROVIDER;
+
+        String mode;
+        switch( aeadAlgorithm )
+        {
+            case AEADAlgorithmTags.OCB:
+                mode = "OCB";
+                break;
+            case AEADAlgorithmTags.GCM:
+                mode = "GCM";
+                break;
+            case AEADAlgorithmTags.EAX:
+                mode = "EAX";
+                break;
+            default:
+                mode = "CFB";
+                break;
+        }
+        return getProvider( Primitive.SYMMETRIC_CIPHER, "Cipher", cipherName + "/" + mode + "/NoPadding" );
+    }
+
+    public static String getDigestProvider( int hashAlgorithm )
+    {
+        String digestName = getDigestName( hashAlgorithm );
+        if( digestName == null )
+            return DEFAULT_PROVIDER;
+        return getProvider( Primitive.DIGEST, "MessageDigest", digestName );
+    }
+
+    // the provider for signing or verifying with the given key algorithm and hash
+    // + the deprecated sign-only rsa tag is still recognized, since keys made by other implementations may carry it
+    @SuppressWarnings( "deprecation" )
+    public static String getSignatureProvider( int keyAlgorithm, int hashAlgorithm )
+    {
+        String digestName = getDigestName( hashAlgorithm );
+        if( digestName == null || (keyAlgorithm != PublicKeyAlgorithmTags.DSA && keyAlgorithm != PublicKeyAlgorithmTags.RSA_GENERAL && keyAlgorithm != PublicKeyAlgorithmTags.RSA_SIGN) )
+            return DEFAULT_PROVIDER;
+        return getProvider( Primitive.PUBLIC_KEY, "Signature", digestName.replace( "-", "" ) + "with" + (keyAlgorithm == PublicKeyAlgorithmTags.DSA ? "DSA" : "RSA") );
+    }
+
+    // the provider for elgamal encryption of session keys
+    public static String getElGamalProvider()
+    {
+        return getProvider( Primitive.PUBLIC_KEY, "Cipher", "ElGamal/ECB/PKCS1Padding" );
+    }
+
+    // the provider for encrypting session keys with (and decrypting them with the private key of) a key of the given algorithm
+    // ! ecdh over curve25519 needs the x25519 key agreement, an ephemeral key pair and the aes key wrap from a single provider, so it always runs on bouncy castle
+    // + the deprecated general elgamal tag is still recognized, since keys made by other implementations may carry it
+    @SuppressWarnings( "deprecation" )
+    public static String getKeyEncryptionProvider( int keyAlgorithm )
+    {
+        if( keyAlgorithm == PublicKeyAlgorithmTags.ELGAMAL_ENCRYPT || keyAlgorithm == PublicKeyAlgorithmTags.ELGAMAL_GENERAL )
+            return getElGamalProvider();
+        return DEFAULT_PROVIDER;
+    }
+
+    // the provider for generating key pairs of the given algorithm ("DSA", "ELGAMAL", "Ed25519" or "X25519")
+    public static String getKeyPairGeneratorProvider( String algorithm )
+    {
+        return getProvider( Primitive.PUBLIC_KEY, "KeyPairGenerator", algorithm );
+    }
+
+    // the chosen provider of the primitive if it implements the algorithm, bouncy castle otherwise
+    private static String getProvider( Primitive primitive, String type, String algorithm )
+    {
+        String provider = getProvider( primitive );
+        if( provider.equals( DEFAULT_PROVIDER ) )
+            return provider;
+
+        return availability.computeIfAbsent( provider + "/" + type + "/" + algorithm, key -> isAvailable( provider, type, algorithm ) )
+                ? provider
+                : DEFAULT_PROVIDER;
+    }
+
+    private static boolean isAvailable( String provider, String type, String algorithm )
+    {
+        try
+        {
+            switch( type )
+            {
+                case "Cipher":
+                    Cipher.getInstance( algorithm, provider );
+                    return true;
+                case "MessageDigest":
+                    MessageDigest.getInstance( algorithm, provider );
+                    return true;
+                case "Signature":
+                    Signature.getInstance( algorithm, provider );
+                    return true;
+                case "KeyPairGenerator":
+                    KeyPairGenerator.getInstance( algorithm, provider );
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        catch( GeneralSecurityException ex )
+        {
+            return false;
+        }
+    }
+
+    private static String getCipherName( int symmetricAlgorithm )
+    {
+        switch( symmetricAlgorithm )
+        {
+            case SymmetricKeyAlgorithmTags.IDEA:
+                return "IDEA";
+            case SymmetricKeyAlgorithmTags.TRIPLE_DES:
+                return "DESede";
+            case SymmetricKeyAlgorithmTags.AES_128:
+            case SymmetricKeyAlgorithmTags.AES_192:
+            case SymmetricKeyAlgorithmTags.AES_256:
+                return "AES";
+            default:
+                return null;
+        }
+    }
+
+    private static String getDigestName( int hashAlgorithm )
+    {
+        switch( hashAlgorithm )
+        {
+            case HashAlgorithmTags.SHA1:
+                return "SHA-1";
+            case HashAlgorithmTags.SHA224:
+                return "SHA-224";
+            case HashAlgorithmTags.SHA256:
+                return "SHA-256";
+            case HashAlgorithmTags.SHA384:
+                return "SHA-384";
+            case HashAlgorithmTags.SHA512:
+                return "SHA-512";
+            default:
+                return null;
+        }
+    }
+
+    // run the primitive's benchmark on every installed provider which implements it, and return the fastest one
+    // + the benchmarks use the algorithms this client uses most: aes in cfb mode, sha-256, and dsa signatures
+    // ! the public key benchmark only measures dsa signatures, but the winner is also used for elgamal encryption and for generating dsa, elgamal
+    //   and curve25519 key pairs wherever it implements them, without being measured for those; pgpclient.provider.publicKey sets it explicitly
+    private static String benchmark( Primitive primitive )
+    {
+        String fastestProvider = null;
+        double fastestRate = 0;
+        List<String> results = new ArrayList<>();
+
+        for( Provider provider : Security.getProviders() )
+        {
+            try
+            {
+                double rate;
+                switch( primitive )
+                {
+                    case SYMMETRIC_CIPHER:
+                        rate = benchmarkCipher( provider );
+                        break;
+                    case DIGEST:
+                        rate = benchmarkDigest( provider );
+                        break;
+                    default:
+                        rate = benchmarkSignature( provider );
+                        break;
+                }
+
+                results.add( String.format( Locale.ROOT, "%s %.1f", provider.getName(), rate ) );
+                if( rate > fastestRate )
+                {
+                    fastestRate = rate;
+                    fastestProvider = provider.getName();
+                }
+            }
+            catch( GeneralSecurityException ex )
+            {
+                // the provider doesn't implement the primitive
+            }
+        }
+
+        String unit = primitive == Primitive.PUBLIC_KEY ? "signatures/s" : "MB/s";
+        Logger.getLogger( CryptoProviders.class.getName() ).log( Level.INFO, "Benchmark of the " + primitive.description + " providers (" + unit + "): " + String.join( ", ", results ) );
+        return fastestProvider;
+    }
+
+    // aes-128 cfb encryption throughput in MB/s
+    private static double benchmarkCipher( Provider provider ) throws GeneralSecurityException
+    {
+        Cipher cipher = Cipher.getInstance( "AES/CFB/NoPadding", provider );
+        cipher.init( Cipher.ENCRYPT_MODE, new SecretKeySpec( new byte[ 16 ], "AES" ), new IvParameterSpec( new byte[ 16 ] ) );
+        byte[] input = new byte[ BENCHMARK_BUFFER_SIZE ];
+        byte[] output = new byte[ BENCHMARK_BUFFER_SIZE ];
+
+        for( int run = 0; run < 2; run++ )
+        {
+            long bytes = 0;
+            long start = System.nanoTime();
+            long elapsed;
+            while( (elapsed = System.nanoTime() - start) < BENCHMARK_NANOS )
+                bytes += cipher.update( input, 0, input.length, output, 0 );
+            if( run == 1 )
+                return bytes / (elapsed / 1e9) / (1024 * 1024);
+        }
+        return 0;
+    }
+
+    // sha-256 throughput in MB/s
+    private static double benchmarkDigest( Provider provider ) throws GeneralSecurityException
+    {
+        MessageDigest digest = MessageDigest.getInstance( "SHA-256", provider );
+        byte[] input = new byte[ BENCHMARK_BUFFER_SIZE ];
+
+        for( int run = 0; run < 2; run++ )
+        {
+            long bytes = 0;
+            long start = System.nanoTime();
+            long elapsed;
+            while( (elapsed = System.nanoTime() - start) < BENCHMARK_NANOS )
+            {
+                digest.update( input );
+                bytes += input.length;
+            }
+            digest.digest();
+            if( run == 1 )
+                return bytes / (elapsed / 1e9) / (1024 * 1024);
+        }
+        return 0;
+    }
+
+    // 2048 bit dsa signatures per second
+    // + the key pair is generated with the jdk's precomputed parameters, since generating new ones would take far longer than the benchmark
+    private static double benchmarkSignature( Provider provider ) throws GeneralSecurityException
+    {
+        Signature signature = Signature.getInstance( "SHA256withDSA", provider );
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance( "DSA" );
+        keyPairGenerator.initialize( 2048 );
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        byte[] input = new byte[ 1024 ];
+
+        for( int run = 0; run < 2; run++ )
+        {
+            long signatures = 0;
+            long start = System.nanoTime();
+            long elapsed;
+            while( (elapsed = System.nanoTime() - start) < BENCHMARK_NANOS )
+            {
+                signature.initSign( keyPair.getPrivate() );
+                signature.update( input );
+                signature.sign();
+                signatures++;
+            }
+            if( run == 1 )
+                return signatures / (elapsed / 1e9);
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,236 @@
+package etf.openpgp.iu170057d_sm170081d.encryption;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.security.AlgorithmParameterGenerator;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.DSAParameterSpec;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.crypto.spec.DHParameterSpec;
+import etf.openpgp.iu170057d_sm170081d.utils.FileUtils;
+
+// store of dsa and elgamal domain parameters, so that generating a key pair only needs a new random exponent instead of a search for new primes
+// + elgamal uses the vetted MODP groups from RFC 2409 and RFC 3526 (safe primes with generator 2) for the sizes they exist in
+// + dsa (and elgamal of other sizes) uses parameter sets which are generated once on this machine, validated, and stored in the settings
+class DomainParameterStore
+{
+    // 1024 bit MODP group (RFC 2409 group 2)
+    private static final String MODP_1024_PRIME =
+            "FFFFFFFFFFFFFFFFC90FDAA22168C234C4C6628B80DC1CD129024E088A67CC74"
+            + "020BBEA63B139B22514A08798E3404DDEF9519B3CD3A431B302B0A6DF25F1437"
+            + "4FE1356D6D51C245E485B576625E7EC6F44C42E9A637ED6B0BFF5CB6F406B7ED"
+            + "EE386BFB5A899FA5AE9F24117C4B1FE649286651ECE65381FFFFFFFFFFFFFFFF";
+    // 1536 bit MODP group (RFC 3526 group 5)
+    private static final String MODP_1536_PRIME =
+            "FFFFFFFFFFFFFFFFC90FDAA22168C234C4C6628B80DC1CD129024E088A67CC74"
+            + "020BBEA63B139B22514A08798E3404DDEF9519B3CD3A431B302B0A6DF25F1437"
+            + "4FE1356D6D51C245E485B576625E7EC6F44C42E9A637ED6B0BFF5CB6F406B7ED"
+            + "EE386BFB5A899FA5AE9F24117C4B1FE649286651ECE45B3DC2007CB8A163BF05"
+            + "98DA48361C55D39A69163FA8FD24CF5F83655D23DCA3AD961C62F356208552BB"
+            + "9ED529077096966D670C354E4ABC9804F1746C08CA237327FFFFFFFFFFFFFFFF";
+    // 2048 bit MODP group (RFC 3526 group 14)
+    private static final String MODP_2048_PRIME =
+            "FFFFFFFFFFFFFFFFC90FDAA22168C234C4C6628B80DC1CD129024E088A67CC74"
+            + "020BBEA63B139B22514A08798E3404DDEF9519B3CD3A431B302B0A6DF25F1437"
+            + "4FE1356D6D51C245E485B576625E7EC6F44C42E9A637ED6B0BFF5CB6F406B7ED"
+            + "EE386BFB5A899FA5AE9F24117C4B1FE649286651ECE45B3DC2007CB8A163BF05"
+            + "98DA48361C55D39A69163FA8FD24CF5F83655D23DCA3AD961C62F356208552BB"
+            + "9ED529077096966D670C354E4ABC9804F1746C08CA18217C32905E462E36CE3B"
+            + "E39E772C180E86039B2783A2EC07A28FB5C55DF06F4C52C9DE2BCBF695581718"
+            + "3995497CEA956AE515D2261898FA051015728E5A8AACAA68FFFFFFFFFFFFFFFF";
+    // 3072 bit MODP group (RFC 3526 group 15)
+    private static final String MODP_3072_PRIME =
+            "FFFFFFFFFFFFFFFFC90FDAA22168C234C4C6628B80DC1CD129024E088A67CC74"
+            + "020BBEA63B139B22514A08798E3404DDEF9519B3CD3A431B302B0A6DF25F1437"
+            + "4FE1356D6D51C245E485B576625E7EC6F44C42E9A637ED6B0BFF5CB6F406B7ED"
+            + "EE386BFB5A899FA5AE9F24117C4B1FE649286651ECE45B3DC2007CB8A163BF05"
+            + "98DA48361C55D39A69163FA8FD24CF5F83655D23DCA3AD961C62F356208552BB"
+            + "9ED529077096966D670C354E4ABC9804F1746C08CA18217C32905E462E36CE3B"
+            + "E39E772C180E86039B2783A2EC07A28FB5C55DF06F4C52C9DE2BCBF695581718"
+            + "3995497CEA956AE515D2261898FA051015728E5A8AAAC42DAD33170D04507A33"
+            + "A85521ABDF1CBA64ECFB850458DBEF0A8AEA71575D060C7DB3970F85A6E1E4C7"
+            + "ABF5AE8CDB0933D71E8C94E04A25619DCEE3D2261AD2EE6BF12FFA06D98A0864"
+            + "D87602733EC86A64521F2B18177B200CBBE117577A615D6C770988C0BAD946E2"
+            + "08E24FA074E5AB3143DB5BFCE0FD108E4B82D120A93AD2CAFFFFFFFFFFFFFFFF";
+    // 4096 bit MODP group (RFC 3526 group 16)
+    private static final String MODP_4096_PRIME =
+            "FFFFFFFFFFFFFFFFC90FDAA22168C234C4C6628B80DC1CD129024E088A67CC74"
+            + "020BBEA63B139B22514A08798E3404DDEF9519B3CD3A431B302B0A6DF25F1437"
+            + "4FE1356D6D51C245E485B576625E7EC6F44C42E9A637ED6B0BFF5CB6F406B7ED"
+            + "EE386BFB5A899FA5AE9F24117C4B1FE649286651ECE45B3DC2007CB8A163BF05"
+            + "98DA48361C55D39A69163FA8FD24CF5F83655D23DCA3AD961C62F356208552BB"
+            + "9ED529077096966D670C354E4ABC9804F1746C08CA18217C32905E462E36CE3B"
+            + "E39E772C180E86039B2783A2EC07A28FB5C55DF06F4C52C9DE2BCBF695581718"
+            + "3995497CEA956AE515D2261898FA051015728E5A8AAAC42DAD33170D04507A33"
+            + "A85521ABDF1CBA64ECFB850458DBEF0A8AEA71575D060C7DB3970F85A6E1E4C7"
+            + "ABF5AE8CDB0933D71E8C94E04A25619DCEE3D2261AD2EE6BF12FFA06D98A0864"
+            + "D87602733EC86A64521F2B18177B200CBBE117577A615D6C770988C0BAD946E2"
+            + "08E24FA074E5AB3143DB5BFCE0FD108E4B82D120A92108011A723C12A787E6D7"
+            + "88719A10BDBA5B2699C327186AF4E23C1A946834B6150BDA2583E9CA2AD44CE8"
+            + "DBBBC2DB04DE8EF92E8EFC141FBECAA6287C59474E6BC05D99B2964FA090C3A2"
+            + "233BA186515BE7ED1F612970CEE2D7AFB81BDD762170481CD0069127D5B05AA9"
+            + "93B4EA988D8FDDC186FFB7DC90A6C08F4DF435C934063199FFFFFFFFFFFFFFFF";
+
+    private static final Map<Integer, DHParameterSpec> STANDARD_ELGAMAL_PARAMETERS;
+
+    static
+    {
+        Map<Integer, DHParameterSpec> standardElGamalParameters = new HashMap<>();
+        for( String prime : new String[]
+        {
+            MODP_1024_PRIME, MODP_1536_PRIME, MODP_2048_PRIME, MODP_3072_PRIME, MODP_4096_PRIME
+        } )
+        {
+            BigInteger p = new BigInteger( prime, 16 );
+            standardElGamalParameters.put( p.bitLength(), new DHParameterSpec( p, BigInteger.valueOf( 2 ) ) );
+        }
+        STANDARD_ELGAMAL_PARAMETERS = Collections.unmodifiableMap( standardElGamalParameters );
+    }
+
+    private static final File PARAMETERS_DIRECTORY_PATH = new File( "./settings/parameters" );
+    // number of miller-rabin rounds used for validating the stored primes
+    private static final int PRIME_CERTAINTY = 64;
+
+    private static final Map<Integer, DSAParameterSpec> dsaParameters = new ConcurrentHashMap<>();
+    private static final Map<Integer, DHParameterSpec> elGamalParameters = new ConcurrentHashMap<>();
+
+    // This is a static class and should never be instantiated
+    private DomainParameterStore()
+    {
+    }
+
+    // get the dsa domain parameters for the given key size
+    // + they are loaded from the settings, or generated and stored there if they are missing or invalid (which takes a while, but happens once per size)
+    public static DSAParameterSpec getDsaParameters( int keySize ) throws GeneralSecurityException, IOException
+    {
+        DSAParameterSpec parameters = dsaParameters.get( keySize );
+        if( parameters != null )
+            return parameters;
+
+        synchronized( dsaParameters )
+        {
+            parameters = dsaParameters.get( keySize );
+            if( parameters == null )
+            {
+                File file = new File( PARAMETERS_DIRECTORY_PATH, "dsa-" + keySize + ".der" );
+                parameters = loadParameters( file, "DSA", DSAParameterSpec.class );
+                if( parameters == null || !isValid( parameters, keySize ) )
+                {
+                    parameters = generateParameters( file, "DSA", keySize, DSAParameterSpec.class );
+                }
+                dsaParameters.put( keySize, parameters );
+            }
+            return parameters;
+        }
+    }
+
+    // get the elgamal domain parameters for the given key size
+    // + a standard group is used if there is one of the given size, otherwise they are handled like the dsa parameters
+    public static DHParameterSpec getElGamalParameters( int keySize ) throws GeneralSecurityException, IOException
+    {
+        DHParameterSpec parameters = STANDARD_ELGAMAL_PARAMETERS.get( keySize );
+        if( parameters != null )
+            return parameters;
+
+        parameters = elGamalParameters.get( keySize );
+        if( parameters != null )
+            return parameters;
+
+        synchronized( elGamalParameters )
+        {
+            parameters = elGamalParameters.get( keySize );
+            if( parameters == null )
+            {
+                File file = new File( PARAMETERS_DIRECTORY_PATH, "elgamal-" + keySize + ".der" );
+                parameters = loadParameters( file, "DH", DHParameterSpec.class );
+                if( parameters == null || !isValid( parameters, keySize ) )
+                {
+                    parameters = generateParameters( file, "DH", keySize, DHParameterSpec.class );
+                }
+                elGamalParameters.put( keySize, parameters );
+            }
+            return parameters;
+        }
+    }
+
+    private static <T extends AlgorithmParameterSpec> T loadParameters(
+            File file,
+            String algorithm,
+            Class<T> specClass )
+    {
+        if( !file.exists() )
+            return null;
+
+        try
+        {
+            AlgorithmParameters algorithmParameters = AlgorithmParameters.getInstance( algorithm, "BC" );
+            algorithmParameters.init( Files.readAllBytes( file.toPath() ) );
+            return algorithmParameters.getParameterSpec( specClass );
+        }
+        catch( IOException | GeneralSecurityException ex )
+        {
+            Logger.getLogger( DomainParameterStore.class.getName() ).log( Level.WARNING, "Could not load stored domain parameters, they will be regenerated.", ex );
+            return null;
+        }
+    }
+
+    private static <T extends AlgorithmParameterSpec> T generateParameters(
+            File file,
+            String algorithm,
+            int keySize,
+            Class<T> specClass ) throws GeneralSecurityException, IOException
+    {
+        Logger.getLogger( DomainParameterStore.class.getName() ).log( Level.INFO, "Generating {0} bit {1} domain parameters.", new Object[]
+        {
+            String.valueOf( keySize ), algorithm
+        } );
+
+        AlgorithmParameterGenerator parameterGenerator = AlgorithmParameterGenerator.getInstance( algorithm, "BC" );
+        parameterGenerator.init( keySize );
+        AlgorithmParameters algorithmParameters = parameterGenerator.generateParameters();
+
+        // written atomically, so that a crash while writing can't leave a truncated parameters file behind
+        Files.createDirectories( file.getAbsoluteFile().getParentFile().toPath() );
+        FileUtils.writeAtomically( file.toPath(), outputStream -> outputStream.write( algorithmParameters.getEncoded() ) );
+
+        return algorithmParameters.getParameterSpec( specClass );
+    }
+
+    // check that the stored dsa parameters weren't tampered with: p and q are primes, q divides p-1 and g generates the subgroup of order q
+    private static boolean isValid( DSAParameterSpec parameters, int keySize )
+    {
+        BigInteger p = parameters.getP();
+        BigInteger q = parameters.getQ();
+        BigInteger g = parameters.getG();
+
+        return p.bitLength() == keySize
+                && q.bitLength() >= 160
+                && p.isProbablePrime( PRIME_CERTAINTY )
+                && q.isProbablePrime( PRIME_CERTAINTY )
+                && p.subtract( BigInteger.ONE ).mod( q ).signum() == 0
+                && g.compareTo( BigInteger.ONE ) > 0
+                && g.compareTo( p ) < 0
+                && g.modPow( q, p ).equals( BigInteger.ONE );
+    }
+
+    // check that the stored elgamal parameters weren't tampered with: p is a prime and g is in the range (1, p-1)
+    private static boolean isValid( DHParameterSpec parameters, int keySize )
+    {
+        BigInteger p = parameters.getP();
+        BigInteger g = parameters.getG();
+
+        return p.bitLength() == keySize
+                && p.isProbablePrime( PRIME_CERTAINTY )
+                && g.compareTo( BigInteger.ONE ) > 0
+                && g.compareTo( p.subtract( BigInteger.ONE ) ) < 0;
+    }
+}
@@ -1,23 +1,33 @@
 package etf.openpgp.iu170057d_sm170081d.encryption;
 
-import org.apache.commons.io.IOUtils;
+import etf.openpgp.iu170057d_sm170081d.utils.FileUtils;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.security.Provider;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.Security;
+import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import org.bouncycastle.bcpg.AEADAlgorithmTags;
+import org.bouncycastle.bcpg.AEADEncDataPacket;
 import org.bouncycastle.bcpg.ArmoredInputStream;
-import org.bouncycastle.bcpg.ArmoredOutputStream;
 import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.SymmetricEncIntegrityPacket;
+import org.bouncycastle.bcpg.sig.Features;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.openpgp.PGPCompressedData;
 import org.bouncycastle.openpgp.PGPCompressedDataGenerator;
@@ -35,20 +45,21 @@ import org.bouncycastle.openpgp.PGPPrivateKey;
 import org.bouncycastle.openpgp.PGPPublicKey;
 import org.bouncycastle.openpgp.PGPPublicKeyEncryptedData;
 import org.bouncycastle.openpgp.PGPSecretKey;
-import org.bouncycastle.openpgp.PGPSecretKeyRingCollection;
+import org.bouncycastle.openpgp.PGPSessionKey;
+import org.bouncycastle.openpgp.PGPSessionKeyEncryptedData;
 import org.bouncycastle.openpgp.PGPSignature;
 import org.bouncycastle.openpgp.PGPSignatureGenerator;
 import org.bouncycastle.openpgp.PGPSignatureList;
 import org.bouncycastle.openpgp.PGPSignatureSubpacketGenerator;
+import org.bouncycastle.openpgp.PGPSignatureSubpacketVector;
 import org.bouncycastle.openpgp.PGPUtil;
 import org.bouncycastle.openpgp.operator.bc.BcKeyFingerprintCalculator;
 import org.bouncycastle.openpgp.operator.jcajce.JcaPGPContentSignerBuilder;
 import org.bouncycastle.openpgp.operator.jcajce.JcaPGPContentVerifierBuilderProvider;
-import org.bouncycastle.openpgp.operator.jcajce.JcaPGPDigestCalculatorProviderBuilder;
-import org.bouncycastle.openpgp.operator.jcajce.JcePBESecretKeyDecryptorBuilder;
 import org.bouncycastle.openpgp.operator.jcajce.JcePGPDataEncryptorBuilder;
 import org.bouncycastle.openpgp.operator.jcajce.JcePublicKeyDataDecryptorFactoryBuilder;
 import org.bouncycastle.openpgp.operator.jcajce.JcePublicKeyKeyEncryptionMethodGenerator;
+import org.bouncycastle.openpgp.operator.jcajce.JceSessionKeyDataDecryptorFactoryBuilder;
 
 public class Encryption
 {
@@ -60,20 +71,97 @@ public class Encryption
         }
     }
 
+    // the symmetric algorithm the message is encrypted with, after its session key is encrypted with the receivers' ElGamal (or X25519) keys
+    // + the cfb algorithms protect the message with a modification detection code (a sha1 hash at its end)
+    // + the aead algorithms use the chunked aead encryption of rfc 9580 (a version 2 integrity protected data packet), whose chunks are authenticated one by one
+    // ! the aead algorithms are only used if every receiver's key advertises support for them, otherwise the same cipher is used in the cfb mode (see getEffectiveEncryptionAlgorithm)
     public static enum EncryptionAlgorithm
     {
         ELGAMAL_3DES( PGPEncryptedData.TRIPLE_DES ),
         ELGAMAL_IDEA( PGPEncryptedData.IDEA ),
+        ELGAMAL_AES_128( PGPEncryptedData.AES_128 ),
+        ELGAMAL_AES_192( PGPEncryptedData.AES_192 ),
+        ELGAMAL_AES_256( PGPEncryptedData.AES_256 ),
+        ELGAMAL_AES_128_OCB( PGPEncryptedData.AES_128, AEADAlgorithmTags.OCB ),
+        ELGAMAL_AES_256_OCB( PGPEncryptedData.AES_256, AEADAlgorithmTags.OCB ),
+        ELGAMAL_AES_128_GCM( PGPEncryptedData.AES_128, AEADAlgorithmTags.GCM ),
+        ELGAMAL_AES_256_GCM( PGPEncryptedData.AES_256, AEADAlgorithmTags.GCM ),
         NONE( PGPEncryptedData.NULL );
 
         public final int id;
+        // the aead mode, or NO_AEAD for the cfb mode
+        public final int aeadId;
 
         private EncryptionAlgorithm( int id )
+        {
+            this( id, NO_AEAD );
+        }
+
+        private EncryptionAlgorithm( int id, int aeadId )
         {
             this.id = id;
+            this.aeadId = aeadId;
+        }
+
+        public boolean isAead()
+        {
+            return aeadId != NO_AEAD;
+        }
+
+        // the same cipher in the cfb mode
+        public EncryptionAlgorithm withoutAead()
+        {
+            for( EncryptionAlgorithm algorithm : values() )
+                if( algorithm.id == id && !algorithm.isAead() )
+                    return algorithm;
+            return this;
         }
     }
 
+    // shown when an aead algorithm was chosen, but the message is encrypted in the cfb mode since not every receiver can read aead messages
+    public static final String AEAD_FALLBACK_WARNING = "Not every receiver's key supports AEAD (OCB/GCM) encryption, the message is encrypted in the CFB mode with integrity protection instead.";
+
+    // the algorithm the message is compressed with before it is encrypted
+    // + the level (0 to 9, or DEFAULT_COMPRESSION_LEVEL) only applies to zip and zlib, bzip2 always uses its largest block size
+    // + the automatic mode samples the start of the message and skips compression if the sample looks already compressed (jpegs, archives, ...)
+    public static enum CompressionAlgorithm
+    {
+        ZIP( PGPCompressedData.ZIP ),
+        ZLIB( PGPCompressedData.ZLIB ),
+        BZIP2( PGPCompressedData.BZIP2 ),
+        AUTO( PGPCompressedData.ZIP ),
+        NONE( PGPCompressedData.UNCOMPRESSED );
+
+        // the algorithm used when compressing, for the automatic mode the one used if the sample is compressible
+        public final int id;
+
+        private CompressionAlgorithm( int id )
+        {
+            this.id = id;
+        }
+    }
+
+    public static final int DEFAULT_COMPRESSION_LEVEL = Deflater.DEFAULT_COMPRESSION;
+
+    private static final int NO_AEAD = 0;
+    // every aead chunk holds 2^18 bytes (256 KiB)
+    // + a chunk's plaintext is only released once its authentication tag is checked, so this is also how much the decryption buffers
+    private static final int AEAD_CHUNK_SIZE_BITS = 18;
+
+    // FIXME: the literal data file name should be specified in the function parameters
+    private static final String LITERAL_DATA_FILE_NAME = "filename";
+    // how much of the start of the message the automatic compression mode samples
+    // ! at most the packet buffer size, since the streaming pipeline reads the sample into its copy buffer
+    private static final int COMPRESSION_SAMPLE_SIZE = BufferPool.PACKET_BUFFER_SIZE;
+    // entropy (in bits per byte, at most 8) above which the sample is considered already compressed or encrypted
+    // + deflate output and jpeg scans sit just under 8, while text is around 4.5 to 5.5 and executables around 6
+    private static final double INCOMPRESSIBLE_ENTROPY = 7.5;
+
+    // recovered session keys, so that opening the same message again skips the elgamal decryption
+    // + the capacity (number of session keys) can be overridden by the system property below; a capacity of zero disables the cache
+    public static final String SESSION_KEY_CACHE_CAPACITY_PROPERTY = "pgpclient.sessionKeyCache.capacity";
+    private static final SessionKeyCache sessionKeyCache = new SessionKeyCache( Integer.getInteger( SESSION_KEY_CACHE_CAPACITY_PROPERTY, 256 ) );
+
     public static class PgpMessage
     {
         public byte[] encryptedMessage = null;
@@ -84,46 +172,58 @@ public class Encryption
         public boolean isEncrypted = false;
         public boolean isSigned = false;
         public boolean isCompressed = false;
+        public String compressionAlgorithm = "";
         public boolean isRadix64Encoded = false;
         public boolean isIntegrityVerified = false;
         public boolean isSignatureVerified = false;
     }
 
     // create a literal data packet from the given message
-    private static byte[] createLiteralPacket(
+    static byte[] createLiteralPacket(
             byte[] message ) throws IOException
     {
         if( message == null )
             return null;
 
-        ByteArrayOutputStream messageStream = null;
+        BufferPool.OutputBuffer messageStream = BufferPool.acquireOutputBuffer();
+        try
+        {
+            writeLiteralPacket( message, message.length, messageStream );
+            return messageStream.toByteArray();
+        }
+        finally
+        {
+            BufferPool.release( messageStream );
+        }
+    }
+
+    // write a literal data packet holding the first length bytes of the given message into the message stream
+    private static void writeLiteralPacket(
+            byte[] message,
+            int length,
+            OutputStream messageStream ) throws IOException
+    {
         OutputStream literalDataStream = null;
+        byte[] packetBuffer = BufferPool.acquirePacketBuffer();
 
         try
         {
-            // create a message stream for the resulting packet
-            messageStream = new ByteArrayOutputStream();
-
-            // create a literal data packet generator and stream with the above message stream
+            // create a literal data packet generator and stream with the given message stream
             PGPLiteralDataGenerator literalDataGen = new PGPLiteralDataGenerator();
             literalDataStream = literalDataGen.open(
                     messageStream,
                     PGPLiteralData.BINARY,
-                    "filename", // FIXME: this should be specified in the function parameters
+                    LITERAL_DATA_FILE_NAME,
                     new Date(),
-                    new byte[50000]
+                    packetBuffer
             );
 
             // write the data packet to the message body and close the literal packet stream
-            literalDataStream.write( message );
+            literalDataStream.write( message, 0, length );
             literalDataStream.close();
+            literalDataStream = null;
 
-            // overwrite the message buffer and close the message stream
-            message = messageStream.toByteArray();
-            messageStream.close();
-
-            // return the message
-            return message;
+            return;
         }
         catch( IOException ex )
         {
@@ -134,8 +234,6 @@ public class Encryption
             try
             {
                 // close all open resources
-                if( messageStream != null )
-                    messageStream.close();
                 if( literalDataStream != null )
                     literalDataStream.close();
             }
@@ -143,14 +241,60 @@ public class Encryption
             {
                 Logger.getLogger( Encryption.class.getName() ).log( Level.SEVERE, "Could not close file after IOException occured during write.", ex );
             }
+            BufferPool.release( packetBuffer );
         }
 
         throw new IOException( "Could not create a literal data packet." );
     }
 
+    // create a signature generator initialized with the sender's private key and the signature header subpackets
+    private static PGPSignatureGenerator createSignatureGenerator(
+            PGPSecretKey senderSecretKey,
+            char[] senderPassphrase ) throws PGPException
+    {
+        // get the sender's private key using the given passphrase
+        PGPPrivateKey senderPrivateKey = PGPKeys.extractPrivateKey( senderSecretKey, senderPassphrase );
+        // get the sender's public key
+        PGPPublicKey senderPublicKey = senderSecretKey.getPublicKey();
+        // get the sender's public key id
+        String senderPublicKeyId = ( String )senderPublicKey.getUserIDs().next();
+
+        // make a signature generator
+        PGPSignatureGenerator signatureGen = new PGPSignatureGenerator(
+                new JcaPGPContentSignerBuilder(
+                        senderSecretKey.getPublicKey().getAlgorithm(),
+                        HashAlgorithmTags.SHA256
+                ).setProvider( CryptoProviders.getSignatureProvider( senderSecretKey.getPublicKey().getAlgorithm(), HashAlgorithmTags.SHA256 ) )
+                        .setDigestProvider( CryptoProviders.getDigestProvider( HashAlgorithmTags.SHA256 ) )
+        );
+        signatureGen.init( PGPSignature.BINARY_DOCUMENT, senderPrivateKey );
+
+        // make a generator for the signature's header subpackets
+        PGPSignatureSubpacketGenerator signatureSubpacketGen = new PGPSignatureSubpacketGenerator();
+        signatureSubpacketGen.setSignerUserID( /*isCritical=*/ false, senderPublicKeyId );
+        signatureSubpacketGen.setSignatureCreationTime( /*isCritical=*/ false, new Date() );
+        signatureSubpacketGen.setPreferredHashAlgorithms( /*isCritical=*/ false, new int[]
+                {
+                    HashAlgorithmTags.SHA256
+                } );
+        signatureSubpacketGen.setPreferredSymmetricAlgorithms( /*isCritical=*/ false, new int[]
+                {
+                    PGPEncryptedData.AES_256, PGPEncryptedData.AES_192, PGPEncryptedData.AES_128, PGPEncryptedData.IDEA, PGPEncryptedData.TRIPLE_DES
+                } );
+        signatureSubpacketGen.setPreferredCompressionAlgorithms( /*isCritical=*/ false, new int[]
+                {
+                    PGPCompressedData.ZIP, PGPCompressedData.ZLIB, PGPCompressedData.BZIP2
+                } );
+
+        // set the hashed subpackets in the signature
+        signatureGen.setHashedSubpackets( signatureSubpacketGen.generate() );
+
+        return signatureGen;
+    }
+
     // surround the message with a one pass signature packet and a signature packet
     // ! the given message should not already be a literal data packet (this function wraps the message in a literal data packet)
-    private static byte[] createSignaturePackets(
+    static byte[] createSignaturePackets(
             byte[] message,
             PGPSecretKey senderSecretKey,
             char[] senderPassphrase ) throws IOException
@@ -158,72 +302,46 @@ public class Encryption
         if( message == null || senderSecretKey == null || senderPassphrase == null )
             return null;
 
-        ByteArrayOutputStream messageStream = null;
+        BufferPool.OutputBuffer messageStream = BufferPool.acquireOutputBuffer();
+        try
+        {
+            writeSignaturePackets( message, message.length, senderSecretKey, senderPassphrase, messageStream );
+            return messageStream.toByteArray();
+        }
+        finally
+        {
+            BufferPool.release( messageStream );
+        }
+    }
 
+    // write the first length bytes of the given message as a literal data packet between a one pass signature packet and a signature packet
+    private static void writeSignaturePackets(
+            byte[] message,
+            int length,
+            PGPSecretKey senderSecretKey,
+            char[] senderPassphrase,
+            OutputStream messageStream ) throws IOException
+    {
         try
         {
-            // get the sender's private key using the given passphrase
-            PGPPrivateKey senderPrivateKey = senderSecretKey.extractPrivateKey(
-                    new JcePBESecretKeyDecryptorBuilder()
-                            .setProvider( "BC" )
-                            .build( senderPassphrase )
-            );
-            // get the sender's public key
-            PGPPublicKey senderPublicKey = senderSecretKey.getPublicKey();
-            // get the sender's public key id
-            String senderPublicKeyId = ( String )senderPublicKey.getUserIDs().next();
-
-            // make a signature generator
-            PGPSignatureGenerator signatureGen = new PGPSignatureGenerator(
-                    new JcaPGPContentSignerBuilder(
-                            senderSecretKey.getPublicKey().getAlgorithm(),
-                            HashAlgorithmTags.SHA256
-                    ).setProvider( "BC" )
-            );
-            signatureGen.init( PGPSignature.BINARY_DOCUMENT, senderPrivateKey );
-
-            // make a generator for the signature's header subpackets
-            PGPSignatureSubpacketGenerator signatureSubpacketGen = new PGPSignatureSubpacketGenerator();
-            signatureSubpacketGen.setSignerUserID( /*isCritical=*/ false, senderPublicKeyId );
-            signatureSubpacketGen.setSignatureCreationTime( /*isCritical=*/ false, new Date() );
-            signatureSubpacketGen.setPreferredHashAlgorithms( /*isCritical=*/ false, new int[]
-                    {
-                        HashAlgorithmTags.SHA256
-                    } );
-            signatureSubpacketGen.setPreferredSymmetricAlgorithms( /*isCritical=*/ false, new int[]
-                    {
-                        PGPEncryptedData.IDEA, PGPEncryptedData.TRIPLE_DES
-                    } );
-            signatureSubpacketGen.setPreferredCompressionAlgorithms( /*isCritical=*/ false, new int[]
-                    {
-                        PGPCompressedData.ZIP
-                    } );
-
-            // set the hashed subpackets in the signature
-            signatureGen.setHashedSubpackets( signatureSubpacketGen.generate() );
+            // make a signature generator using the sender's secret key
+            PGPSignatureGenerator signatureGen = createSignatureGenerator( senderSecretKey, senderPassphrase );
 
             // create a one-pass signature header (parameter header in front of the message used for calculating the message signature in one pass)
             PGPOnePassSignature signatureHeader = signatureGen.generateOnePassVersion( /*isNested=*/ false );
-            // create a literal packet from the message body
-            byte[] literalPacket = createLiteralPacket( message );
             // update the message digest by hashing the message body
-            signatureGen.update( message );
+            signatureGen.update( message, 0, length );
             // create a signature by signing the message digest with the sender's private key
             PGPSignature signature = signatureGen.generate();
 
-            messageStream = new ByteArrayOutputStream();
             // prepend the signature one-pass header
             signatureHeader.encode( messageStream );
             // write the literal data packet
-            messageStream.write( literalPacket );
+            writeLiteralPacket( message, length, messageStream );
             // append the signature packet
             signature.encode( messageStream );
 
-            // overwrite the message buffer and close the message stream
-            message = messageStream.toByteArray();
-            messageStream.close();
-
-            return message;
+            return;
         }
         catch( IOException ex )
         {
@@ -233,49 +351,65 @@ public class Encryption
         {
             Logger.getLogger( Encryption.class.getName() ).log( Level.INFO, "Could not create message signature.", ex );
         }
-        finally
-        {
-            try
-            {
-                // close all open resources
-                if( messageStream != null )
-                    messageStream.close();
-            }
-            catch( IOException ex )
-            {
-                Logger.getLogger( Encryption.class.getName() ).log( Level.SEVERE, "Could not close file after IOException occured during write.", ex );
-            }
-        }
 
         throw new IOException( "Could not append a signature packet to the message." );
     }
 
-    // create a compressed packet from the given message
-    private static byte[] createCompressedPacket(
+    // create a zip compressed packet from the given message
+    static byte[] createCompressedPacket(
             byte[] message ) throws IOException
+    {
+        return createCompressedPacket( message, CompressionAlgorithm.ZIP, DEFAULT_COMPRESSION_LEVEL );
+    }
+
+    // create a compressed packet from the given message, or return the message unchanged if it shouldn't be compressed
+    static byte[] createCompressedPacket(
+            byte[] message,
+            CompressionAlgorithm compressionAlgorithm,
+            int compressionLevel ) throws IOException
     {
         if( message == null )
             return null;
 
-        ByteArrayOutputStream messageStream = null;
+        if( compressionAlgorithm == CompressionAlgorithm.AUTO )
+            compressionAlgorithm = chooseCompressionAlgorithm( message, Math.min( message.length, COMPRESSION_SAMPLE_SIZE ) );
+        if( compressionAlgorithm == CompressionAlgorithm.NONE )
+            return message;
+
+        BufferPool.OutputBuffer messageStream = BufferPool.acquireOutputBuffer();
+        try
+        {
+            writeCompressedPacket( message, message.length, compressionAlgorithm, compressionLevel, messageStream );
+            return messageStream.toByteArray();
+        }
+        finally
+        {
+            BufferPool.release( messageStream );
+        }
+    }
+
+    // write a packet holding the first length bytes of the given message compressed with the given algorithm (other than auto and none)
+    private static void writeCompressedPacket(
+            byte[] message,
+            int length,
+            CompressionAlgorithm compressionAlgorithm,
+            int compressionLevel,
+            OutputStream messageStream ) throws IOException
+    {
         OutputStream compressedDataStream = null;
 
         try
         {
             // create a compressed data packet stream
-            messageStream = new ByteArrayOutputStream();
-            PGPCompressedDataGenerator compressedDataGen = new PGPCompressedDataGenerator( PGPCompressedData.ZIP );
+            PGPCompressedDataGenerator compressedDataGen = new PGPCompressedDataGenerator( compressionAlgorithm.id, compressionLevel );
             compressedDataStream = compressedDataGen.open( messageStream );
 
             // write the compressed data packet to the message stream and close the compressed data stream
-            compressedDataStream.write( message );
+            compressedDataStream.write( message, 0, length );
             compressedDataStream.close();
+            compressedDataStream = null;
 
-            // overwrite the message buffer and close the message stream
-            message = messageStream.toByteArray();
-            messageStream.close();
-
-            return message;
+            return;
         }
         catch( IOException ex )
         {
@@ -286,8 +420,6 @@ public class Encryption
             try
             {
                 // close all open resources
-                if( messageStream != null )
-                    messageStream.close();
                 if( compressedDataStream != null )
                     compressedDataStream.close();
             }
@@ -300,46 +432,176 @@ public class Encryption
         throw new IOException( "Could not create a compressed data packet." );
     }
 
+    // choose the algorithm for the automatic compression mode, given a sample from the start of the message
+    // + compressed and encrypted data look like random bytes, so their byte values are close to uniformly distributed
+    private static CompressionAlgorithm chooseCompressionAlgorithm( byte[] sample, int sampleLength )
+    {
+        double entropy = estimateEntropy( sample, sampleLength );
+        if( entropy > INCOMPRESSIBLE_ENTROPY )
+        {
+            Logger.getLogger( Encryption.class.getName() ).log( Level.FINE, String.format( "Skipping compression, the message sample has %.2f bits of entropy per byte.", entropy ) );
+            return CompressionAlgorithm.NONE;
+        }
+
+        return CompressionAlgorithm.ZIP;
+    }
+
+    // estimate the shannon entropy of the sample in bits per byte, from the frequencies of its byte values
+    // ! underestimates the entropy of short samples (a sample of n bytes has at most log2(n) bits per byte), which only errs on the side of compressing
+    private static double estimateEntropy( byte[] sample, int sampleLength )
+    {
+        if( sampleLength == 0 )
+            return 0;
+
+        int[] counts = new int[256];
+        for( int i = 0; i < sampleLength; i++ )
+            counts[sample[i] & 0xff]++;
+
+        double entropy = 0;
+        for( int count : counts )
+        {
+            if( count == 0 )
+                continue;
+
+            double p = ( double )count / sampleLength;
+            entropy -= p * Math.log( p );
+        }
+
+        return entropy / Math.log( 2 );
+    }
+
+    // the algorithm the message is actually encrypted with for the given receivers
+    // + an aead algorithm is only used if every receiver's key advertises support for version 2 integrity protected data packets (features subpacket),
+    //   as rfc 9580 requires; older implementations (e.g. gnupg 2.2) reject them, so otherwise the same cipher is used in the cfb mode with a modification detection code
+    public static EncryptionAlgorithm getEffectiveEncryptionAlgorithm(
+            EncryptionAlgorithm encryptionAlgorithm,
+            List<PGPPublicKey> receiverPublicKeys )
+    {
+        if( !encryptionAlgorithm.isAead() )
+            return encryptionAlgorithm;
+
+        for( PGPPublicKey receiverPublicKey : receiverPublicKeys )
+            if( !isSeipdV2Supported( receiverPublicKey ) )
+                return encryptionAlgorithm.withoutAead();
+
+        return encryptionAlgorithm;
+    }
+
+    // whether the key advertises support for version 2 integrity protected data packets
+    // + the features are announced in the master key's self signatures, and sometimes in the subkey's binding signature as well
+    private static boolean isSeipdV2Supported( PGPPublicKey receiverPublicKey )
+    {
+        if( hasSeipdV2Feature( receiverPublicKey ) )
+            return true;
+        if( receiverPublicKey.isMasterKey() )
+            return false;
+
+        PGPPublicKey masterKey = null;
+        try
+        {
+            masterKey = PGPKeys.getPublicKeyRing( receiverPublicKey.getKeyID() ).getPublicKey();
+        }
+        catch( IllegalArgumentException | IOException | PGPException ex )
+        {
+            Logger.getLogger( Encryption.class.getName() ).log( Level.FINE, "Receiver key ring not found, only the subkey's features are known.", ex );
+        }
+        return masterKey != null && hasSeipdV2Feature( masterKey );
+    }
+
+    private static boolean hasSeipdV2Feature( PGPPublicKey key )
+    {
+        Iterator<PGPSignature> signatureIter = key.getSignatures();
+        while( signatureIter.hasNext() )
+        {
+            PGPSignatureSubpacketVector hashedSubpackets = signatureIter.next().getHashedSubPackets();
+            Features features = hashedSubpackets != null ? hashedSubpackets.getFeatures() : null;
+            if( features != null && features.supportsSEIPDv2() )
+                return true;
+        }
+        return false;
+    }
+
+    // create an encryption generator which encrypts a single session key with every receiver's public key
+    // + the message is encrypted only once, and every receiver gets its own public key encrypted session key packet
+    // + an aead algorithm falls back to the cfb mode if not every receiver supports it
+    private static PGPEncryptedDataGenerator createEncryptedDataGenerator(
+            List<PGPPublicKey> receiverPublicKeys,
+            EncryptionAlgorithm encryptionAlgorithm )
+    {
+        EncryptionAlgorithm effectiveEncryptionAlgorithm = getEffectiveEncryptionAlgorithm( encryptionAlgorithm, receiverPublicKeys );
+        if( effectiveEncryptionAlgorithm != encryptionAlgorithm )
+        {
+            Logger.getLogger( Encryption.class.getName() ).log( Level.WARNING, AEAD_FALLBACK_WARNING );
+            encryptionAlgorithm = effectiveEncryptionAlgorithm;
+        }
+
+        JcePGPDataEncryptorBuilder dataEncryptorBuilder = new JcePGPDataEncryptorBuilder( encryptionAlgorithm.id )
+                .setProvider( CryptoProviders.getCipherProvider( encryptionAlgorithm.id, encryptionAlgorithm.aeadId ) )
+                .setSecureRandom( new SecureRandom() );
+        if( encryptionAlgorithm.isAead() )
+            dataEncryptorBuilder.setWithAEAD( encryptionAlgorithm.aeadId, AEAD_CHUNK_SIZE_BITS ).setUseV6AEAD();
+        else
+            dataEncryptorBuilder.setWithIntegrityPacket( true );
+
+        PGPEncryptedDataGenerator encryptedDataGen = new PGPEncryptedDataGenerator( dataEncryptorBuilder );
+        for( PGPPublicKey receiverPublicKey : receiverPublicKeys )
+        {
+            encryptedDataGen.addMethod(
+                    new JcePublicKeyKeyEncryptionMethodGenerator( receiverPublicKey )
+                            .setProvider( CryptoProviders.getKeyEncryptionProvider( receiverPublicKey.getAlgorithm() ) )
+            );
+        }
+
+        return encryptedDataGen;
+    }
+
     // turn the message into an encrypted packet
-    private static byte[] createEncryptedPacket(
+    static byte[] createEncryptedPacket(
             byte[] message,
-            PGPPublicKey receiverPublicKey,
+            List<PGPPublicKey> receiverPublicKeys,
             EncryptionAlgorithm encryptionAlgorithm,
             char[] senderPassphrase ) throws IOException
     {
-        if( message == null || receiverPublicKey == null || senderPassphrase == null )
+        if( message == null || receiverPublicKeys == null || receiverPublicKeys.isEmpty() || senderPassphrase == null )
             return null;
 
-        ByteArrayOutputStream messageStream = null;
+        BufferPool.OutputBuffer messageStream = BufferPool.acquireOutputBuffer();
+        try
+        {
+            writeEncryptedPacket( message, message.length, receiverPublicKeys, encryptionAlgorithm, messageStream );
+            return messageStream.toByteArray();
+        }
+        finally
+        {
+            BufferPool.release( messageStream );
+        }
+    }
+
+    // write an encrypted packet holding the first length bytes of the given message into the message stream
+    private static void writeEncryptedPacket(
+            byte[] message,
+            int length,
+            List<PGPPublicKey> receiverPublicKeys,
+            EncryptionAlgorithm encryptionAlgorithm,
+            OutputStream messageStream ) throws IOException
+    {
         OutputStream encryptedDataStream = null;
+        byte[] packetBuffer = BufferPool.acquirePacketBuffer();
 
         try
         {
             // create an encryption generator
-            PGPEncryptedDataGenerator encryptedDataGen = new PGPEncryptedDataGenerator(
-                    new JcePGPDataEncryptorBuilder( encryptionAlgorithm.id )
-                            .setProvider( "BC" )
-                            .setSecureRandom( new SecureRandom() )
-                            .setWithIntegrityPacket( true )
-            );
-            encryptedDataGen.addMethod(
-                    new JcePublicKeyKeyEncryptionMethodGenerator( receiverPublicKey )
-                            .setProvider( "BC" )
-            );
+            PGPEncryptedDataGenerator encryptedDataGen = createEncryptedDataGenerator( receiverPublicKeys, encryptionAlgorithm );
 
             // make an encrypted output stream using the encryption generator
-            messageStream = new ByteArrayOutputStream();
-            encryptedDataStream = encryptedDataGen.open( messageStream, new byte[50000] );
+            encryptedDataStream = encryptedDataGen.open( messageStream, packetBuffer );
 
             // write the encrypted data packet to the message stream and close the encrypted data stream
-            encryptedDataStream.write( message );
+            encryptedDataStream.write( message, 0, length );
             encryptedDataStream.close();
+            encryptedDataStream = null;
 
-            // overwrite the message buffer and close the message stream
-            message = messageStream.toByteArray();
-            messageStream.close();
-
-            return message;
+            return;
         }
         catch( IOException ex )
         {
@@ -354,8 +616,6 @@ public class Encryption
             try
             {
                 // close all open resources
-                if( messageStream != null )
-                    messageStream.close();
                 if( encryptedDataStream != null )
                     encryptedDataStream.close();
             }
@@ -363,36 +623,50 @@ public class Encryption
             {
                 Logger.getLogger( Encryption.class.getName() ).log( Level.SEVERE, "Could not close file after IOException occured during write.", ex );
             }
+            BufferPool.release( packetBuffer );
         }
 
         throw new IOException( "Could not create an encrypted data packet." );
     }
 
     // encode the message into radix64 format
-    private static byte[] encodeAsRadix64(
+    static byte[] encodeAsRadix64(
             byte[] message ) throws IOException
     {
         if( message == null )
             return null;
 
-        ByteArrayOutputStream messageStream = null;
-        ArmoredOutputStream armoredStream = null;
+        BufferPool.OutputBuffer messageStream = BufferPool.acquireOutputBuffer();
+        try
+        {
+            writeRadix64( message, message.length, messageStream );
+            return messageStream.toByteArray();
+        }
+        finally
+        {
+            BufferPool.release( messageStream );
+        }
+    }
+
+    // write the first length bytes of the given message into the message stream in radix64 format
+    private static void writeRadix64(
+            byte[] message,
+            int length,
+            OutputStream messageStream ) throws IOException
+    {
+        Radix64OutputStream armoredStream = null;
 
         try
         {
             // make an armored output stream using the message stream
-            messageStream = new ByteArrayOutputStream();
-            armoredStream = new ArmoredOutputStream( messageStream );
+            armoredStream = new Radix64OutputStream( messageStream );
 
             // write the radix64 data packet to the message stream and close the armored data stream
-            armoredStream.write( message );
+            armoredStream.write( message, 0, length );
             armoredStream.close();
+            armoredStream = null;
 
-            // overwrite the message buffer and close the message stream
-            message = messageStream.toByteArray();
-            messageStream.close();
-
-            return message;
+            return;
         }
         catch( IOException ex )
         {
@@ -403,8 +677,6 @@ public class Encryption
             try
             {
                 // close all open resources
-                if( messageStream != null )
-                    messageStream.close();
                 if( armoredStream != null )
                     armoredStream.close();
             }
@@ -427,28 +699,291 @@ public class Encryption
             boolean addCompression,
             boolean addConversionToRadix64 ) throws IOException
     {
-        // create a literal data packet from the message body
-        // ! only if the message is not going to be signed
-        if( !addSignature )
-            message = createLiteralPacket( message );
+        return createPgpMessage(
+                message,
+                senderDsaSecretKey,
+                Collections.singletonList( receiverElGamalPublicKey ),
+                encryptionAlgorithm,
+                senderPassphrase,
+                addSignature,
+                addCompression,
+                addConversionToRadix64 );
+    }
+
+    // create a single pgp message readable by all the given receivers
+    public static byte[] createPgpMessage(
+            byte[] message,
+            PGPSecretKey senderDsaSecretKey,
+            List<PGPPublicKey> receiverElGamalPublicKeys,
+            EncryptionAlgorithm encryptionAlgorithm,
+            char[] senderPassphrase,
+            boolean addSignature,
+            boolean addCompression,
+            boolean addConversionToRadix64 ) throws IOException
+    {
+        return createPgpMessage(
+                message,
+                senderDsaSecretKey,
+                receiverElGamalPublicKeys,
+                encryptionAlgorithm,
+                senderPassphrase,
+                addSignature,
+                addCompression ? CompressionAlgorithm.ZIP : CompressionAlgorithm.NONE,
+                DEFAULT_COMPRESSION_LEVEL,
+                addConversionToRadix64 );
+    }
+
+    // create a single pgp message readable by all the given receivers, compressed with the given algorithm and level
+    public static byte[] createPgpMessage(
+            byte[] message,
+            PGPSecretKey senderDsaSecretKey,
+            List<PGPPublicKey> receiverElGamalPublicKeys,
+            EncryptionAlgorithm encryptionAlgorithm,
+            char[] senderPassphrase,
+            boolean addSignature,
+            CompressionAlgorithm compressionAlgorithm,
+            int compressionLevel,
+            boolean addConversionToRadix64 ) throws IOException
+    {
+        // a missing argument of a stage gives a null message, as with the stages on their own
+        if( message == null )
+            return null;
+        if( addSignature && (senderDsaSecretKey == null || senderPassphrase == null) )
+            return null;
+        if( encryptionAlgorithm != EncryptionAlgorithm.NONE && (receiverElGamalPublicKeys == null || receiverElGamalPublicKeys.isEmpty() || senderPassphrase == null) )
+            return null;
+
+        // every stage reads the previous stage's output and writes into the current buffer, which is then passed on to the next stage
+        // + the buffers come from the pool, so only the finished message is allocated
+        BufferPool.OutputBuffer previousStage = BufferPool.acquireOutputBuffer();
+        BufferPool.OutputBuffer currentStage = BufferPool.acquireOutputBuffer();
+
+        try
+        {
+            // create a literal data packet from the message body, and if the message should be signed, surround it with the signature packets
+            if( addSignature )
+                writeSignaturePackets( message, message.length, senderDsaSecretKey, senderPassphrase, currentStage );
+            else
+                writeLiteralPacket( message, message.length, currentStage );
+
+            // if the message should be compressed, turn it into a compressed packet
+            // + the automatic mode samples the plaintext itself, as the streaming pipeline does, and not the packet headers and signature packets around it
+            if( compressionAlgorithm == CompressionAlgorithm.AUTO )
+                compressionAlgorithm = chooseCompressionAlgorithm( message, Math.min( message.length, COMPRESSION_SAMPLE_SIZE ) );
+            if( compressionAlgorithm != CompressionAlgorithm.NONE )
+            {
+                currentStage.passTo( previousStage );
+                writeCompressedPacket( previousStage.buffer(), previousStage.size(), compressionAlgorithm, compressionLevel, currentStage );
+            }
+
+            // if the message should be encrypted, turn it into an encrypted packet
+            if( encryptionAlgorithm != EncryptionAlgorithm.NONE )
+            {
+                currentStage.passTo( previousStage );
+                writeEncryptedPacket( previousStage.buffer(), previousStage.size(), receiverElGamalPublicKeys, encryptionAlgorithm, currentStage );
+            }
+
+            // if the message should be converted into radix64 format, encode it into that format
+            if( addConversionToRadix64 )
+            {
+                currentStage.passTo( previousStage );
+                writeRadix64( previousStage.buffer(), previousStage.size(), currentStage );
+            }
+
+            return currentStage.toByteArray();
+        }
+        finally
+        {
+            BufferPool.release( previousStage );
+            BufferPool.release( currentStage );
+        }
+    }
+
+    // create a pgp message by streaming the input through the chained packet generators
+    // + the memory used does not depend on the message size, since no stage buffers the whole message
+    // + the output stream is flushed, but not closed
+    // ! if it fails, whatever was already written to the output stream is an incomplete message which has to be discarded (e.g. by writing into an atomic file output stream);
+    //   the generators are abandoned instead of closed, so that no packet trailers make the truncated message look structurally complete
+    public static void createPgpMessage(
+            InputStream inputStream,
+            OutputStream outputStream,
+            PGPSecretKey senderDsaSecretKey,
+            PGPPublicKey receiverElGamalPublicKey,
+            EncryptionAlgorithm encryptionAlgorithm,
+            char[] senderPassphrase,
+            boolean addSignature,
+            boolean addCompression,
+            boolean addConversionToRadix64 ) throws IOException
+    {
+        createPgpMessage(
+                inputStream,
+                outputStream,
+                senderDsaSecretKey,
+                Collections.singletonList( receiverElGamalPublicKey ),
+                encryptionAlgorithm,
+                senderPassphrase,
+                addSignature,
+                addCompression,
+                addConversionToRadix64 );
+    }
 
-        // if the message should be signed, append a signature packet
-        if( addSignature )
-            message = createSignaturePackets( message, senderDsaSecretKey, senderPassphrase );
+    // create a single pgp message readable by all the given receivers, by streaming the input through the chained packet generators
+    public static void createPgpMessage(
+            InputStream inputStream,
+            OutputStream outputStream,
+            PGPSecretKey senderDsaSecretKey,
+            List<PGPPublicKey> receiverElGamalPublicKeys,
+            EncryptionAlgorithm encryptionAlgorithm,
+            char[] senderPassphrase,
+            boolean addSignature,
+            boolean addCompression,
+            boolean addConversionToRadix64 ) throws IOException
+    {
+        createPgpMessage(
+                inputStream,
+                outputStream,
+                senderDsaSecretKey,
+                receiverElGamalPublicKeys,
+                encryptionAlgorithm,
+                senderPassphrase,
+                addSignature,
+                addCompression ? CompressionAlgorithm.ZIP : CompressionAlgorithm.NONE,
+                DEFAULT_COMPRESSION_LEVEL,
+                addConversionToRadix64 );
+    }
 
-        // if the message should be compressed, turn it into a compressed packet
-        if( addCompression )
-            message = createCompressedPacket( message );
+    // create a single pgp message readable by all the given receivers, compressed with the given algorithm and level
+    // + in the automatic compression mode the start of the input is read ahead, and its sample decides if the message gets compressed
+    public static void createPgpMessage(
+            InputStream inputStream,
+            OutputStream outputStream,
+            PGPSecretKey senderDsaSecretKey,
+            List<PGPPublicKey> receiverElGamalPublicKeys,
+            EncryptionAlgorithm encryptionAlgorithm,
+            char[] senderPassphrase,
+            boolean addSignature,
+            CompressionAlgorithm compressionAlgorithm,
+            int compressionLevel,
+            boolean addConversionToRadix64 ) throws IOException
+    {
+        if( inputStream == null || outputStream == null )
+            throw new IOException( "Could not create a pgp message." );
+        if( addSignature && (senderDsaSecretKey == null || senderPassphrase == null) )
+            throw new IOException( "Could not append a signature packet to the message." );
+        if( encryptionAlgorithm != EncryptionAlgorithm.NONE && (receiverElGamalPublicKeys == null || receiverElGamalPublicKeys.isEmpty() || receiverElGamalPublicKeys.contains( null )) )
+            throw new IOException( "Could not create an encrypted data packet." );
+
+        // the streams are stacked from the outermost (radix64) to the innermost (literal data) layer
+        // ! they have to be closed in the reverse order, so that every layer writes its trailer into the layer beneath it
+        Deque<OutputStream> streamStack = new ArrayDeque<>();
+        OutputStream currentStream = outputStream;
+        // the partial packet buffers of the encryption and literal data generators, and the buffer the message is copied through
+        byte[] encryptionBuffer = null;
+        byte[] literalBuffer = BufferPool.acquirePacketBuffer();
+        byte[] buffer = BufferPool.acquirePacketBuffer();
+
+        try
+        {
+            // if the message should be converted into radix64 format, encode everything written below in that format
+            if( addConversionToRadix64 )
+            {
+                currentStream = new Radix64OutputStream( currentStream );
+                streamStack.push( currentStream );
+            }
+
+            // if the message should be encrypted, encrypt everything written below
+            if( encryptionAlgorithm != EncryptionAlgorithm.NONE )
+            {
+                PGPEncryptedDataGenerator encryptedDataGen = createEncryptedDataGenerator( receiverElGamalPublicKeys, encryptionAlgorithm );
+                encryptionBuffer = BufferPool.acquirePacketBuffer();
+                currentStream = encryptedDataGen.open( currentStream, encryptionBuffer );
+                streamStack.push( currentStream );
+            }
+
+            // in the automatic compression mode, read the first blocks of the message to decide if it is worth compressing
+            int sampleLength = 0;
+            if( compressionAlgorithm == CompressionAlgorithm.AUTO )
+            {
+                int len;
+                while( sampleLength < COMPRESSION_SAMPLE_SIZE && (len = inputStream.read( buffer, sampleLength, COMPRESSION_SAMPLE_SIZE - sampleLength )) > 0 )
+                    sampleLength += len;
 
-        // if the message should be encrypted, turn it into an encrypted packet
-        if( encryptionAlgorithm != EncryptionAlgorithm.NONE )
-            message = createEncryptedPacket( message, receiverElGamalPublicKey, encryptionAlgorithm, senderPassphrase );
+                compressionAlgorithm = chooseCompressionAlgorithm( buffer, sampleLength );
+            }
 
-        // if the message should be converted into radix64 format, encode it into that format
-        if( addConversionToRadix64 )
-            message = encodeAsRadix64( message );
+            // if the message should be compressed, compress everything written below
+            if( compressionAlgorithm != CompressionAlgorithm.NONE )
+            {
+                PGPCompressedDataGenerator compressedDataGen = new PGPCompressedDataGenerator( compressionAlgorithm.id, compressionLevel );
+                currentStream = compressedDataGen.open( currentStream );
+                streamStack.push( currentStream );
+            }
 
-        return message;
+            // if the message should be signed, prepend the signature one-pass header
+            PGPSignatureGenerator signatureGen = null;
+            if( addSignature )
+            {
+                signatureGen = createSignatureGenerator( senderDsaSecretKey, senderPassphrase );
+                signatureGen.generateOnePassVersion( /*isNested=*/ false ).encode( currentStream );
+            }
+
+            // create a literal data packet stream
+            PGPLiteralDataGenerator literalDataGen = new PGPLiteralDataGenerator();
+            OutputStream literalDataStream = literalDataGen.open(
+                    currentStream,
+                    PGPLiteralData.BINARY,
+                    LITERAL_DATA_FILE_NAME,
+                    new Date(),
+                    literalBuffer
+            );
+
+            // copy the message body into the literal data packet, while updating the message digest
+            // + starting with the sample which was already read
+            if( sampleLength > 0 )
+            {
+                literalDataStream.write( buffer, 0, sampleLength );
+                if( signatureGen != null )
+                    signatureGen.update( buffer, 0, sampleLength );
+            }
+
+            int len;
+            while( (len = inputStream.read( buffer )) > 0 )
+            {
+                literalDataStream.write( buffer, 0, len );
+                if( signatureGen != null )
+                    signatureGen.update( buffer, 0, len );
+            }
+            literalDataStream.close();
+
+            // append the signature packet after the literal data packet
+            if( signatureGen != null )
+                signatureGen.generate().encode( currentStream );
+
+            // close the generator streams in reverse order, which writes their trailers
+            while( !streamStack.isEmpty() )
+                streamStack.pop().close();
+
+            outputStream.flush();
+            return;
+        }
+        catch( IOException ex )
+        {
+            Logger.getLogger( Encryption.class.getName() ).log( Level.INFO, "Could not stream the pgp message.", ex );
+        }
+        catch( PGPException ex )
+        {
+            Logger.getLogger( Encryption.class.getName() ).log( Level.INFO, "Could not create the pgp message.", ex );
+        }
+        finally
+        {
+            // on failure the generator streams are left unclosed, they hold nothing but the pooled buffers released below
+            streamStack.clear();
+            BufferPool.release( encryptionBuffer );
+            BufferPool.release( literalBuffer );
+            BufferPool.release( buffer );
+        }
+
+        throw new IOException( "Could not create a pgp message." );
     }
 
     private static String symmetricAlgorithmIntToString( int code )
@@ -488,6 +1023,48 @@ public class Encryption
         }
     }
 
+    private static String compressionAlgorithmIntToString( int code )
+    {
+        switch( code )
+        {
+            case PGPCompressedData.UNCOMPRESSED:
+                return "None";
+            case PGPCompressedData.ZIP:
+                return "ZIP";
+            case PGPCompressedData.ZLIB:
+                return "ZLIB";
+            case PGPCompressedData.BZIP2:
+                return "BZIP2";
+            default:
+                return "Unknown algorithm code.";
+        }
+    }
+
+    private static String aeadAlgorithmIntToString( int code )
+    {
+        switch( code )
+        {
+            case AEADAlgorithmTags.EAX:
+                return "EAX";
+            case AEADAlgorithmTags.OCB:
+                return "OCB";
+            case AEADAlgorithmTags.GCM:
+                return "GCM";
+            default:
+                return "Unknown aead algorithm code.";
+        }
+    }
+
+    // the aead mode is in the rfc 9580 integrity protected data packet (version 2), or in the older aead encrypted data packet
+    private static int getAeadAlgorithm( PGPEncryptedData encryptedData )
+    {
+        if( encryptedData.getEncData() instanceof SymmetricEncIntegrityPacket )
+            return (( SymmetricEncIntegrityPacket )encryptedData.getEncData()).getAeadAlgorithm();
+        if( encryptedData.getEncData() instanceof AEADEncDataPacket )
+            return (( AEADEncDataPacket )encryptedData.getEncData()).getAEADAlgorithm();
+        return NO_AEAD;
+    }
+
     private static class PgpDecryptionState
     {
         PGPEncryptedDataList encryptedDataList = null;
@@ -495,6 +1072,11 @@ public class Encryption
         Object currentMessage = null;
         PGPObjectFactory pgpObjectFactory = null;
         PGPPublicKeyEncryptedData publicKeyEncryptedData = null;
+        // the encrypted data the plaintext is read from, whose integrity is checked once it is read
+        PGPSessionKeyEncryptedData sessionKeyEncryptedData = null;
+        // sha256 of the message up to its encrypted data (the session key packets), or null if the session key cache is disabled
+        byte[] messageHash = null;
+        PGPSessionKey sessionKey = null;
         PGPOnePassSignature onePassSignature = null;
         PGPPublicKey signerPublicKey = null;
     }
@@ -505,6 +1087,7 @@ public class Encryption
             PgpDecryptionState pgpDecryptionState ) throws IOException
     {
         PGPObjectFactory pgpObjectFactory = new PGPObjectFactory( inputStream, new BcKeyFingerprintCalculator() );
+        pgpDecryptionState.pgpObjectFactory = pgpObjectFactory;
         pgpDecryptionState.pgpObject = pgpObjectFactory.nextObject();
 
         // Determine if the message is encrypted
@@ -525,41 +1108,34 @@ public class Encryption
         }
     }
 
+    // + armored messages are decoded by the radix64 input stream, anything else (binary messages, cleartext signatures) is left to bouncy castle
     private static InputStream removeRadix64Encoding( InputStream inputStream ) throws IOException
     {
-        return PGPUtil.getDecoderStream( new BufferedInputStream( inputStream ) );
+        BufferedInputStream bufferedStream = new BufferedInputStream( inputStream );
+        if( Radix64InputStream.isArmored( bufferedStream ) )
+            return new Radix64InputStream( bufferedStream );
+
+        return PGPUtil.getDecoderStream( bufferedStream );
     }
 
-    private static void decrypt(
-            PgpMessage pgpMessage,
+    // find the receiver's secret key among the encrypted session key packets, and unlock it with the passphrase
+    // + only the packets' headers are looked at, so the encrypted data is not consumed and a wrong passphrase can be retried
+    private static PGPPrivateKey findPrivateKey(
             PgpDecryptionState pds,
-            char[] passphrase ) throws PGPException, IOException
+            char[] passphrase ) throws PGPException
     {
-        if( !pgpMessage.isEncrypted )
-        {
-            return;
-        }
-
         PGPPrivateKey secretKey = null;
 
         Iterator<PGPEncryptedData> it = pds.encryptedDataList.getEncryptedDataObjects();
 
-        PGPSecretKeyRingCollection pgpSecretKeyRingCollection = PGPKeys.getSecretKeysCollection();
         while( secretKey == null && it.hasNext() )
         {
             pds.publicKeyEncryptedData = ( PGPPublicKeyEncryptedData )it.next();
-            PGPSecretKey pgpSecKey = pgpSecretKeyRingCollection.getSecretKey( pds.publicKeyEncryptedData.getKeyID() );
+            PGPSecretKey pgpSecKey = PGPKeys.getSecretKey( pds.publicKeyEncryptedData.getKeyID() );
 
             if( pgpSecKey != null )
             {
-                Provider provider = Security.getProvider( "BC" );
-                secretKey = pgpSecKey.extractPrivateKey(
-                        new JcePBESecretKeyDecryptorBuilder(
-                                new JcaPGPDigestCalculatorProviderBuilder()
-                                        .setProvider( provider )
-                                        .build() )
-                                .setProvider( provider )
-                                .build( passphrase ) );
+                secretKey = PGPKeys.extractPrivateKey( pgpSecKey, passphrase );
             }
         }
 
@@ -568,24 +1144,45 @@ public class Encryption
         {
             throw new IllegalArgumentException( "Secret key for message not found." );
         }
-        // Secret key found and message is decrypted
-        else
+
+        return secretKey;
+    }
+
+    private static void decrypt(
+            PgpMessage pgpMessage,
+            PgpDecryptionState pds,
+            PGPPrivateKey secretKey ) throws PGPException, IOException
+    {
+        // recover the session key with the elgamal (or x25519) private key, unless it was already recovered from the same message
+        // + the session key knows its symmetric algorithm, so the expensive private key operation is done once per message
+        pds.sessionKey = pds.messageHash != null ? sessionKeyCache.get( pds.messageHash ) : null;
+        if( pds.sessionKey == null )
         {
-            System.out.println( "Decryption successful!" );
+            pds.sessionKey = pds.publicKeyEncryptedData.getSessionKey(
+                    new JcePublicKeyDataDecryptorFactoryBuilder()
+                            .setProvider( CryptoProviders.getKeyEncryptionProvider( secretKey.getPublicKeyPacket().getAlgorithm() ) )
+                            .build( secretKey ) );
+            if( pds.messageHash != null )
+                sessionKeyCache.put( pds.messageHash, pds.sessionKey );
         }
 
-        int symmetricAlogirthTag = pds.publicKeyEncryptedData.getSymmetricAlgorithm(
-                new JcePublicKeyDataDecryptorFactoryBuilder()
-                        .setProvider( "BC" )
-                        .build( secretKey ) );
+        int symmetricAlogirthTag = pds.sessionKey.getAlgorithm();
+        int aeadAlgorithmTag = pds.publicKeyEncryptedData.isAEAD() ? getAeadAlgorithm( pds.publicKeyEncryptedData ) : NO_AEAD;
         pgpMessage.encryptionAlgorithm = symmetricAlgorithmIntToString( symmetricAlogirthTag );
-
-        InputStream clear = pds.publicKeyEncryptedData.getDataStream(
-                new JcePublicKeyDataDecryptorFactoryBuilder()
-                        .setProvider( "BC" )
-                        .build( secretKey ) );
+        if( aeadAlgorithmTag != NO_AEAD )
+            pgpMessage.encryptionAlgorithm += "/" + aeadAlgorithmIntToString( aeadAlgorithmTag );
+
+        // the message is decrypted with the session key, on the provider chosen for its symmetric algorithm
+        pds.sessionKeyEncryptedData = pds.encryptedDataList.extractSessionKeyEncryptedData();
+        InputStream clear = pds.sessionKeyEncryptedData.getDataStream(
+                new JceSessionKeyDataDecryptorFactoryBuilder()
+                        .setProvider( CryptoProviders.getCipherProvider( symmetricAlogirthTag, aeadAlgorithmTag ) )
+                        .build( pds.sessionKey ) );
         pds.pgpObjectFactory = new PGPObjectFactory( clear, null );
         pds.currentMessage = pds.pgpObjectFactory.nextObject();
+
+        // not printed, since the decrypted message itself can be written to the standard output
+        Logger.getLogger( Encryption.class.getName() ).log( Level.FINE, "Decryption successful!" );
     }
 
     private static void decompress(
@@ -597,6 +1194,7 @@ public class Encryption
         {
             pgpMessage.isCompressed = true;
             PGPCompressedData compressedData = ( PGPCompressedData )pds.currentMessage;
+            pgpMessage.compressionAlgorithm = compressionAlgorithmIntToString( compressedData.getAlgorithm() );
             pds.pgpObjectFactory = new PGPObjectFactory( new BufferedInputStream( compressedData.getDataStream() ), null );
             pds.currentMessage = pds.pgpObjectFactory.nextObject();
         }
@@ -614,9 +1212,12 @@ public class Encryption
             pgpMessage.isSigned = true;
 
             // Get signer public key
-            pds.signerPublicKey = PGPKeys.getPublicKeysCollection().getPublicKey( keyId );
+            pds.signerPublicKey = PGPKeys.getPublicKey( keyId );
 
-            pds.onePassSignature.init( new JcaPGPContentVerifierBuilderProvider().setProvider( "BC" ), pds.signerPublicKey );
+            pds.onePassSignature.init(
+                    new JcaPGPContentVerifierBuilderProvider()
+                            .setProvider( CryptoProviders.getSignatureProvider( pds.onePassSignature.getKeyAlgorithm(), pds.onePassSignature.getHashAlgorithm() ) ),
+                    pds.signerPublicKey );
 
             pds.currentMessage = pds.pgpObjectFactory.nextObject();
         }
@@ -624,46 +1225,72 @@ public class Encryption
 
     private static void unpackLiteral(
             PgpMessage pgpMessage,
-            PgpDecryptionState pds ) throws PGPException, IOException
+            PgpDecryptionState pds,
+            OutputStream outputStream ) throws PGPException, IOException
     {
         if( pds.currentMessage instanceof PGPLiteralData )
         {
-            pgpMessage.decryptedMessage = IOUtils.toByteArray( (( PGPLiteralData )pds.currentMessage).getInputStream() );
-
-            verifyIntegrity( pgpMessage, pds );
+            // Copy the literal body to the output, hashing it for the one-pass signature on the way
+            InputStream literalDataStream = (( PGPLiteralData )pds.currentMessage).getInputStream();
+            byte[] buffer = BufferPool.acquirePacketBuffer();
+            try
+            {
+                int len;
+                while( (len = literalDataStream.read( buffer )) > 0 )
+                {
+                    outputStream.write( buffer, 0, len );
+                    if( pgpMessage.isSigned )
+                        pds.onePassSignature.update( buffer, 0, len );
+                }
+            }
+            finally
+            {
+                BufferPool.release( buffer );
+            }
+            outputStream.flush();
 
             // Read signature
+            // ! it has to be read before the integrity check, since the check drains the rest of the decrypted stream
             if( pgpMessage.isSigned )
             {
                 readSignature( pgpMessage, pds );
             }
+
+            verifyIntegrity( pgpMessage, pds );
+        }
+        else
+        {
+            // ! without this, a malformed message would pass as a successfully decrypted empty one
+            throw new PGPException( "Literal data packet not found!" );
         }
     }
 
+    // ! an encrypted message which fails the integrity check (or has no integrity packet) is rejected, so that no caller keeps its plaintext
     private static void verifyIntegrity(
             PgpMessage pgpMessage,
             PgpDecryptionState pds ) throws PGPException, IOException
     {
-        if( pds.publicKeyEncryptedData != null )
+        if( pds.sessionKeyEncryptedData != null )
         {
-            if( pds.publicKeyEncryptedData.isIntegrityProtected() && pds.publicKeyEncryptedData.verify() )
+            if( pds.sessionKeyEncryptedData.isIntegrityProtected() && pds.sessionKeyEncryptedData.verify() )
             {
                 pgpMessage.isIntegrityVerified = true;
             }
         }
+
+        if( pgpMessage.isEncrypted && !pgpMessage.isIntegrityVerified )
+            throw new PGPException( "Message integrity check failed!" );
     }
 
     private static void readSignature(
             PgpMessage pgpMessage,
             PgpDecryptionState pds ) throws PGPException, IOException
     {
-        pds.onePassSignature.update( pgpMessage.decryptedMessage );
-        PGPSignatureList p3 = ( PGPSignatureList )pds.pgpObjectFactory.nextObject();
-        if (p3 == null && pgpMessage.isSigned)
-        {
-            pgpMessage.isSignatureVerified = true;
-            return;
-        }
+        // ! a one-pass signature header without its signature packet must not pass as a verified signature
+        Object signatureObject = pds.pgpObjectFactory.nextObject();
+        if( !(signatureObject instanceof PGPSignatureList) || (( PGPSignatureList )signatureObject).isEmpty() )
+            throw new PGPException( "Signature packet not found!" );
+        PGPSignatureList p3 = ( PGPSignatureList )signatureObject;
 
         if( pds.onePassSignature.verify( p3.get( 0 ) ) )
         {
@@ -690,11 +1317,10 @@ public class Encryption
 
         Iterator<PGPEncryptedData> it = pds.encryptedDataList.getEncryptedDataObjects();
 
-        PGPSecretKeyRingCollection pgpSecretKeyRingCollection = PGPKeys.getSecretKeysCollection();
         while( secretKey == null && it.hasNext() )
         {
             pds.publicKeyEncryptedData = ( PGPPublicKeyEncryptedData )it.next();
-            PGPSecretKey pgpSecKey = pgpSecretKeyRingCollection.getSecretKey( pds.publicKeyEncryptedData.getKeyID() );
+            PGPSecretKey pgpSecKey = PGPKeys.getSecretKey( pds.publicKeyEncryptedData.getKeyID() );
 
             if( pgpSecKey != null )
             {
@@ -704,61 +1330,191 @@ public class Encryption
         }
     }
 
-    public static void readPgpMessage( PgpMessage pgpMessage ) throws Exception
+    // a pgp message whose input is read and decoded exactly once, from its inspection to its decryption
+    // + opening the message decodes its armor and parses its first packets, which tell if it is encrypted and for whom, without the passphrase
+    // + decrypting it continues from where the opening stopped, instead of decoding and parsing the message again
+    // ! the input is consumed by the decryption, so the session can be decrypted only once; a wrong passphrase does not consume it
+    public static class PgpMessageSession
     {
-        InputStream inputStream = new ByteArrayInputStream( pgpMessage.encryptedMessage );
-        inputStream = removeRadix64Encoding( inputStream );
+        private final PgpMessage pgpMessage;
+        private final PgpDecryptionState pds = new PgpDecryptionState();
+        private boolean isConsumed = false;
+
+        private PgpMessageSession( PgpMessage pgpMessage )
+        {
+            this.pgpMessage = pgpMessage;
+        }
 
-        PgpDecryptionState pds = new PgpDecryptionState();
-        checkIfEncrypted( inputStream, pgpMessage, pds );
+        public PgpMessage getPgpMessage()
+        {
+            return pgpMessage;
+        }
 
-        // If the message is not encrpyted, decoode it to extract all the data
-        // without a passphrase
-        if( !pgpMessage.isEncrypted )
+        public boolean isConsumed()
         {
-            pgpMessage.decryptedMessage = pgpMessage.encryptedMessage;
-            decryptPgpMessage( null, pgpMessage );
+            return isConsumed;
         }
-        // If the message is encrypted, get the `To` information so that user
-        // know which passphrase to enter
-        else
+
+        // the session key the message was decrypted with, or null if it isn't encrypted or hasn't been decrypted yet
+        public PGPSessionKey getSessionKey()
+        {
+            return pds.sessionKey;
+        }
+
+        // decrypt the message, and store its plaintext as the pgp message's decrypted message
+        public void decrypt( char[] passphrase ) throws IOException, PGPException
         {
-            getPublicKeyId( pgpMessage, pds );
+            BufferPool.OutputBuffer messageStream = BufferPool.acquireOutputBuffer();
+            try
+            {
+                decrypt( passphrase, messageStream );
+                pgpMessage.decryptedMessage = messageStream.toByteArray();
+            }
+            finally
+            {
+                BufferPool.release( messageStream );
+            }
+        }
+
+        // decrypt the message and stream its plaintext into the given output stream
+        // + the signature and the integrity packet are checked while the plaintext passes through
+        // + the output stream is flushed, but not closed
+        public void decrypt( char[] passphrase, OutputStream outputStream ) throws IOException, PGPException
+        {
+            if( isConsumed )
+                throw new IllegalStateException( "The pgp message has already been read." );
+
+            if( pgpMessage.isEncrypted )  // Message is encrypted, try to decrypt it
+            {
+                PGPPrivateKey secretKey = findPrivateKey( pds, passphrase );
+                isConsumed = true;
+                Encryption.decrypt( pgpMessage, pds, secretKey );
+            }
+            else  // Message is not encrypted
+            {
+                isConsumed = true;
+                pds.currentMessage = pds.pgpObject;
+            }
+
+            // If compressed, decompress
+            decompress( pgpMessage, pds );
+
+            // check if the message is signed
+            checkIfSigned( pgpMessage, pds );
+
+            // Unpack literal, optionally read and check signature
+            // and verify message integrity
+            unpackLiteral( pgpMessage, pds, outputStream );
         }
     }
 
-    public static void decryptPgpMessage(
-            char[] passphrase,
+    // open the pgp message held in the given pgp message object
+    public static PgpMessageSession openPgpMessage( PgpMessage pgpMessage ) throws IOException, PGPException
+    {
+        return openPgpMessage( new ByteArrayInputStream( pgpMessage.encryptedMessage ), pgpMessage );
+    }
+
+    // open the pgp message, and store what can be found out without the passphrase in the given pgp message object
+    // + whether it is radix64 encoded and encrypted, and the id of the receiver key which is in the secret key ring collection
+    public static PgpMessageSession openPgpMessage(
+            InputStream inputStream,
             PgpMessage pgpMessage ) throws IOException, PGPException
     {
-        PgpDecryptionState pds = new PgpDecryptionState();
+        PgpMessageSession session = new PgpMessageSession( pgpMessage );
 
-        InputStream inputStream = new ByteArrayInputStream( pgpMessage.encryptedMessage );
         inputStream = removeRadix64Encoding( inputStream );
 
         // check if message is radix64 encoded
-        pgpMessage.isRadix64Encoded = inputStream instanceof ArmoredInputStream;
+        pgpMessage.isRadix64Encoded = inputStream instanceof Radix64InputStream || inputStream instanceof ArmoredInputStream;
 
         // check if the message is encrypted
-        checkIfEncrypted( inputStream, pgpMessage, pds );
-
-        if( pgpMessage.isEncrypted )  // Message is encrypted, try to decrypt it
+        // + while hashing what is parsed, which for an encrypted message is everything its session key is recovered from
+        DigestInputStream digestStream = null;
+        if( sessionKeyCache.isEnabled() )
         {
-            decrypt( pgpMessage, pds, passphrase );
+            try
+            {
+                digestStream = new DigestInputStream( inputStream, MessageDigest.getInstance( "SHA-256" ) );
+                inputStream = digestStream;
+            }
+            catch( NoSuchAlgorithmException ex )
+            {
+                Logger.getLogger( Encryption.class.getName() ).log( Level.WARNING, "SHA-256 is not available, the session keys won't be cached.", ex );
+            }
         }
-        else  // Message is not encrypted
+        checkIfEncrypted( inputStream, pgpMessage, session.pds );
+        if( digestStream != null )
         {
-            pds.currentMessage = pds.pgpObject;
+            digestStream.on( false );
+            if( pgpMessage.isEncrypted )
+                session.pds.messageHash = digestStream.getMessageDigest().digest();
         }
 
-        // If compressed, decompress
-        decompress( pgpMessage, pds );
+        // If the message is encrypted, get the `To` information so that user
+        // know which passphrase to enter
+        getPublicKeyId( pgpMessage, session.pds );
+
+        return session;
+    }
+
+    // open the pgp message held in the given pgp message object, and decrypt it right away if that needs no passphrase
+    // + the returned session can be used to decrypt an encrypted message, once the passphrase is known
+    public static PgpMessageSession readPgpMessage( PgpMessage pgpMessage ) throws IOException, PGPException
+    {
+        PgpMessageSession session = openPgpMessage( pgpMessage );
+
+        // If the message is not encrpyted, decoode it to extract all the data
+        // without a passphrase
+        if( !pgpMessage.isEncrypted )
+            session.decrypt( null );
+
+        return session;
+    }
+
+    // change how many recovered session keys are cached; a capacity of zero disables the cache
+    public static void setSessionKeyCacheCapacity( int capacity )
+    {
+        sessionKeyCache.setCapacity( capacity );
+    }
+
+    // remove all recovered session keys from the cache
+    public static void flushSessionKeys()
+    {
+        sessionKeyCache.flush();
+    }
+
+    public static void decryptPgpMessage(
+            char[] passphrase,
+            PgpMessage pgpMessage ) throws IOException, PGPException
+    {
+        openPgpMessage( pgpMessage ).decrypt( passphrase );
+    }
 
-        // check if the message is signed
-        checkIfSigned( pgpMessage, pds );
+    // decrypt the pgp message and write its plaintext to the given file
+    public static void decryptPgpMessage(
+            InputStream inputStream,
+            Path outputFilePath,
+            char[] passphrase,
+            PgpMessage pgpMessage ) throws IOException, PGPException
+    {
+        // the plaintext file appears only once the whole message is decrypted and verified
+        try( FileUtils.AtomicFileOutputStream outputStream = FileUtils.openAtomicOutputStream( outputFilePath ) )
+        {
+            decryptPgpMessage( inputStream, outputStream, passphrase, pgpMessage );
+            outputStream.commit();
+        }
+    }
 
-        // Unpack literal, optionally verify message integrity
-        // and read and check signature
-        unpackLiteral( pgpMessage, pds );
+    // decrypt the pgp message and stream its plaintext into the given output stream
+    // + the signature and the integrity packet are checked while the plaintext passes through, so the memory used does not depend on the message size
+    // + the pgp message metadata is stored in the given pgp message object, whose decrypted message is left untouched
+    // + the output stream is flushed, but not closed
+    public static void decryptPgpMessage(
+            InputStream inputStream,
+            OutputStream outputStream,
+            char[] passphrase,
+            PgpMessage pgpMessage ) throws IOException, PGPException
+    {
+        openPgpMessage( inputStream, pgpMessage ).decrypt( passphrase, outputStream );
     }
 }
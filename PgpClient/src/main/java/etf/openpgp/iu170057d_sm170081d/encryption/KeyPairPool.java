@@ -0,0 +1,246 @@
+package etf.openpgp.iu170057d_sm170081d.encryption;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// bounded pool of pregenerated key pairs of a single algorithm, so that a new identity only has to be bound to a ready key pair
+// + every configured key size has its own pool of the same capacity; key pairs of other sizes are always generated on demand
+// + the pools are refilled by a low priority background thread, only while the application is idle (no key pair was requested recently)
+// + a failed refill is retried with an exponentially growing delay, so a broken generator doesn't spin, and the pool recovers once it works again
+// ! the pooled key pairs are unencrypted private keys, so they are never written to disk and are lost on exit
+public class KeyPairPool
+{
+    // generates a key pair of the given size
+    public static interface Generator
+    {
+        KeyPair generate( int keySize ) throws GeneralSecurityException, IOException;
+    }
+
+    // metrics of a key pair pool at the moment they were taken
+    public static class Statistics
+    {
+        private final String algorithm;
+        private final Map<Integer, Integer> depths;
+        private final int capacity;
+        private final long hits;
+        private final long misses;
+        private final long refills;
+        private final long refillFailures;
+        private final double refillsPerMinute;
+
+        private Statistics( String algorithm, Map<Integer, Integer> depths, int capacity, long hits, long misses, long refills, long refillFailures, double refillsPerMinute )
+        {
+            this.algorithm = algorithm;
+            this.depths = Collections.unmodifiableMap( depths );
+            this.capacity = capacity;
+            this.hits = hits;
+            this.misses = misses;
+            this.refills = refills;
+            this.refillFailures = refillFailures;
+            this.refillsPerMinute = refillsPerMinute;
+        }
+
+        public String getAlgorithm()
+        {
+            return algorithm;
+        }
+
+        // number of ready key pairs, by key size
+        public Map<Integer, Integer> getDepths()
+        {
+            return depths;
+        }
+
+        public int getCapacity()
+        {
+            return capacity;
+        }
+
+        public long getHits()
+        {
+            return hits;
+        }
+
+        public long getMisses()
+        {
+            return misses;
+        }
+
+        // fraction of the requested key pairs which were taken from the pool
+        public double getHitRate()
+        {
+            long requests = hits + misses;
+            return requests == 0 ? 0 : ( double )hits / requests;
+        }
+
+        public long getRefills()
+        {
+            return refills;
+        }
+
+        // number of key pairs the background thread failed to generate
+        public long getRefillFailures()
+        {
+            return refillFailures;
+        }
+
+        // number of key pairs generated by the background thread per minute of its generation time
+        public double getRefillsPerMinute()
+        {
+            return refillsPerMinute;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format( "%s pool: depth %s of %d, hit rate %.0f%% (%d/%d), %d refills (%.1f/min), %d failed refills",
+                    algorithm, depths, capacity, 100 * getHitRate(), hits, hits + misses, refills, refillsPerMinute, refillFailures );
+        }
+    }
+
+    // the pool is refilled only once no key pair has been requested for this long
+    private static final long IDLE_DELAY_MILLIS = 5 * 1000;
+    // the longest delay before a failed refill is retried
+    private static final long MAX_RETRY_DELAY_MILLIS = 5 * 60 * 1000;
+
+    private final String algorithm;
+    private final Generator generator;
+    private final int capacity;
+    private final Map<Integer, BlockingQueue<KeyPair>> pooledKeyPairs = new TreeMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refills = new AtomicLong();
+    private final AtomicLong refillNanos = new AtomicLong();
+    private final AtomicLong refillFailures = new AtomicLong();
+    // number of key pairs being generated on demand, and the time of the last request
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private volatile long lastRequestedAt = 0;
+
+    private Thread refillThread = null;
+
+    // create a pool of the given capacity for every given key size; a capacity of zero disables the pool
+    public KeyPairPool( String algorithm, Generator generator, int capacity, int... keySizes )
+    {
+        if( capacity < 0 )
+            throw new IllegalArgumentException( "Key pair pool capacity must not be negative." );
+
+        this.algorithm = algorithm;
+        this.generator = generator;
+        this.capacity = capacity;
+        if( capacity > 0 )
+            for( int keySize : keySizes )
+                pooledKeyPairs.put( keySize, new ArrayBlockingQueue<>( capacity ) );
+    }
+
+    // start refilling the pool in the background
+    public synchronized void start()
+    {
+        if( refillThread != null || pooledKeyPairs.isEmpty() )
+            return;
+
+        refillThread = new Thread( this::refill, algorithm.toLowerCase() + "-key-pair-pool" );
+        refillThread.setDaemon( true );
+        refillThread.setPriority( Thread.MIN_PRIORITY );
+        refillThread.start();
+    }
+
+    // take a key pair of the given size from the pool, or generate it if there is none ready
+    public KeyPair take( int keySize ) throws GeneralSecurityException, IOException
+    {
+        activeRequests.incrementAndGet();
+        try
+        {
+            BlockingQueue<KeyPair> keyPairs = pooledKeyPairs.get( keySize );
+            KeyPair keyPair = keyPairs != null ? keyPairs.poll() : null;
+            if( keyPair != null )
+            {
+                hits.incrementAndGet();
+                return keyPair;
+            }
+
+            misses.incrementAndGet();
+            return generator.generate( keySize );
+        }
+        finally
+        {
+            lastRequestedAt = System.currentTimeMillis();
+            activeRequests.decrementAndGet();
+        }
+    }
+
+    public Statistics getStatistics()
+    {
+        Map<Integer, Integer> depths = new TreeMap<>();
+        for( Map.Entry<Integer, BlockingQueue<KeyPair>> entry : pooledKeyPairs.entrySet() )
+            depths.put( entry.getKey(), entry.getValue().size() );
+
+        double refillsPerMinute = refills.get() == 0 ? 0 : refills.get() / Math.max( refillNanos.get() / 60e9, 1e-9 );
+        return new Statistics( algorithm, depths, capacity, hits.get(), misses.get(), refills.get(), refillFailures.get(), refillsPerMinute );
+    }
+
+    // keep generating key pairs for the pools which aren't full, while nothing else is generating keys
+    private void refill()
+    {
+        long retryDelayMillis = IDLE_DELAY_MILLIS;
+        while( true )
+        {
+            try
+            {
+                long idleFor = System.currentTimeMillis() - lastRequestedAt;
+                if( activeRequests.get() > 0 || idleFor < IDLE_DELAY_MILLIS )
+                {
+                    Thread.sleep( Math.max( IDLE_DELAY_MILLIS - idleFor, 100 ) );
+                    continue;
+                }
+
+                // refill the emptiest pool first, so that every key size gets a ready key pair as soon as possible
+                Map.Entry<Integer, BlockingQueue<KeyPair>> emptiest = null;
+                for( Map.Entry<Integer, BlockingQueue<KeyPair>> entry : pooledKeyPairs.entrySet() )
+                    if( emptiest == null || entry.getValue().size() < emptiest.getValue().size() )
+                        emptiest = entry;
+
+                if( emptiest.getValue().remainingCapacity() == 0 )
+                {
+                    Thread.sleep( IDLE_DELAY_MILLIS );
+                    continue;
+                }
+
+                long start = System.nanoTime();
+                KeyPair keyPair = generator.generate( emptiest.getKey() );
+                refillNanos.addAndGet( System.nanoTime() - start );
+                if( emptiest.getValue().offer( keyPair ) )
+                    refills.incrementAndGet();
+                retryDelayMillis = IDLE_DELAY_MILLIS;
+            }
+            catch( InterruptedException ex )
+            {
+                return;
+            }
+            catch( GeneralSecurityException | IOException | RuntimeException ex )
+            {
+                refillFailures.incrementAndGet();
+                Logger.getLogger( KeyPairPool.class.getName() ).log( Level.WARNING, "Could not refill the " + algorithm + " key pair pool, retrying in " + retryDelayMillis / 1000 + " s.", ex );
+                try
+                {
+                    Thread.sleep( retryDelayMillis );
+                }
+                catch( InterruptedException interruptedEx )
+                {
+                    return;
+                }
+                retryDelayMillis = Math.min( 2 * retryDelayMillis, MAX_RETRY_DELAY_MILLIS );
+            }
+        }
+    }
+}
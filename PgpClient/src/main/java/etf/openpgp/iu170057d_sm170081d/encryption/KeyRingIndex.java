@@ -0,0 +1,147 @@
+package etf.openpgp.iu170057d_sm170081d.encryption;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.bouncycastle.openpgp.PGPKeyRing;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.util.encoders.Hex;
+
+// hash index from key id, fingerprint and email to the key ring which contains them
+// + every key in the ring (master key and subkeys) is indexed by its key id and fingerprint
+// + the ring is indexed by the normalized emails in the master key's user ids
+class KeyRingIndex<T extends PGPKeyRing>
+{
+    private final Map<Long, T> keyRingsByKeyId = new HashMap<>();
+    private final Map<String, T> keyRingsByFingerprint = new HashMap<>();
+    private final Map<String, List<T>> keyRingsByEmail = new HashMap<>();
+
+    // index the given key ring
+    // + a ring is listed once under an email, even if several of its user ids (e.g. "A <a@x>" and "A (work) <a@x>") have that email
+    public void add( T keyRing )
+    {
+        long masterKeyId = keyRing.getPublicKey().getKeyID();
+
+        Iterator<PGPPublicKey> keyIter = keyRing.getPublicKeys();
+        while( keyIter.hasNext() )
+        {
+            PGPPublicKey key = keyIter.next();
+            keyRingsByKeyId.put( key.getKeyID(), keyRing );
+            keyRingsByFingerprint.put( fingerprintToString( key.getFingerprint() ), keyRing );
+        }
+
+        Iterator<String> userIdIter = keyRing.getPublicKey().getUserIDs();
+        while( userIdIter.hasNext() )
+        {
+            String email = normalizeEmail( userIdIter.next() );
+            List<T> keyRings = keyRingsByEmail.get( email );
+            if( keyRings == null )
+            {
+                keyRings = new ArrayList<>();
+                keyRingsByEmail.put( email, keyRings );
+            }
+            if( !containsMasterKeyId( keyRings, masterKeyId ) )
+                keyRings.add( keyRing );
+        }
+    }
+
+    // remove the given key ring from the index
+    // + a key id or fingerprint entry is removed only if it still maps to this key ring, and not to another ring which shares the key (e.g. a colliding key id)
+    public void remove( T keyRing )
+    {
+        long masterKeyId = keyRing.getPublicKey().getKeyID();
+
+        Iterator<PGPPublicKey> keyIter = keyRing.getPublicKeys();
+        while( keyIter.hasNext() )
+        {
+            PGPPublicKey key = keyIter.next();
+            T keyRingByKeyId = keyRingsByKeyId.get( key.getKeyID() );
+            if( keyRingByKeyId != null && keyRingByKeyId.getPublicKey().getKeyID() == masterKeyId )
+                keyRingsByKeyId.remove( key.getKeyID() );
+
+            String fingerprint = fingerprintToString( key.getFingerprint() );
+            T keyRingByFingerprint = keyRingsByFingerprint.get( fingerprint );
+            if( keyRingByFingerprint != null && keyRingByFingerprint.getPublicKey().getKeyID() == masterKeyId )
+                keyRingsByFingerprint.remove( fingerprint );
+        }
+
+        Iterator<String> userIdIter = keyRing.getPublicKey().getUserIDs();
+        while( userIdIter.hasNext() )
+        {
+            String email = normalizeEmail( userIdIter.next() );
+            List<T> keyRings = keyRingsByEmail.get( email );
+            if( keyRings == null )
+                continue;
+
+            keyRings.removeIf( ring -> ring.getPublicKey().getKeyID() == masterKeyId );
+            if( keyRings.isEmpty() )
+                keyRingsByEmail.remove( email );
+        }
+    }
+
+    // copy the index, so that the copy can be changed without affecting this index
+    public KeyRingIndex<T> copy()
+    {
+        KeyRingIndex<T> copy = new KeyRingIndex<>();
+        copy.keyRingsByKeyId.putAll( keyRingsByKeyId );
+        copy.keyRingsByFingerprint.putAll( keyRingsByFingerprint );
+        for( Map.Entry<String, List<T>> entry : keyRingsByEmail.entrySet() )
+            copy.keyRingsByEmail.put( entry.getKey(), new ArrayList<>( entry.getValue() ) );
+
+        return copy;
+    }
+
+    // get the key ring containing the key (master key or subkey) with the given id, or null if there is none
+    public T getByKeyId( long keyId )
+    {
+        return keyRingsByKeyId.get( keyId );
+    }
+
+    // get the key ring containing the key with the given fingerprint, or null if there is none
+    public T getByFingerprint( byte[] fingerprint )
+    {
+        return keyRingsByFingerprint.get( fingerprintToString( fingerprint ) );
+    }
+
+    // get all the key rings which have a user id with the given email
+    public List<T> getByEmail( String email )
+    {
+        List<T> keyRings = keyRingsByEmail.get( normalizeEmail( email ) );
+        if( keyRings == null )
+            return Collections.emptyList();
+
+        return Collections.unmodifiableList( keyRings );
+    }
+
+    private boolean containsMasterKeyId( List<T> keyRings, long masterKeyId )
+    {
+        for( T keyRing : keyRings )
+            if( keyRing.getPublicKey().getKeyID() == masterKeyId )
+                return true;
+
+        return false;
+    }
+
+    private static String fingerprintToString( byte[] fingerprint )
+    {
+        return Hex.toHexString( fingerprint );
+    }
+
+    // extract the email from a user id in the "Name <email>" format, and convert it to a canonical form
+    // + if the user id is not in that format, the whole user id is treated as the email
+    public static String normalizeEmail( String userId )
+    {
+        String email = userId;
+
+        int emailStart = userId.lastIndexOf( '<' );
+        int emailEnd = userId.lastIndexOf( '>' );
+        if( emailStart >= 0 && emailEnd > emailStart )
+            email = userId.substring( emailStart + 1, emailEnd );
+
+        return email.trim().toLowerCase( Locale.ROOT );
+    }
+}
@@ -0,0 +1,337 @@
+package etf.openpgp.iu170057d_sm170081d.encryption;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import etf.openpgp.iu170057d_sm170081d.utils.FileUtils;
+import org.bouncycastle.bcpg.ArmoredOutputStream;
+import org.bouncycastle.openpgp.PGPException;
+
+// append-only journal of the changes made to a key ring collection since its last snapshot
+// + every added key ring is appended as its encoded form, and every removed key ring as a tombstone with its master key id
+// + once the journal grows as large as the snapshot, the snapshot is rewritten in the background and the journal is emptied
+// + the cost of persisting a change is proportional to the size of the change, and not to the size of the key ring collection
+// + appended changes are made durable by forcing the journal to the disk with sync; the appends waiting for a sync share it (group commit),
+//   so importing many key rings, or many threads changing key rings at once, costs one fsync per batch instead of one per key ring
+class KeyRingJournal
+{
+    // writes the current state of the key ring collection
+    public static interface SnapshotWriter
+    {
+        void write( OutputStream outputStream ) throws IOException;
+
+        // called once the written snapshot has replaced the old one
+        default void written() throws IOException
+        {
+        }
+    }
+
+    // supplies the snapshot writer for the key ring collection state at the moment of the call
+    public static interface SnapshotSupplier
+    {
+        SnapshotWriter get();
+    }
+
+    // applies the journaled changes to the in-memory key ring collection
+    // ! it has to be idempotent, since a change can be both in the snapshot and in the journal after a crash during compaction
+    public static interface Replayer
+    {
+        void added( byte[] encodedKeyRing ) throws IOException, PGPException;
+
+        void removed( long masterKeyId ) throws IOException, PGPException;
+    }
+
+    private static final byte RECORD_ADDED = 1;
+    private static final byte RECORD_REMOVED = 2;
+    // the journal is not compacted before it reaches this size, no matter how small the snapshot is
+    private static final long MIN_COMPACTION_SIZE = 64 * 1024;
+
+    // a single background thread for compacting all journals
+    private static final ExecutorService compactionExecutor = Executors.newSingleThreadExecutor( runnable ->
+    {
+        Thread thread = new Thread( runnable, "key-ring-journal-compaction" );
+        thread.setDaemon( true );
+        thread.setPriority( Thread.MIN_PRIORITY );
+        return thread;
+    } );
+
+    private final File snapshotFile;
+    private final File journalFile;
+    // journal being merged into the snapshot; it exists only while compacting, or after a crash during compaction
+    private final File compactingJournalFile;
+    private final SnapshotSupplier snapshotSupplier;
+
+    private DataOutputStream journalStream = null;
+    private FileChannel journalChannel = null;
+    private boolean isCompacting = false;
+    // sequence number of the last appended record, and of the last record known to be on the disk
+    private long appendedSequence = 0;
+    private long syncedSequence = 0;
+    // held by the thread forcing the journal to the disk; the threads waiting for it find their records synced once they get it
+    private final Object syncLock = new Object();
+
+    public KeyRingJournal( File snapshotFile, SnapshotSupplier snapshotSupplier )
+    {
+        this.snapshotFile = snapshotFile;
+        this.journalFile = new File( snapshotFile.getPath() + ".journal" );
+        this.compactingJournalFile = new File( snapshotFile.getPath() + ".journal.compacting" );
+        this.snapshotSupplier = snapshotSupplier;
+    }
+
+    // apply all the changes journaled since the last snapshot
+    // ! should be called once, after the snapshot has been loaded and before any changes are appended
+    public synchronized void replay( Replayer replayer ) throws IOException, PGPException
+    {
+        replay( compactingJournalFile, replayer );
+        replay( journalFile, replayer );
+    }
+
+    private void replay( File file, Replayer replayer ) throws IOException, PGPException
+    {
+        if( !file.exists() )
+            return;
+
+        long fileLength = file.length();
+        // end of the last complete record
+        long validLength = 0;
+        try( DataInputStream dis = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) )
+        {
+            int type;
+            while( (type = dis.read()) >= 0 )
+            {
+                byte[] payload;
+                try
+                {
+                    int length = dis.readInt();
+                    if( length < 0 || length > fileLength )
+                        throw new EOFException();
+
+                    payload = new byte[length];
+                    dis.readFully( payload );
+                    if( dis.readInt() != checksum( ( byte )type, payload ) )
+                        throw new EOFException();
+                }
+                catch( EOFException ex )
+                {
+                    // the last record was only partially written (the application stopped while appending it)
+                    Logger.getLogger( KeyRingJournal.class.getName() ).log( Level.WARNING, "Ignoring a torn record at the end of the key ring journal {0}.", file );
+                    break;
+                }
+                validLength += 1 + Integer.BYTES + payload.length + Integer.BYTES;
+
+                switch( type )
+                {
+                    case RECORD_ADDED:
+                        replayer.added( payload );
+                        break;
+                    case RECORD_REMOVED:
+                        replayer.removed( ByteBuffer.wrap( payload ).getLong() );
+                        break;
+                    default:
+                        throw new IOException( "Corrupted key ring journal " + file + "." );
+                }
+            }
+        }
+
+        // cut off the torn record, since the records appended after it would otherwise be read as its remainder and lost
+        if( validLength < fileLength )
+        {
+            try( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.WRITE ) )
+            {
+                channel.truncate( validLength );
+                channel.force( false );
+            }
+        }
+    }
+
+    // check if there are changes which haven't yet been merged into the snapshot
+    public synchronized boolean isEmpty()
+    {
+        return journalFile.length() == 0 && compactingJournalFile.length() == 0;
+    }
+
+    // journal the addition of the given key ring, and return the record's sequence number for sync
+    // + the record survives the application stopping once this returns, but a system crash only after it is synced
+    public synchronized long appendAdded( byte[] encodedKeyRing ) throws IOException
+    {
+        return append( RECORD_ADDED, encodedKeyRing );
+    }
+
+    // journal the removal of the key ring with the given master key id, and return the record's sequence number for sync
+    public synchronized long appendRemoved( long masterKeyId ) throws IOException
+    {
+        return append( RECORD_REMOVED, ByteBuffer.allocate( Long.BYTES ).putLong( masterKeyId ).array() );
+    }
+
+    private long append( byte type, byte[] payload ) throws IOException
+    {
+        if( journalStream == null )
+        {
+            boolean isNew = !journalFile.exists();
+            FileUtils.ensureFileExists( journalFile );
+            if( isNew )
+                FileUtils.syncDirectory( journalFile.getAbsoluteFile().getParentFile().toPath() );
+
+            FileOutputStream journalFileStream = new FileOutputStream( journalFile, /*append=*/ true );
+            journalChannel = journalFileStream.getChannel();
+            journalStream = new DataOutputStream( new BufferedOutputStream( journalFileStream ) );
+        }
+
+        journalStream.writeByte( type );
+        journalStream.writeInt( payload.length );
+        journalStream.write( payload );
+        journalStream.writeInt( checksum( type, payload ) );
+        journalStream.flush();
+        appendedSequence++;
+
+        if( !isCompacting && journalFile.length() >= Math.max( MIN_COMPACTION_SIZE, snapshotFile.length() ) )
+            compactAsync();
+
+        return appendedSequence;
+    }
+
+    // wait until the record with the given sequence number, and all the records before it, are forced to the disk
+    // + a single fsync covers every record appended before it starts, so the callers which waited for it return without their own
+    // ! should be called without holding the key ring collection lock, so that other writers can append while the journal is forced
+    public void sync( long sequence ) throws IOException
+    {
+        synchronized( syncLock )
+        {
+            FileChannel channel;
+            long sequenceToSync;
+            synchronized( this )
+            {
+                if( syncedSequence >= sequence )
+                    return;
+
+                channel = journalChannel;
+                sequenceToSync = appendedSequence;
+            }
+
+            try
+            {
+                channel.force( false );
+            }
+            catch( ClosedChannelException ex )
+            {
+                // the journal was closed for compaction in the meantime, which forced it to the disk first
+                synchronized( this )
+                {
+                    if( syncedSequence >= sequence )
+                        return;
+                }
+                throw ex;
+            }
+
+            synchronized( this )
+            {
+                syncedSequence = Math.max( syncedSequence, sequenceToSync );
+            }
+        }
+    }
+
+    private static int checksum( byte type, byte[] payload )
+    {
+        CRC32 crc = new CRC32();
+        crc.update( type );
+        crc.update( payload );
+        return ( int )crc.getValue();
+    }
+
+    // merge the journal into the snapshot in the background
+    public synchronized void compactAsync()
+    {
+        if( isCompacting )
+            return;
+
+        isCompacting = true;
+        compactionExecutor.execute( () ->
+        {
+            try
+            {
+                compact();
+            }
+            catch( IOException | RuntimeException ex )
+            {
+                Logger.getLogger( KeyRingJournal.class.getName() ).log( Level.WARNING, "Could not compact the key ring journal.", ex );
+            }
+        } );
+    }
+
+    // merge the journal into the snapshot
+    public void compact() throws IOException
+    {
+        SnapshotWriter snapshotWriter;
+        boolean isCaptured = false;
+        synchronized( this )
+        {
+            isCompacting = true;
+            try
+            {
+                // start a new journal, and capture the key ring collection state only after that
+                // + every change made after the capture is in the new journal, so none of them can be lost
+                // ! the closed journal is forced to the disk first, since its records are durable only once the snapshot including them is
+                if( journalStream != null )
+                {
+                    journalStream.flush();
+                    journalChannel.force( false );
+                    syncedSequence = appendedSequence;
+                    journalStream.close();
+                    journalStream = null;
+                    journalChannel = null;
+                }
+                if( journalFile.exists() && !compactingJournalFile.exists() )
+                    Files.move( journalFile.toPath(), compactingJournalFile.toPath(), StandardCopyOption.ATOMIC_MOVE );
+
+                snapshotWriter = snapshotSupplier.get();
+                isCaptured = true;
+            }
+            finally
+            {
+                // ! any failure here, including a runtime exception from the snapshot supplier, must clear the flag, or no compaction would ever start again
+                if( !isCaptured )
+                    isCompacting = false;
+            }
+        }
+
+        try
+        {
+            // write the new snapshot next to the old one, and replace the old one only when the new one is complete and on the disk
+            FileUtils.writeAtomically( snapshotFile.toPath(), outputStream ->
+            {
+                try( ArmoredOutputStream aos = new ArmoredOutputStream( outputStream ) )
+                {
+                    snapshotWriter.write( aos );
+                }
+            } );
+            snapshotWriter.written();
+
+            Files.deleteIfExists( compactingJournalFile.toPath() );
+        }
+        finally
+        {
+            synchronized( this )
+            {
+                isCompacting = false;
+            }
+        }
+    }
+}
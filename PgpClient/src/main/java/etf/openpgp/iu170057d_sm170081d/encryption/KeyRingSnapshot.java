@@ -0,0 +1,164 @@
+package etf.openpgp.iu170057d_sm170081d.encryption;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPKeyRing;
+
+// immutable version of a key ring collection together with its index, or of the mapped binary key ring file it hasn't yet been decoded from
+// + readers take the current version from an atomic reference and never lock, so they always see a collection and an index which match
+// + writers edit a copy of the current version, and publish it as the next version once all their changes are applied
+// ! a published version, including its index, must never be modified
+final class KeyRingSnapshot<C, T extends PGPKeyRing>
+{
+    // creates, adds to and removes from a key ring collection, since the public and secret key ring collections have no common interface
+    // + the collections themselves are immutable, so every change returns a new collection
+    static interface CollectionOperations<C, T>
+    {
+        C create( List<T> keyRings ) throws IOException, PGPException;
+
+        Iterator<T> getKeyRings( C collection );
+
+        // ! throws an illegal argument exception if the collection already contains the key ring's master key
+        C add( C collection, T keyRing );
+
+        C remove( C collection, T keyRing );
+    }
+
+    // mutable copy of a key ring collection version
+    static final class Editor<C, T extends PGPKeyRing>
+    {
+        private final CollectionOperations<C, T> operations;
+        private final KeyRingIndex<T> index;
+        private C collection;
+
+        private Editor( CollectionOperations<C, T> operations, C collection, KeyRingIndex<T> index )
+        {
+            this.operations = operations;
+            this.collection = collection;
+            this.index = index;
+        }
+
+        // add the key ring to the collection
+        // ! throws an illegal argument exception if the collection already contains the key ring's master key
+        public void add( T keyRing )
+        {
+            collection = operations.add( collection, keyRing );
+            index.add( keyRing );
+        }
+
+        // remove the key ring with the given master key id from the collection, if it is there
+        public void drop( long masterKeyId )
+        {
+            T keyRing = index.getByKeyId( masterKeyId );
+            if( keyRing == null || keyRing.getPublicKey().getKeyID() != masterKeyId )
+                return;
+
+            collection = operations.remove( collection, keyRing );
+            index.remove( keyRing );
+        }
+
+        // make the next version out of the edited copy
+        // ! the editor must not be used afterwards
+        public KeyRingSnapshot<C, T> toSnapshot()
+        {
+            return new KeyRingSnapshot<>( operations, collection, index, null );
+        }
+    }
+
+    private final CollectionOperations<C, T> operations;
+    // null until the mapped file is decoded
+    private final C collection;
+    private final KeyRingIndex<T> index;
+    // null once the collection is decoded
+    private final MappedKeyRingFile<T> mappedFile;
+
+    private KeyRingSnapshot( CollectionOperations<C, T> operations, C collection, KeyRingIndex<T> index, MappedKeyRingFile<T> mappedFile )
+    {
+        this.operations = operations;
+        this.collection = collection;
+        this.index = index;
+        this.mappedFile = mappedFile;
+    }
+
+    // start editing the given collection, before it is published as the first version
+    public static <C, T extends PGPKeyRing> Editor<C, T> edit( CollectionOperations<C, T> operations, C collection )
+    {
+        KeyRingIndex<T> index = new KeyRingIndex<>();
+        Iterator<T> keyRingIter = operations.getKeyRings( collection );
+        while( keyRingIter.hasNext() )
+            index.add( keyRingIter.next() );
+
+        return new Editor<>( operations, collection, index );
+    }
+
+    // a version whose key rings are decoded from the mapped file only when they are looked up
+    public static <C, T extends PGPKeyRing> KeyRingSnapshot<C, T> mapped( CollectionOperations<C, T> operations, MappedKeyRingFile<T> mappedFile )
+    {
+        return new KeyRingSnapshot<>( operations, null, null, mappedFile );
+    }
+
+    // check if the collection and its index are available, or if there is only the mapped file
+    public boolean isLoaded()
+    {
+        return mappedFile == null;
+    }
+
+    // the same version with all the mapped key rings decoded into the collection and its index
+    public KeyRingSnapshot<C, T> load() throws IOException, PGPException
+    {
+        if( isLoaded() )
+            return this;
+
+        List<T> keyRings = mappedFile.getAll();
+        KeyRingIndex<T> loadedIndex = new KeyRingIndex<>();
+        for( T keyRing : keyRings )
+            loadedIndex.add( keyRing );
+
+        return new KeyRingSnapshot<>( operations, operations.create( keyRings ), loadedIndex, null );
+    }
+
+    // start editing a copy of this version
+    // ! the version has to be loaded
+    public Editor<C, T> edit()
+    {
+        checkLoaded();
+        return new Editor<>( operations, collection, index.copy() );
+    }
+
+    // ! the version has to be loaded
+    public C getCollection()
+    {
+        checkLoaded();
+        return collection;
+    }
+
+    // get the key ring containing the key (master key or subkey) with the given id, or null if there is none
+    public T getByKeyId( long keyId ) throws IOException, PGPException
+    {
+        return isLoaded() ? index.getByKeyId( keyId ) : mappedFile.getByKeyId( keyId );
+    }
+
+    // get the key ring containing the key with the given fingerprint, or null if there is none
+    // ! the version has to be loaded
+    public T getByFingerprint( byte[] fingerprint )
+    {
+        checkLoaded();
+        return index.getByFingerprint( fingerprint );
+    }
+
+    // get all the key rings which have a user id with the given email
+    // ! the version has to be loaded
+    public List<T> getByEmail( String email )
+    {
+        checkLoaded();
+        return index.getByEmail( email );
+    }
+
+    private void checkLoaded()
+    {
+        if( !isLoaded() )
+            throw new IllegalStateException( "The key ring collection hasn't been decoded from the mapped file." );
+    }
+}
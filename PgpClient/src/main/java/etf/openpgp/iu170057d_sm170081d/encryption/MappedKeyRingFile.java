@@ -0,0 +1,191 @@
+package etf.openpgp.iu170057d_sm170081d.encryption;
+
+import etf.openpgp.iu170057d_sm170081d.utils.FileUtils;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPKeyRing;
+import org.bouncycastle.openpgp.PGPPublicKey;
+
+// unarmored key ring collection file with an offset index, which is memory mapped and decoded lazily
+// + the file layout is:
+//       magic               8 bytes
+//       ring count          int
+//       key count           int
+//       ring table          ring count * ( ring offset long, ring length int )
+//       key table           key count * ( key id long, ring number int ), sorted by key id
+//       ring data           the binary encodings of the key rings
+// + a key ring is decoded only when one of its keys is first looked up, so opening the file costs the same no matter how many rings it has
+class MappedKeyRingFile<T extends PGPKeyRing>
+{
+    // decodes the binary encoding of a single key ring
+    public static interface KeyRingDecoder<T>
+    {
+        T decode( byte[] encodedKeyRing ) throws IOException, PGPException;
+    }
+
+    private static final byte[] MAGIC = "PGPKRB01".getBytes( StandardCharsets.US_ASCII );
+    private static final int HEADER_SIZE = MAGIC.length + 2 * Integer.BYTES;
+    private static final int TABLE_ENTRY_SIZE = Long.BYTES + Integer.BYTES;
+
+    private final ByteBuffer buffer;
+    private final KeyRingDecoder<T> decoder;
+    private final int ringCount;
+    private final int keyCount;
+    private final int keyTableOffset;
+    // key rings decoded so far, by ring number
+    private final Object[] keyRings;
+
+    private MappedKeyRingFile( ByteBuffer buffer, KeyRingDecoder<T> decoder ) throws IOException
+    {
+        if( buffer.limit() < HEADER_SIZE )
+            throw new IOException( "Not a binary key ring file." );
+
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get( magic );
+        if( !Arrays.equals( magic, MAGIC ) )
+            throw new IOException( "Not a binary key ring file." );
+
+        // ! the counts are checked against the file size before they are used, so that a corrupted header can't overflow the offsets or exhaust the memory
+        int ringCount = buffer.getInt();
+        int keyCount = buffer.getInt();
+        long maxEntryCount = (buffer.limit() - HEADER_SIZE) / TABLE_ENTRY_SIZE;
+        if( ringCount < 0 || keyCount < 0 || ( long )ringCount + keyCount > maxEntryCount )
+            throw new IOException( "Corrupted binary key ring file." );
+
+        this.buffer = buffer;
+        this.decoder = decoder;
+        this.ringCount = ringCount;
+        this.keyCount = keyCount;
+        this.keyTableOffset = HEADER_SIZE + ringCount * TABLE_ENTRY_SIZE;
+        this.keyRings = new Object[ringCount];
+    }
+
+    // memory map the given binary key ring file
+    public static <T extends PGPKeyRing> MappedKeyRingFile<T> open( File file, KeyRingDecoder<T> decoder ) throws IOException
+    {
+        try( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) )
+        {
+            if( channel.size() > Integer.MAX_VALUE )
+                throw new IOException( "Binary key ring file is too large to be mapped." );
+
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            return new MappedKeyRingFile<>( buffer, decoder );
+        }
+    }
+
+    // write the given key rings into a binary key ring file
+    // + the file is written next to the old one, and replaces it only when it is complete and forced to the disk
+    public static <T extends PGPKeyRing> void write( File file, Iterator<T> keyRingIter ) throws IOException
+    {
+        List<byte[]> encodedKeyRings = new ArrayList<>();
+        List<long[]> keyTable = new ArrayList<>();
+        while( keyRingIter.hasNext() )
+        {
+            T keyRing = keyRingIter.next();
+            Iterator<PGPPublicKey> keyIter = keyRing.getPublicKeys();
+            while( keyIter.hasNext() )
+                keyTable.add( new long[]
+                {
+                    keyIter.next().getKeyID(), encodedKeyRings.size()
+                } );
+            encodedKeyRings.add( keyRing.getEncoded() );
+        }
+        keyTable.sort( ( a, b ) -> Long.compare( a[ 0 ], b[ 0 ] ) );
+
+        FileUtils.writeAtomically( file.toPath(), outputStream ->
+        {
+            DataOutputStream dos = new DataOutputStream( outputStream );
+            dos.write( MAGIC );
+            dos.writeInt( encodedKeyRings.size() );
+            dos.writeInt( keyTable.size() );
+
+            long offset = HEADER_SIZE + ( long )(encodedKeyRings.size() + keyTable.size()) * TABLE_ENTRY_SIZE;
+            for( byte[] encodedKeyRing : encodedKeyRings )
+            {
+                dos.writeLong( offset );
+                dos.writeInt( encodedKeyRing.length );
+                offset += encodedKeyRing.length;
+            }
+            for( long[] entry : keyTable )
+            {
+                dos.writeLong( entry[ 0 ] );
+                dos.writeInt( ( int )entry[ 1 ] );
+            }
+            for( byte[] encodedKeyRing : encodedKeyRings )
+                dos.write( encodedKeyRing );
+            dos.flush();
+        } );
+    }
+
+    public int size()
+    {
+        return ringCount;
+    }
+
+    // get the key ring which contains the key (master key or subkey) with the given id, or null if there is none
+    public T getByKeyId( long keyId ) throws IOException, PGPException
+    {
+        // binary search the key table
+        int low = 0;
+        int high = keyCount - 1;
+        while( low <= high )
+        {
+            int mid = (low + high) >>> 1;
+            long midKeyId = buffer.getLong( keyTableOffset + mid * TABLE_ENTRY_SIZE );
+            if( midKeyId < keyId )
+                low = mid + 1;
+            else if( midKeyId > keyId )
+                high = mid - 1;
+            else
+                return getByRingNumber( buffer.getInt( keyTableOffset + mid * TABLE_ENTRY_SIZE + Long.BYTES ) );
+        }
+
+        return null;
+    }
+
+    // decode all the key rings in the file
+    public List<T> getAll() throws IOException, PGPException
+    {
+        List<T> all = new ArrayList<>( ringCount );
+        for( int i = 0; i < ringCount; i++ )
+            all.add( getByRingNumber( i ) );
+
+        return all;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private synchronized T getByRingNumber( int ringNumber ) throws IOException, PGPException
+    {
+        if( ringNumber < 0 || ringNumber >= ringCount )
+            throw new IOException( "Corrupted binary key ring file." );
+
+        if( keyRings[ ringNumber ] == null )
+        {
+            int entryOffset = HEADER_SIZE + ringNumber * TABLE_ENTRY_SIZE;
+            long ringOffset = buffer.getLong( entryOffset );
+            int ringLength = buffer.getInt( entryOffset + Long.BYTES );
+            if( ringOffset < 0 || ringLength < 0 || ringOffset + ringLength > buffer.limit() )
+                throw new IOException( "Corrupted binary key ring file." );
+
+            byte[] encodedKeyRing = new byte[ringLength];
+            ByteBuffer ringBuffer = buffer.duplicate();
+            ringBuffer.position( ( int )ringOffset );
+            ringBuffer.get( encodedKeyRing );
+            keyRings[ ringNumber ] = decoder.decode( encodedKeyRing );
+        }
+
+        return ( T )keyRings[ ringNumber ];
+    }
+}
@@ -3,26 +3,38 @@ package etf.openpgp.iu170057d_sm170081d.encryption;
 import etf.openpgp.iu170057d_sm170081d.utils.FileUtils;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
 import java.security.Security;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.bouncycastle.bcpg.ArmoredInputStream;
 import org.bouncycastle.bcpg.ArmoredOutputStream;
 import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.PublicKeyAlgorithmTags;
+import org.bouncycastle.bcpg.sig.Features;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.openpgp.PGPEncryptedData;
 import org.bouncycastle.openpgp.PGPException;
 import org.bouncycastle.openpgp.PGPKeyPair;
 import org.bouncycastle.openpgp.PGPKeyRingGenerator;
+import org.bouncycastle.openpgp.PGPPrivateKey;
 import org.bouncycastle.openpgp.PGPPublicKey;
 import org.bouncycastle.openpgp.PGPPublicKeyRing;
 import org.bouncycastle.openpgp.PGPPublicKeyRingCollection;
@@ -30,6 +42,8 @@ import org.bouncycastle.openpgp.PGPSecretKey;
 import org.bouncycastle.openpgp.PGPSecretKeyRing;
 import org.bouncycastle.openpgp.PGPSecretKeyRingCollection;
 import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.PGPSignatureSubpacketGenerator;
+import org.bouncycastle.openpgp.PGPSignatureSubpacketVector;
 import org.bouncycastle.openpgp.operator.PGPDigestCalculator;
 import org.bouncycastle.openpgp.operator.bc.BcKeyFingerprintCalculator;
 import org.bouncycastle.openpgp.operator.jcajce.JcaPGPContentSignerBuilder;
@@ -43,9 +57,146 @@ public class PGPKeys
 
     private static final File PUBLIC_KEY_RING_COLLECTION_FILE_PATH = new File( "./settings/public.asc" );
     private static final File SECRET_KEY_RING_COLLECTION_FILE_PATH = new File( "./settings/secret.asc" );
+    private static final File PUBLIC_KEY_RING_BINARY_FILE_PATH = new File( "./settings/public.bin" );
+    private static final File SECRET_KEY_RING_BINARY_FILE_PATH = new File( "./settings/secret.bin" );
 
-    private static PGPPublicKeyRingCollection publicKeyRingCollection;
-    private static PGPSecretKeyRingCollection secretKeyRingCollection;
+    // if set, an unarmored copy of the key ring files with an offset index is kept, which is memory mapped on startup and decoded lazily
+    public static final String BINARY_KEY_RINGS_PROPERTY = "pgpclient.binaryKeyRings";
+    private static final boolean USE_BINARY_KEY_RINGS = Boolean.getBoolean( BINARY_KEY_RINGS_PROPERTY );
+
+    // the current versions of the key ring collections
+    // + readers use the current version without locking; writers synchronize on the reference, and publish a changed copy as the next version
+    private static final AtomicReference<KeyRingSnapshot<PGPPublicKeyRingCollection, PGPPublicKeyRing>> publicKeyRings = new AtomicReference<>();
+    private static final AtomicReference<KeyRingSnapshot<PGPSecretKeyRingCollection, PGPSecretKeyRing>> secretKeyRings = new AtomicReference<>();
+
+    private static final KeyRingSnapshot.CollectionOperations<PGPPublicKeyRingCollection, PGPPublicKeyRing> PUBLIC_KEY_RING_COLLECTION_OPERATIONS = new KeyRingSnapshot.CollectionOperations<PGPPublicKeyRingCollection, PGPPublicKeyRing>()
+    {
+        @Override
+        public PGPPublicKeyRingCollection create( List<PGPPublicKeyRing> keyRings ) throws IOException, PGPException
+        {
+            return new PGPPublicKeyRingCollection( keyRings );
+        }
+
+        @Override
+        public Iterator<PGPPublicKeyRing> getKeyRings( PGPPublicKeyRingCollection collection )
+        {
+            return collection.getKeyRings();
+        }
+
+        @Override
+        public PGPPublicKeyRingCollection add( PGPPublicKeyRingCollection collection, PGPPublicKeyRing keyRing )
+        {
+            return PGPPublicKeyRingCollection.addPublicKeyRing( collection, keyRing );
+        }
+
+        @Override
+        public PGPPublicKeyRingCollection remove( PGPPublicKeyRingCollection collection, PGPPublicKeyRing keyRing )
+        {
+            return PGPPublicKeyRingCollection.removePublicKeyRing( collection, keyRing );
+        }
+    };
+    private static final KeyRingSnapshot.CollectionOperations<PGPSecretKeyRingCollection, PGPSecretKeyRing> SECRET_KEY_RING_COLLECTION_OPERATIONS = new KeyRingSnapshot.CollectionOperations<PGPSecretKeyRingCollection, PGPSecretKeyRing>()
+    {
+        @Override
+        public PGPSecretKeyRingCollection create( List<PGPSecretKeyRing> keyRings ) throws IOException, PGPException
+        {
+            return new PGPSecretKeyRingCollection( keyRings );
+        }
+
+        @Override
+        public Iterator<PGPSecretKeyRing> getKeyRings( PGPSecretKeyRingCollection collection )
+        {
+            return collection.getKeyRings();
+        }
+
+        @Override
+        public PGPSecretKeyRingCollection add( PGPSecretKeyRingCollection collection, PGPSecretKeyRing keyRing )
+        {
+            return PGPSecretKeyRingCollection.addSecretKeyRing( collection, keyRing );
+        }
+
+        @Override
+        public PGPSecretKeyRingCollection remove( PGPSecretKeyRingCollection collection, PGPSecretKeyRing keyRing )
+        {
+            return PGPSecretKeyRingCollection.removeSecretKeyRing( collection, keyRing );
+        }
+    };
+
+    // unlocked private keys, so that signing and decrypting many messages doesn't require a passphrase key derivation per message
+    // + the idle and absolute timeouts (in seconds) can be overridden by the system properties below; a timeout of zero disables the cache
+    public static final String PRIVATE_KEY_CACHE_IDLE_TIMEOUT_PROPERTY = "pgpclient.privateKeyCache.idleSeconds";
+    public static final String PRIVATE_KEY_CACHE_ABSOLUTE_TIMEOUT_PROPERTY = "pgpclient.privateKeyCache.absoluteSeconds";
+    private static final PrivateKeyCache privateKeyCache = new PrivateKeyCache(
+            TimeUnit.SECONDS.toMillis( Long.getLong( PRIVATE_KEY_CACHE_IDLE_TIMEOUT_PROPERTY, 5 * 60 ) ),
+            TimeUnit.SECONDS.toMillis( Long.getLong( PRIVATE_KEY_CACHE_ABSOLUTE_TIMEOUT_PROPERTY, 60 * 60 ) ) );
+
+    // background threads for generating keys, so that the dsa and elgamal halves of a key ring are generated in parallel and off the ui thread
+    private static final ExecutorService keyGenerationExecutor = Executors.newCachedThreadPool( runnable ->
+    {
+        Thread thread = new Thread( runnable, "key-generation" );
+        thread.setDaemon( true );
+        return thread;
+    } );
+
+    // pools of pregenerated key pairs, so that generating a key ring only binds the identity and passphrase to ready key pairs
+    // + the pooled key sizes (comma separated) and the number of key pairs kept per size can be overridden by the system properties below
+    // + the pools are filled only after startKeyPairPools is called; a depth of zero disables them
+    public static final String KEY_PAIR_POOL_DEPTH_PROPERTY = "pgpclient.keyPairPool.depth";
+    public static final String KEY_PAIR_POOL_DSA_SIZES_PROPERTY = "pgpclient.keyPairPool.dsaSizes";
+    public static final String KEY_PAIR_POOL_ELGAMAL_SIZES_PROPERTY = "pgpclient.keyPairPool.elGamalSizes";
+    private static final KeyPairPool dsaKeyPairPool = new KeyPairPool(
+            "DSA",
+            PGPKeys::generateDsaKeyPair,
+            Integer.getInteger( KEY_PAIR_POOL_DEPTH_PROPERTY, 2 ),
+            parseKeySizes( System.getProperty( KEY_PAIR_POOL_DSA_SIZES_PROPERTY, "2048" ) ) );
+    private static final KeyPairPool elGamalKeyPairPool = new KeyPairPool(
+            "ElGamal",
+            PGPKeys::generateElGamalKeyPair,
+            Integer.getInteger( KEY_PAIR_POOL_DEPTH_PROPERTY, 2 ),
+            parseKeySizes( System.getProperty( KEY_PAIR_POOL_ELGAMAL_SIZES_PROPERTY, "4096" ) ) );
+
+    // journals of the changes made to the above collections since they were last written to their files
+    // + the snapshot supplier captures the current version, which is immutable, so it can be written out in the background
+    private static final KeyRingJournal publicKeyRingJournal = new KeyRingJournal( PUBLIC_KEY_RING_COLLECTION_FILE_PATH, () ->
+    {
+        PGPPublicKeyRingCollection snapshot = publicKeyRings.get().getCollection();
+        return new KeyRingJournal.SnapshotWriter()
+        {
+            @Override
+            public void write( OutputStream outputStream ) throws IOException
+            {
+                snapshot.encode( outputStream );
+            }
+
+            @Override
+            public void written() throws IOException
+            {
+                // the binary file is written after the armored one, so that it's only used if it is newer
+                if( USE_BINARY_KEY_RINGS )
+                    MappedKeyRingFile.write( PUBLIC_KEY_RING_BINARY_FILE_PATH, snapshot.getKeyRings() );
+            }
+        };
+    } );
+    private static final KeyRingJournal secretKeyRingJournal = new KeyRingJournal( SECRET_KEY_RING_COLLECTION_FILE_PATH, () ->
+    {
+        PGPSecretKeyRingCollection snapshot = secretKeyRings.get().getCollection();
+        return new KeyRingJournal.SnapshotWriter()
+        {
+            @Override
+            public void write( OutputStream outputStream ) throws IOException
+            {
+                snapshot.encode( outputStream );
+            }
+
+            @Override
+            public void written() throws IOException
+            {
+                // the binary file is written after the armored one, so that it's only used if it is newer
+                if( USE_BINARY_KEY_RINGS )
+                    MappedKeyRingFile.write( SECRET_KEY_RING_BINARY_FILE_PATH, snapshot.getKeyRings() );
+            }
+        };
+    } );
 
     // Set up security provider and load public and secret key ring files
     static
@@ -58,10 +209,14 @@ public class PGPKeys
         try
         {
             FileUtils.ensureFileExists( PUBLIC_KEY_RING_COLLECTION_FILE_PATH );
-            publicKeyRingCollection = new PGPPublicKeyRingCollection(
-                    new ArmoredInputStream(
-                            new FileInputStream( PUBLIC_KEY_RING_COLLECTION_FILE_PATH ) ),
-                    new BcKeyFingerprintCalculator() );
+
+            // map the binary key ring file if it is up to date, and skip loading the armored one
+            if( !USE_BINARY_KEY_RINGS
+                    || !isBinaryKeyRingFileUpToDate( PUBLIC_KEY_RING_BINARY_FILE_PATH, PUBLIC_KEY_RING_COLLECTION_FILE_PATH, publicKeyRingJournal )
+                    || !mapPublicKeyRings() )
+            {
+                loadPublicKeyRings();
+            }
         }
         catch( IOException | PGPException ex )
         {
@@ -72,10 +227,14 @@ public class PGPKeys
         try
         {
             FileUtils.ensureFileExists( SECRET_KEY_RING_COLLECTION_FILE_PATH );
-            secretKeyRingCollection = new PGPSecretKeyRingCollection(
-                    new ArmoredInputStream(
-                            new FileInputStream( SECRET_KEY_RING_COLLECTION_FILE_PATH ) ),
-                    new BcKeyFingerprintCalculator() );
+
+            // map the binary key ring file if it is up to date, and skip loading the armored one
+            if( !USE_BINARY_KEY_RINGS
+                    || !isBinaryKeyRingFileUpToDate( SECRET_KEY_RING_BINARY_FILE_PATH, SECRET_KEY_RING_COLLECTION_FILE_PATH, secretKeyRingJournal )
+                    || !mapSecretKeyRings() )
+            {
+                loadSecretKeyRings();
+            }
         }
         catch( IOException | PGPException ex )
         {
@@ -84,183 +243,730 @@ public class PGPKeys
         }
     }
 
-    // This is a static class and should never be instantiated
-    private PGPKeys()
+    // check if the binary key ring file contains the same key rings as the armored file and its journal
+    private static boolean isBinaryKeyRingFileUpToDate( File binaryFile, File armoredFile, KeyRingJournal journal )
     {
+        return binaryFile.exists() && binaryFile.lastModified() >= armoredFile.lastModified() && journal.isEmpty();
     }
-    
-    public static void saveSecretKeysToFile() throws IOException
+
+    // map the binary public key ring file, and return whether that succeeded
+    // + the binary file is only a cache of the armored file, so a corrupted one is deleted (it is rewritten after the armored file is loaded) instead of stopping the application
+    private static boolean mapPublicKeyRings()
+    {
+        try
+        {
+            publicKeyRings.set( KeyRingSnapshot.mapped(
+                    PUBLIC_KEY_RING_COLLECTION_OPERATIONS,
+                    MappedKeyRingFile.open(
+                            PUBLIC_KEY_RING_BINARY_FILE_PATH,
+                            encodedKeyRing -> new PGPPublicKeyRing( encodedKeyRing, new BcKeyFingerprintCalculator() ) ) ) );
+            return true;
+        }
+        catch( IOException | RuntimeException ex )
+        {
+            java.util.logging.Logger.getLogger( PGPKeys.class.getName() ).log( Level.WARNING, "Could not map the binary public key ring file, loading the armored one instead.", ex );
+            discardBinaryKeyRingFile( PUBLIC_KEY_RING_BINARY_FILE_PATH );
+            return false;
+        }
+    }
+
+    // map the binary secret key ring file, and return whether that succeeded
+    private static boolean mapSecretKeyRings()
+    {
+        try
+        {
+            secretKeyRings.set( KeyRingSnapshot.mapped(
+                    SECRET_KEY_RING_COLLECTION_OPERATIONS,
+                    MappedKeyRingFile.open(
+                            SECRET_KEY_RING_BINARY_FILE_PATH,
+                            encodedKeyRing -> new PGPSecretKeyRing( encodedKeyRing, new BcKeyFingerprintCalculator() ) ) ) );
+            return true;
+        }
+        catch( IOException | RuntimeException ex )
+        {
+            java.util.logging.Logger.getLogger( PGPKeys.class.getName() ).log( Level.WARNING, "Could not map the binary secret key ring file, loading the armored one instead.", ex );
+            discardBinaryKeyRingFile( SECRET_KEY_RING_BINARY_FILE_PATH );
+            return false;
+        }
+    }
+
+    private static void discardBinaryKeyRingFile( File binaryFile )
+    {
+        try
+        {
+            Files.deleteIfExists( binaryFile.toPath() );
+        }
+        catch( IOException ex )
+        {
+            // the next startup only falls back again, until the compaction started by loading the armored file rewrites it
+            java.util.logging.Logger.getLogger( PGPKeys.class.getName() ).log( Level.WARNING, "Could not delete the binary key ring file " + binaryFile + ".", ex );
+        }
+    }
+
+    // load the armored public key ring file and apply its journal
+    private static void loadPublicKeyRings() throws IOException, PGPException
+    {
+        PGPPublicKeyRingCollection collection;
+        try( InputStream inputStream = new ArmoredInputStream( new FileInputStream( PUBLIC_KEY_RING_COLLECTION_FILE_PATH ) ) )
+        {
+            collection = new PGPPublicKeyRingCollection( inputStream, new BcKeyFingerprintCalculator() );
+        }
+        KeyRingSnapshot.Editor<PGPPublicKeyRingCollection, PGPPublicKeyRing> editor = KeyRingSnapshot.edit( PUBLIC_KEY_RING_COLLECTION_OPERATIONS, collection );
+
+        // apply the changes made since the file was last written
+        publicKeyRingJournal.replay( new KeyRingJournal.Replayer()
+        {
+            @Override
+            public void added( byte[] encodedKeyRing ) throws IOException, PGPException
+            {
+                PGPPublicKeyRing keyRing = new PGPPublicKeyRing( encodedKeyRing, new BcKeyFingerprintCalculator() );
+                editor.drop( keyRing.getPublicKey().getKeyID() );
+                editor.add( keyRing );
+            }
+
+            @Override
+            public void removed( long masterKeyId ) throws IOException, PGPException
+            {
+                editor.drop( masterKeyId );
+            }
+        } );
+        publicKeyRings.set( editor.toSnapshot() );
+
+        // write the binary key ring file, so that it can be mapped on the next startup
+        if( USE_BINARY_KEY_RINGS )
+            publicKeyRingJournal.compactAsync();
+    }
+
+    // load the armored secret key ring file and apply its journal
+    private static void loadSecretKeyRings() throws IOException, PGPException
+    {
+        PGPSecretKeyRingCollection collection;
+        try( InputStream inputStream = new ArmoredInputStream( new FileInputStream( SECRET_KEY_RING_COLLECTION_FILE_PATH ) ) )
+        {
+            collection = new PGPSecretKeyRingCollection( inputStream, new BcKeyFingerprintCalculator() );
+        }
+        KeyRingSnapshot.Editor<PGPSecretKeyRingCollection, PGPSecretKeyRing> editor = KeyRingSnapshot.edit( SECRET_KEY_RING_COLLECTION_OPERATIONS, collection );
+
+        // apply the changes made since the file was last written
+        secretKeyRingJournal.replay( new KeyRingJournal.Replayer()
+        {
+            @Override
+            public void added( byte[] encodedKeyRing ) throws IOException, PGPException
+            {
+                PGPSecretKeyRing keyRing = new PGPSecretKeyRing( encodedKeyRing, new BcKeyFingerprintCalculator() );
+                editor.drop( keyRing.getPublicKey().getKeyID() );
+                editor.add( keyRing );
+            }
+
+            @Override
+            public void removed( long masterKeyId ) throws IOException, PGPException
+            {
+                editor.drop( masterKeyId );
+            }
+        } );
+        secretKeyRings.set( editor.toSnapshot() );
+
+        // write the binary key ring file, so that it can be mapped on the next startup
+        if( USE_BINARY_KEY_RINGS )
+            secretKeyRingJournal.compactAsync();
+    }
+
+    // get the current public key ring collection version, after decoding all the mapped key rings into it if that wasn't already done
+    private static KeyRingSnapshot<PGPPublicKeyRingCollection, PGPPublicKeyRing> loadedPublicKeyRings() throws IOException, PGPException
     {
-        try( ArmoredOutputStream aos = new ArmoredOutputStream( new FileOutputStream( SECRET_KEY_RING_COLLECTION_FILE_PATH ) ) )
+        KeyRingSnapshot<PGPPublicKeyRingCollection, PGPPublicKeyRing> snapshot = publicKeyRings.get();
+        if( snapshot.isLoaded() )
+            return snapshot;
+
+        synchronized( publicKeyRings )
         {
-            secretKeyRingCollection.encode( aos );
+            snapshot = publicKeyRings.get().load();
+            publicKeyRings.set( snapshot );
+            return snapshot;
         }
     }
 
-    public static void savePublicKeysToFile() throws IOException
+    // get the current secret key ring collection version, after decoding all the mapped key rings into it if that wasn't already done
+    private static KeyRingSnapshot<PGPSecretKeyRingCollection, PGPSecretKeyRing> loadedSecretKeyRings() throws IOException, PGPException
     {
-        try( ArmoredOutputStream aos = new ArmoredOutputStream( new FileOutputStream( PUBLIC_KEY_RING_COLLECTION_FILE_PATH ) ) )
+        KeyRingSnapshot<PGPSecretKeyRingCollection, PGPSecretKeyRing> snapshot = secretKeyRings.get();
+        if( snapshot.isLoaded() )
+            return snapshot;
+
+        synchronized( secretKeyRings )
         {
-            publicKeyRingCollection.encode( aos );
+            snapshot = secretKeyRings.get().load();
+            secretKeyRings.set( snapshot );
+            return snapshot;
         }
     }
 
+    // This is a static class and should never be instantiated
+    private PGPKeys()
+    {
+    }
+    
+    // rewrite the secret key ring file with the whole collection
+    // + changes are persisted by the journal as soon as they are made, so this is only needed to compact the journal eagerly
+    public static void saveSecretKeysToFile() throws IOException, PGPException
+    {
+        loadedSecretKeyRings();
+        secretKeyRingJournal.compact();
+    }
+
+    // rewrite the public key ring file with the whole collection
+    // + changes are persisted by the journal as soon as they are made, so this is only needed to compact the journal eagerly
+    public static void savePublicKeysToFile() throws IOException, PGPException
+    {
+        loadedPublicKeyRings();
+        publicKeyRingJournal.compact();
+    }
+
     public static PGPSecretKeyRingCollection getSecretKeysCollection()
             throws IOException, PGPException
     {
-        return secretKeyRingCollection;
+        return loadedSecretKeyRings().getCollection();
     }
 
     public static PGPPublicKeyRingCollection getPublicKeysCollection()
             throws IOException, PGPException
     {
-        return publicKeyRingCollection;
+        return loadedPublicKeyRings().getCollection();
     }
 
-    public static final void addSecretKey( PGPKeyRingGenerator keyRingGenerator ) throws IOException
+    // + the writers publish the changed collection before journaling the change, so that a compaction triggered by the journal includes it
+    // + the journal is synced after the lock is released, so that writers on other threads can append and share the same fsync
+    public static final void addSecretKey( PGPKeyRingGenerator keyRingGenerator ) throws IOException, PGPException
     {
         PGPSecretKeyRing secretKeyRing = keyRingGenerator.generateSecretKeyRing();
-        secretKeyRingCollection = PGPSecretKeyRingCollection.addSecretKeyRing( secretKeyRingCollection, secretKeyRing );
+        long journalSequence;
+        synchronized( secretKeyRings )
+        {
+            KeyRingSnapshot.Editor<PGPSecretKeyRingCollection, PGPSecretKeyRing> editor = loadedSecretKeyRings().edit();
+            editor.add( secretKeyRing );
+            secretKeyRings.set( editor.toSnapshot() );
+            journalSequence = secretKeyRingJournal.appendAdded( secretKeyRing.getEncoded() );
+        }
+        secretKeyRingJournal.sync( journalSequence );
     }
 
-    public static final void addPublicKey( PGPKeyRingGenerator keyRingGenerator ) throws IOException
+    public static final void addPublicKey( PGPKeyRingGenerator keyRingGenerator ) throws IOException, PGPException
     {
         PGPPublicKeyRing publicKeyRing = keyRingGenerator.generatePublicKeyRing();
-        publicKeyRingCollection = PGPPublicKeyRingCollection.addPublicKeyRing( publicKeyRingCollection, publicKeyRing );
+        long journalSequence;
+        synchronized( publicKeyRings )
+        {
+            KeyRingSnapshot.Editor<PGPPublicKeyRingCollection, PGPPublicKeyRing> editor = loadedPublicKeyRings().edit();
+            editor.add( publicKeyRing );
+            publicKeyRings.set( editor.toSnapshot() );
+            journalSequence = publicKeyRingJournal.appendAdded( publicKeyRing.getEncoded() );
+        }
+        publicKeyRingJournal.sync( journalSequence );
     }
 
-    public static final void removePublicKey( PGPPublicKeyRing publicKeyRing ) throws IOException
+    public static final void removePublicKey( PGPPublicKeyRing publicKeyRing ) throws IOException, PGPException
     {
-        publicKeyRingCollection = PGPPublicKeyRingCollection.removePublicKeyRing( publicKeyRingCollection, publicKeyRing );
+        long journalSequence;
+        synchronized( publicKeyRings )
+        {
+            KeyRingSnapshot.Editor<PGPPublicKeyRingCollection, PGPPublicKeyRing> editor = loadedPublicKeyRings().edit();
+            editor.drop( publicKeyRing.getPublicKey().getKeyID() );
+            publicKeyRings.set( editor.toSnapshot() );
+            journalSequence = publicKeyRingJournal.appendRemoved( publicKeyRing.getPublicKey().getKeyID() );
+        }
+        publicKeyRingJournal.sync( journalSequence );
     }
 
-    public static final void removeSecretKey( PGPSecretKeyRing secretKeyRing ) throws IOException
+    public static final void removeSecretKey( PGPSecretKeyRing secretKeyRing ) throws IOException, PGPException
     {
-        secretKeyRingCollection = PGPSecretKeyRingCollection.removeSecretKeyRing( secretKeyRingCollection, secretKeyRing );
+        long journalSequence;
+        synchronized( secretKeyRings )
+        {
+            KeyRingSnapshot.Editor<PGPSecretKeyRingCollection, PGPSecretKeyRing> editor = loadedSecretKeyRings().edit();
+            editor.drop( secretKeyRing.getPublicKey().getKeyID() );
+            secretKeyRings.set( editor.toSnapshot() );
+            Iterator<PGPSecretKey> keyIter = secretKeyRing.getSecretKeys();
+            while( keyIter.hasNext() )
+                privateKeyCache.lock( keyIter.next().getKeyID() );
+            journalSequence = secretKeyRingJournal.appendRemoved( secretKeyRing.getPublicKey().getKeyID() );
+        }
+        secretKeyRingJournal.sync( journalSequence );
     }
 
     public static void exportPublicKey( PGPPublicKeyRing publicKeyRing, File file ) throws IOException
     {
-        try( ArmoredOutputStream aos = new ArmoredOutputStream( new FileOutputStream( file ) ) )
+        FileUtils.writeAtomically( file.toPath(), outputStream ->
         {
-            publicKeyRing.encode( aos );
-        }
+            try( ArmoredOutputStream aos = new ArmoredOutputStream( outputStream ) )
+            {
+                publicKeyRing.encode( aos );
+            }
+        } );
     }
 
     public static void exportSecretKey( PGPSecretKeyRing publicKeyRing, File file ) throws IOException
     {
-        try( ArmoredOutputStream aos = new ArmoredOutputStream( new FileOutputStream( file ) ) )
+        FileUtils.writeAtomically( file.toPath(), outputStream ->
         {
-            publicKeyRing.encode( aos );
-        }
+            try( ArmoredOutputStream aos = new ArmoredOutputStream( outputStream ) )
+            {
+                publicKeyRing.encode( aos );
+            }
+        } );
     }
 
+    // + either all the key rings in the file are imported, or none of them are, if one of them is already in the collection
     public static void importPublicKey( File file ) throws IOException, PGPException
     {
-        ArmoredInputStream ais = new ArmoredInputStream( new FileInputStream( file ) );
+        try( InputStream inputStream = new FileInputStream( file ) )
+        {
+            importPublicKey( inputStream );
+        }
+    }
+
+    // import the armored public key rings read from the stream, which is left open
+    public static void importPublicKey( InputStream inputStream ) throws IOException, PGPException
+    {
+        ArmoredInputStream ais = new ArmoredInputStream( inputStream );
         PGPPublicKeyRingCollection pgpPubKeyCol = new PGPPublicKeyRingCollection( ais, new BcKeyFingerprintCalculator() );
 
-        Iterator<PGPPublicKeyRing> keyRingIter = pgpPubKeyCol.getKeyRings();
-        while( keyRingIter.hasNext() )
+        long journalSequence = 0;
+        synchronized( publicKeyRings )
         {
-            PGPPublicKeyRing keyRing = keyRingIter.next();
-            publicKeyRingCollection = PGPPublicKeyRingCollection.addPublicKeyRing( publicKeyRingCollection, keyRing );
+            KeyRingSnapshot.Editor<PGPPublicKeyRingCollection, PGPPublicKeyRing> editor = loadedPublicKeyRings().edit();
+            Iterator<PGPPublicKeyRing> keyRingIter = pgpPubKeyCol.getKeyRings();
+            while( keyRingIter.hasNext() )
+                editor.add( keyRingIter.next() );
+            publicKeyRings.set( editor.toSnapshot() );
+
+            keyRingIter = pgpPubKeyCol.getKeyRings();
+            while( keyRingIter.hasNext() )
+                journalSequence = publicKeyRingJournal.appendAdded( keyRingIter.next().getEncoded() );
         }
+        // a single fsync for all the imported key rings
+        publicKeyRingJournal.sync( journalSequence );
     }
 
+    // + either all the key rings in the file are imported, or none of them are, if one of them is already in the collection
     public static void importSecretKey( File file ) throws IOException, PGPException
     {
-        ArmoredInputStream ais = new ArmoredInputStream( new FileInputStream( file ) );
-        PGPSecretKeyRingCollection pgpSecKeyCol = new PGPSecretKeyRingCollection( ais, new BcKeyFingerprintCalculator() );
+        PGPSecretKeyRingCollection pgpSecKeyCol;
+        try( InputStream inputStream = new ArmoredInputStream( new FileInputStream( file ) ) )
+        {
+            pgpSecKeyCol = new PGPSecretKeyRingCollection( inputStream, new BcKeyFingerprintCalculator() );
+        }
 
-        Iterator<PGPSecretKeyRing> keyRingIter = pgpSecKeyCol.getKeyRings();
-        while( keyRingIter.hasNext() )
+        long journalSequence = 0;
+        synchronized( secretKeyRings )
         {
-            PGPSecretKeyRing keyRing = keyRingIter.next();
-            secretKeyRingCollection = PGPSecretKeyRingCollection.addSecretKeyRing( secretKeyRingCollection, keyRing );
+            KeyRingSnapshot.Editor<PGPSecretKeyRingCollection, PGPSecretKeyRing> editor = loadedSecretKeyRings().edit();
+            Iterator<PGPSecretKeyRing> keyRingIter = pgpSecKeyCol.getKeyRings();
+            while( keyRingIter.hasNext() )
+                editor.add( keyRingIter.next() );
+            secretKeyRings.set( editor.toSnapshot() );
+
+            keyRingIter = pgpSecKeyCol.getKeyRings();
+            while( keyRingIter.hasNext() )
+                journalSequence = secretKeyRingJournal.appendAdded( keyRingIter.next().getEncoded() );
         }
+        // a single fsync for all the imported key rings
+        secretKeyRingJournal.sync( journalSequence );
     }
 
+    // create a key ring with the given signing key as its master key and the given encryption key as its subkey
+    // + the signing key is either a dsa or an ed25519 key pair, and the encryption key either an elgamal or an x25519 key pair
     public static final PGPKeyRingGenerator createPGPKeyRingGenerator(
-            KeyPair dsaKeyPair,
-            KeyPair elGamalKeyPair,
+            KeyPair signingKeyPair,
+            KeyPair encryptionKeyPair,
             String identity,
             char[] passphrase ) throws Exception
     {
-        PGPKeyPair dsaPgpKeyPair = new JcaPGPKeyPair( PGPPublicKey.DSA, dsaKeyPair, new Date() );
-        PGPKeyPair elGamalPgpKeyPair = new JcaPGPKeyPair( PGPPublicKey.ELGAMAL_ENCRYPT, elGamalKeyPair, new Date() );
-        PGPDigestCalculator shaCalc = new JcaPGPDigestCalculatorProviderBuilder().build().get( HashAlgorithmTags.SHA1 );
+        return createPGPKeyRingGenerator( signingKeyPair, encryptionKeyPair, identity, passphrase, false );
+    }
+
+    // create a key ring, optionally advertising support for aead (version 2 integrity protected data packets) in its features subpacket
+    // ! only keys whose owner's software reads aead messages should advertise it, since senders then encrypt to them with aead
+    public static final PGPKeyRingGenerator createPGPKeyRingGenerator(
+            KeyPair signingKeyPair,
+            KeyPair encryptionKeyPair,
+            String identity,
+            char[] passphrase,
+            boolean isAeadAdvertised ) throws Exception
+    {
+        PGPSignatureSubpacketVector hashedSubpackets = null;
+        if( isAeadAdvertised )
+        {
+            PGPSignatureSubpacketGenerator hashedSubpacketGen = new PGPSignatureSubpacketGenerator();
+            hashedSubpacketGen.setFeature( /*isCritical=*/ false, ( byte )(Features.FEATURE_MODIFICATION_DETECTION | Features.FEATURE_SEIPD_V2) );
+            hashedSubpackets = hashedSubpacketGen.generate();
+        }
+
+        PGPKeyPair signingPgpKeyPair = new JcaPGPKeyPair( getPgpKeyAlgorithm( signingKeyPair ), signingKeyPair, new Date() );
+        PGPKeyPair encryptionPgpKeyPair = new JcaPGPKeyPair( getPgpKeyAlgorithm( encryptionKeyPair ), encryptionKeyPair, new Date() );
+        PGPDigestCalculator shaCalc = new JcaPGPDigestCalculatorProviderBuilder()
+                .setProvider( CryptoProviders.getDigestProvider( HashAlgorithmTags.SHA1 ) )
+                .build()
+                .get( HashAlgorithmTags.SHA1 );
 
         PGPKeyRingGenerator keyRingGen = new PGPKeyRingGenerator(
                 PGPSignature.POSITIVE_CERTIFICATION,
-                dsaPgpKeyPair,
+                signingPgpKeyPair,
                 identity,
                 shaCalc,
+                hashedSubpackets,
                 null,
-                null,
-                new JcaPGPContentSignerBuilder( dsaPgpKeyPair.getPublicKey().getAlgorithm(), HashAlgorithmTags.SHA256 ),
-                new JcePBESecretKeyEncryptorBuilder( PGPEncryptedData.AES_256, shaCalc ).setProvider( "BC" ).build( passphrase ) );
+                new JcaPGPContentSignerBuilder( signingPgpKeyPair.getPublicKey().getAlgorithm(), HashAlgorithmTags.SHA256 )
+                        .setProvider( CryptoProviders.getSignatureProvider( signingPgpKeyPair.getPublicKey().getAlgorithm(), HashAlgorithmTags.SHA256 ) )
+                        .setDigestProvider( CryptoProviders.getDigestProvider( HashAlgorithmTags.SHA256 ) ),
+                new JcePBESecretKeyEncryptorBuilder( PGPEncryptedData.AES_256, shaCalc )
+                        .setProvider( CryptoProviders.getCipherProvider( PGPEncryptedData.AES_256, 0 ) )
+                        .build( passphrase ) );
 
-        keyRingGen.addSubKey( elGamalPgpKeyPair );
+        keyRingGen.addSubKey( encryptionPgpKeyPair );
 
         return keyRingGen;
     }
 
-    public static final KeyPair generateDsaKeyPair( int keySize )
-            throws NoSuchAlgorithmException, NoSuchProviderException
+    // the openpgp public key algorithm of the given jce key pair
+    // + curve25519 keys use the encodings gnupg understands: eddsa (legacy) for ed25519, and ecdh over curve25519 for x25519
+    private static int getPgpKeyAlgorithm( KeyPair keyPair )
     {
-        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance( "DSA", "BC" );
-        keyPairGenerator.initialize( keySize );
+        String algorithm = keyPair.getPublic().getAlgorithm();
+        switch( algorithm )
+        {
+            case "DSA":
+                return PublicKeyAlgorithmTags.DSA;
+            case "ElGamal":
+            case "ELGAMAL":
+                return PublicKeyAlgorithmTags.ELGAMAL_ENCRYPT;
+            case "Ed25519":
+            case "EdDSA":
+                return PublicKeyAlgorithmTags.EDDSA_LEGACY;
+            case "X25519":
+            case "XDH":
+                return PublicKeyAlgorithmTags.ECDH;
+            default:
+                throw new IllegalArgumentException( "Unsupported key algorithm: " + algorithm );
+        }
+    }
+
+    // generate a dsa key pair using the stored domain parameters of the given size, so that only the private exponent is random
+    public static final KeyPair generateDsaKeyPair( int keySize ) throws GeneralSecurityException, IOException
+    {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance( "DSA", CryptoProviders.getKeyPairGeneratorProvider( "DSA" ) );
+        keyPairGenerator.initialize( DomainParameterStore.getDsaParameters( keySize ) );
         return keyPairGenerator.generateKeyPair();
     }
 
-    public static final KeyPair generateElGamalKeyPair( int keySize ) throws Exception
+    // generate an elgamal key pair in a standard group of the given size, so that no safe prime has to be searched for
+    public static final KeyPair generateElGamalKeyPair( int keySize ) throws GeneralSecurityException, IOException
     {
-        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance( "ELGAMAL", "BC" );
-        keyPairGenerator.initialize( keySize );
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance( "ELGAMAL", CryptoProviders.getKeyPairGeneratorProvider( "ELGAMAL" ) );
+        keyPairGenerator.initialize( DomainParameterStore.getElGamalParameters( keySize ) );
         return keyPairGenerator.generateKeyPair();
     }
 
-    public static final PGPPublicKeyRing getPublicKeyRing( long id ) throws IOException, PGPException
+    // generate an ed25519 signing key pair
+    // + curve25519 keys have no domain parameters or primes to search for, so generating one only takes a random scalar and a point multiplication
+    public static final KeyPair generateEd25519KeyPair() throws GeneralSecurityException
+    {
+        return KeyPairGenerator.getInstance( "Ed25519", CryptoProviders.getKeyPairGeneratorProvider( "Ed25519" ) ).generateKeyPair();
+    }
+
+    // generate an x25519 encryption key pair
+    public static final KeyPair generateX25519KeyPair() throws GeneralSecurityException
+    {
+        return KeyPairGenerator.getInstance( "X25519", CryptoProviders.getKeyPairGeneratorProvider( "X25519" ) ).generateKeyPair();
+    }
+
+    // load or generate the domain parameters of the given sizes in the background, so that they are ready once a key pair is requested
+    public static void pregenerateDomainParameters( int[] dsaKeySizes, int[] elGamalKeySizes )
     {
-        Iterator<PGPPublicKeyRing> keyRingIter = PGPKeys.getPublicKeysCollection().getKeyRings();
-        while( keyRingIter.hasNext() )
+        keyGenerationExecutor.execute( () ->
         {
-            PGPPublicKeyRing keyRing = keyRingIter.next();
+            try
+            {
+                for( int keySize : dsaKeySizes )
+                    DomainParameterStore.getDsaParameters( keySize );
+                for( int keySize : elGamalKeySizes )
+                    DomainParameterStore.getElGamalParameters( keySize );
+            }
+            catch( GeneralSecurityException | IOException ex )
+            {
+                Logger.getLogger( PGPKeys.class.getName() ).log( Level.WARNING, "Could not pregenerate the domain parameters.", ex );
+            }
+        } );
+    }
 
-            Iterator<PGPPublicKey> keyIter = keyRing.getPublicKeys();
-            while( keyIter.hasNext() )
+    // start filling the key pair pools in the background
+    public static void startKeyPairPools()
+    {
+        dsaKeyPairPool.start();
+        elGamalKeyPairPool.start();
+    }
+
+    // get the depth, hit rate and refill rate of the dsa and elgamal key pair pools
+    public static List<KeyPairPool.Statistics> getKeyPairPoolStatistics()
+    {
+        return Arrays.asList( dsaKeyPairPool.getStatistics(), elGamalKeyPairPool.getStatistics() );
+    }
+
+    private static int[] parseKeySizes( String keySizes )
+    {
+        return Arrays.stream( keySizes.split( "," ) )
+                .map( String::trim )
+                .filter( keySize -> !keySize.isEmpty() )
+                .mapToInt( Integer::parseInt )
+                .toArray();
+    }
+
+    // take a dsa key pair from the pool, or generate it in the background if there is none ready
+    public static CompletableFuture<KeyPair> generateDsaKeyPairAsync( int keySize )
+    {
+        return CompletableFuture.supplyAsync( () ->
+        {
+            try
             {
-                PGPPublicKey key = keyIter.next();
-                if( (key.getKeyID() == id) )
-                {
-                    return keyRing;
-                }
+                return dsaKeyPairPool.take( keySize );
             }
-        }
+            catch( GeneralSecurityException | IOException ex )
+            {
+                throw new CompletionException( ex );
+            }
+        }, keyGenerationExecutor );
+    }
 
-        throw new IllegalArgumentException( "Invalid public key index." );
+    // take an elgamal key pair from the pool, or generate it in the background if there is none ready
+    public static CompletableFuture<KeyPair> generateElGamalKeyPairAsync( int keySize )
+    {
+        return CompletableFuture.supplyAsync( () ->
+        {
+            try
+            {
+                return elGamalKeyPairPool.take( keySize );
+            }
+            catch( GeneralSecurityException | IOException ex )
+            {
+                throw new CompletionException( ex );
+            }
+        }, keyGenerationExecutor );
     }
 
-    public static PGPSecretKeyRing getSecretKeyRing( long keyID ) throws IOException, PGPException
+    // generate an ed25519 key pair in the background
+    // + curve25519 key pairs aren't pooled, since generating one is about as fast as taking it from a pool
+    public static CompletableFuture<KeyPair> generateEd25519KeyPairAsync()
+    {
+        return CompletableFuture.supplyAsync( () ->
+        {
+            try
+            {
+                return generateEd25519KeyPair();
+            }
+            catch( GeneralSecurityException ex )
+            {
+                throw new CompletionException( ex );
+            }
+        }, keyGenerationExecutor );
+    }
+
+    // generate an x25519 key pair in the background
+    public static CompletableFuture<KeyPair> generateX25519KeyPairAsync()
     {
-        Iterator<PGPSecretKeyRing> iter = PGPKeys.getSecretKeysCollection().getKeyRings();
-        while( iter.hasNext() )
+        return CompletableFuture.supplyAsync( () ->
         {
-            PGPSecretKeyRing keyRing = iter.next();
-            Iterator<PGPSecretKey> keyIter = keyRing.getSecretKeys();
+            try
+            {
+                return generateX25519KeyPair();
+            }
+            catch( GeneralSecurityException ex )
+            {
+                throw new CompletionException( ex );
+            }
+        }, keyGenerationExecutor );
+    }
 
-            while( keyIter.hasNext() )
+    // create the key ring generator in the background, once both key pairs have been generated
+    // + the key ring advertises aead, since this client decrypts the aead messages it can encrypt, so two of its users can exchange them
+    public static CompletableFuture<PGPKeyRingGenerator> createPGPKeyRingGeneratorAsync(
+            CompletableFuture<KeyPair> signingKeyPairFuture,
+            CompletableFuture<KeyPair> encryptionKeyPairFuture,
+            String identity,
+            char[] passphrase )
+    {
+        return signingKeyPairFuture.thenCombineAsync( encryptionKeyPairFuture, ( signingKeyPair, encryptionKeyPair ) ->
+        {
+            try
             {
-                PGPSecretKey key = keyIter.next();
-                if( key.getKeyID() == keyID )
-                {
-                    return keyRing;
-                }
+                return createPGPKeyRingGenerator( signingKeyPair, encryptionKeyPair, identity, passphrase, /*isAeadAdvertised=*/ true );
             }
+            catch( Exception ex )
+            {
+                throw new CompletionException( ex );
+            }
+        }, keyGenerationExecutor );
+    }
+
+    // decode all the key rings in the background, so that they can then be listed without blocking the caller (e.g. the ui thread)
+    // ! listing the key rings needs them all decoded, so mapping the binary key ring files only speeds up the lookups by key id, and not the listing
+    public static CompletableFuture<Void> loadKeyRingsAsync()
+    {
+        return CompletableFuture.runAsync( () ->
+        {
+            try
+            {
+                loadedPublicKeyRings();
+                loadedSecretKeyRings();
+            }
+            catch( IOException | PGPException ex )
+            {
+                throw new CompletionException( ex );
+            }
+        }, keyGenerationExecutor );
+    }
+
+    // add the generated key ring to the public and secret key ring collections in the background, once it has been generated
+    // + persisting it appends it to the journals and forces them to the disk, which shouldn't block the caller (e.g. the ui thread)
+    public static CompletableFuture<PGPKeyRingGenerator> addKeyRingAsync( CompletableFuture<PGPKeyRingGenerator> keyRingGeneratorFuture )
+    {
+        return keyRingGeneratorFuture.thenApplyAsync( keyRingGenerator ->
+        {
+            try
+            {
+                addPublicKey( keyRingGenerator );
+                addSecretKey( keyRingGenerator );
+                return keyRingGenerator;
+            }
+            catch( IOException | PGPException ex )
+            {
+                throw new CompletionException( ex );
+            }
+        }, keyGenerationExecutor );
+    }
+
+    public static final PGPPublicKeyRing getPublicKeyRing( long id ) throws IOException, PGPException
+    {
+        PGPPublicKeyRing keyRing = publicKeyRings.get().getByKeyId( id );
+        if( keyRing == null )
+            throw new IllegalArgumentException( "Invalid public key index." );
+
+        return keyRing;
+    }
+
+    // get the secret key ring which contains the key (master key or subkey) with the given id
+    public static PGPSecretKeyRing getSecretKeyRing( long keyID ) throws IOException, PGPException
+    {
+        PGPSecretKeyRing keyRing = secretKeyRings.get().getByKeyId( keyID );
+        if( keyRing == null )
+            throw new IllegalArgumentException( "Invalid secret key index." );
+
+        return keyRing;
+    }
+
+    // get the public key (master key or subkey) with the given id, or null if it isn't in the public key ring collection
+    public static PGPPublicKey getPublicKey( long keyID )
+    {
+        try
+        {
+            return getPublicKeyRing( keyID ).getPublicKey( keyID );
         }
+        catch( IllegalArgumentException ex )
+        {
+            return null;
+        }
+        catch( IOException | PGPException ex )
+        {
+            Logger.getLogger( PGPKeys.class.getName() ).log( Level.SEVERE, "Could not decode the public key ring.", ex );
+            return null;
+        }
+    }
 
-        throw new IllegalArgumentException( "Invalid secret key index." );
+    // get the secret key (master key or subkey) with the given id, or null if it isn't in the secret key ring collection
+    public static PGPSecretKey getSecretKey( long keyID )
+    {
+        try
+        {
+            return getSecretKeyRing( keyID ).getSecretKey( keyID );
+        }
+        catch( IllegalArgumentException ex )
+        {
+            return null;
+        }
+        catch( IOException | PGPException ex )
+        {
+            Logger.getLogger( PGPKeys.class.getName() ).log( Level.SEVERE, "Could not decode the secret key ring.", ex );
+            return null;
+        }
+    }
+
+    // get the public key ring which contains the key with the given fingerprint
+    public static PGPPublicKeyRing getPublicKeyRingByFingerprint( byte[] fingerprint ) throws IOException, PGPException
+    {
+        PGPPublicKeyRing keyRing = loadedPublicKeyRings().getByFingerprint( fingerprint );
+        if( keyRing == null )
+            throw new IllegalArgumentException( "Invalid public key fingerprint." );
+
+        return keyRing;
+    }
+
+    // get the secret key ring which contains the key with the given fingerprint
+    public static PGPSecretKeyRing getSecretKeyRingByFingerprint( byte[] fingerprint ) throws IOException, PGPException
+    {
+        PGPSecretKeyRing keyRing = loadedSecretKeyRings().getByFingerprint( fingerprint );
+        if( keyRing == null )
+            throw new IllegalArgumentException( "Invalid secret key fingerprint." );
+
+        return keyRing;
+    }
+
+    // get all the public key rings registered to the given email (case insensitive)
+    public static List<PGPPublicKeyRing> getPublicKeyRingsByEmail( String email ) throws IOException, PGPException
+    {
+        return loadedPublicKeyRings().getByEmail( email );
+    }
+
+    // get all the secret key rings registered to the given email (case insensitive)
+    public static List<PGPSecretKeyRing> getSecretKeyRingsByEmail( String email ) throws IOException, PGPException
+    {
+        return loadedSecretKeyRings().getByEmail( email );
+    }
+
+    // unlock the secret key using the given passphrase
+    // + the unlocked private key is cached, so unlocking the same key with the same passphrase again skips the passphrase key derivation
+    public static PGPPrivateKey extractPrivateKey( PGPSecretKey secretKey, char[] passphrase ) throws PGPException
+    {
+        PGPPrivateKey privateKey = privateKeyCache.get( secretKey.getKeyID(), passphrase );
+        if( privateKey != null )
+            return privateKey;
+
+        // the passphrase key derivation hashes on the digest provider, and the secret key is decrypted on the cipher provider
+        privateKey = secretKey.extractPrivateKey(
+                new JcePBESecretKeyDecryptorBuilder(
+                        new JcaPGPDigestCalculatorProviderBuilder()
+                                .setProvider( CryptoProviders.getDigestProvider( secretKey.getS2K() != null ? secretKey.getS2K().getHashAlgorithm() : HashAlgorithmTags.MD5 ) )
+                                .build() )
+                        .setProvider( CryptoProviders.getCipherProvider( secretKey.getKeyEncryptionAlgorithm(), 0 ) )
+                        .build( passphrase )
+        );
+        privateKeyCache.put( secretKey.getKeyID(), passphrase, privateKey );
+        return privateKey;
+    }
+
+    // remove the unlocked private key with the given id from the cache, so that its passphrase has to be entered again
+    public static void lockPrivateKey( long keyID )
+    {
+        privateKeyCache.lock( keyID );
+    }
+
+    // remove all unlocked private keys from the cache
+    public static void lockAllPrivateKeys()
+    {
+        privateKeyCache.flush();
+    }
+
+    // change how long the unlocked private keys are kept in the cache; a timeout of zero disables the cache
+    public static void setPrivateKeyCacheTimeouts( long idleTimeout, long absoluteTimeout, TimeUnit unit )
+    {
+        privateKeyCache.setTimeouts( unit.toMillis( idleTimeout ), unit.toMillis( absoluteTimeout ) );
     }
 
     public static String keyIdToHexString( long keyId )
@@ -305,11 +1011,7 @@ public class PGPKeys
                 return false;
             }
 
-            secretKey.extractPrivateKey(
-                    new JcePBESecretKeyDecryptorBuilder()
-                            .setProvider( "BC" )
-                            .build( passphrase )
-            );
+            extractPrivateKey( secretKey, passphrase );
 
             Logger.getLogger( PGPKeys.class.getName() ).log( Level.FINE, "Valid passphrase used to decode secret key." );
             return true;
@@ -0,0 +1,212 @@
+package etf.openpgp.iu170057d_sm170081d.encryption;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+
+// cache of unlocked private keys, so that the passphrase key derivation (S2K) and the secret key unwrapping are done once per unlock instead of once per message
+// + an entry expires once it hasn't been used for the idle timeout, or once the absolute timeout since the unlock has passed
+// + a cached key is returned only for the passphrase it was unlocked with, which is checked against a salted digest
+// + expired, locked and flushed entries drop their key and wipe their passphrase digest
+// ! the key material itself can't be wiped: the openpgp key packets keep it in immutable big integers, and bouncy castle's jca keys don't support
+//   being destroyed, so a dropped key stays on the heap until it is garbage collected
+// ! the cached key is shared by all callers; it is never destroyed, so a key a caller is still using stays valid after its entry is evicted
+// ! a null passphrase (a secret key which isn't passphrase protected) is never cached
+public class PrivateKeyCache
+{
+    private static class Entry
+    {
+        PGPPrivateKey privateKey;
+        byte[] passphraseDigest;
+        long unlockedAt;
+        long lastUsedAt;
+    }
+
+    // how often the expired entries are evicted in the background
+    private static final long EVICTION_PERIOD_MILLIS = 10 * 1000;
+
+    private final Map<Long, Entry> entries = new HashMap<>();
+    private final byte[] salt = new byte[32];
+    private long idleTimeoutMillis;
+    private long absoluteTimeoutMillis;
+    private ScheduledExecutorService evictionExecutor = null;
+
+    // create a private key cache with the given timeouts; a timeout of zero disables the cache
+    public PrivateKeyCache( long idleTimeoutMillis, long absoluteTimeoutMillis )
+    {
+        new SecureRandom().nextBytes( salt );
+        setTimeouts( idleTimeoutMillis, absoluteTimeoutMillis );
+    }
+
+    public synchronized void setTimeouts( long idleTimeoutMillis, long absoluteTimeoutMillis )
+    {
+        if( idleTimeoutMillis < 0 || absoluteTimeoutMillis < 0 )
+            throw new IllegalArgumentException( "Private key cache timeouts must not be negative." );
+
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.absoluteTimeoutMillis = absoluteTimeoutMillis;
+        evictExpired();
+    }
+
+    public synchronized boolean isEnabled()
+    {
+        return idleTimeoutMillis > 0 && absoluteTimeoutMillis > 0;
+    }
+
+    // get the unlocked private key with the given id, or null if it isn't cached for the given passphrase
+    // + the passphrase digest is computed outside the lock, so that threads signing in parallel don't wait on each other
+    public PGPPrivateKey get( long keyId, char[] passphrase )
+    {
+        if( passphrase == null )
+            return null;
+
+        byte[] passphraseDigest = digest( passphrase );
+        try
+        {
+            synchronized( this )
+            {
+                Entry entry = entries.get( keyId );
+                if( entry == null )
+                    return null;
+
+                long now = System.currentTimeMillis();
+                if( isExpired( entry, now ) )
+                {
+                    entries.remove( keyId );
+                    discard( entry );
+                    return null;
+                }
+
+                if( !MessageDigest.isEqual( passphraseDigest, entry.passphraseDigest ) )
+                    return null;
+
+                entry.lastUsedAt = now;
+                return entry.privateKey;
+            }
+        }
+        finally
+        {
+            Arrays.fill( passphraseDigest, ( byte )0 );
+        }
+    }
+
+    // cache the private key which was unlocked with the given passphrase
+    public void put( long keyId, char[] passphrase, PGPPrivateKey privateKey )
+    {
+        if( !isEnabled() || passphrase == null )
+            return;
+
+        Entry entry = new Entry();
+        entry.privateKey = privateKey;
+        entry.passphraseDigest = digest( passphrase );
+        entry.unlockedAt = entry.lastUsedAt = System.currentTimeMillis();
+
+        synchronized( this )
+        {
+            Entry oldEntry = entries.put( keyId, entry );
+            if( oldEntry != null )
+                discard( oldEntry );
+
+            startEvictionExecutor();
+        }
+    }
+
+    // remove the private key with the given id from the cache, so that the passphrase has to be entered again
+    public synchronized void lock( long keyId )
+    {
+        Entry entry = entries.remove( keyId );
+        if( entry != null )
+            discard( entry );
+    }
+
+    // remove all private keys from the cache
+    public synchronized void flush()
+    {
+        for( Entry entry : entries.values() )
+            discard( entry );
+        entries.clear();
+    }
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    // remove all the expired private keys from the cache
+    public synchronized void evictExpired()
+    {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> entryIter = entries.values().iterator();
+        while( entryIter.hasNext() )
+        {
+            Entry entry = entryIter.next();
+            if( isExpired( entry, now ) )
+            {
+                entryIter.remove();
+                discard( entry );
+            }
+        }
+    }
+
+    private boolean isExpired( Entry entry, long now )
+    {
+        return !isEnabled()
+                || now - entry.lastUsedAt >= idleTimeoutMillis
+                || now - entry.unlockedAt >= absoluteTimeoutMillis;
+    }
+
+    // evict the expired entries in the background, so that unused keys don't stay in memory until the next cache access
+    private void startEvictionExecutor()
+    {
+        if( evictionExecutor != null )
+            return;
+
+        evictionExecutor = Executors.newSingleThreadScheduledExecutor( runnable ->
+        {
+            Thread thread = new Thread( runnable, "private-key-cache-eviction" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        evictionExecutor.scheduleAtFixedRate( this::evictExpired, EVICTION_PERIOD_MILLIS, EVICTION_PERIOD_MILLIS, TimeUnit.MILLISECONDS );
+    }
+
+    private byte[] digest( char[] passphrase )
+    {
+        ByteBuffer passphraseBytes = StandardCharsets.UTF_8.encode( CharBuffer.wrap( passphrase ) );
+        try
+        {
+            MessageDigest messageDigest = MessageDigest.getInstance( "SHA-256" );
+            messageDigest.update( salt );
+            messageDigest.update( passphraseBytes.duplicate() );
+            return messageDigest.digest();
+        }
+        catch( NoSuchAlgorithmException ex )
+        {
+            throw new IllegalStateException( "SHA-256 is not available.", ex );
+        }
+        finally
+        {
+            // necessary to prevent side channel attacks - memory reads of the passphrase
+            if( passphraseBytes.hasArray() )
+                Arrays.fill( passphraseBytes.array(), ( byte )0 );
+        }
+    }
+
+    // wipe the evicted entry's passphrase digest, and drop its key
+    private static void discard( Entry entry )
+    {
+        Arrays.fill( entry.passphraseDigest, ( byte )0 );
+        entry.privateKey = null;
+    }
+}
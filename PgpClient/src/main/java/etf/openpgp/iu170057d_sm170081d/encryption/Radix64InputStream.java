@@ -0,0 +1,291 @@
+package etf.openpgp.iu170057d_sm170081d.encryption;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+// radix64 armor decoder, for the armored messages (and key blocks) written by the radix64 output stream, bouncy castle or gnupg
+// + bouncy castle's armored input stream decodes the data a group at a time, and reads every character from the underlying stream on its own
+// + this one reads the characters a block at a time, and decodes the whole block at once
+// + the armor headers are skipped; the checksum line is optional, but if it is present the decoded data has to match it
+// ! cleartext signed messages are not supported, use isArmored to check if the stream can be decoded by this decoder
+public class Radix64InputStream extends InputStream
+{
+    private static final String ARMOR_HEADER_LINE = "-----BEGIN PGP ";
+    private static final String CLEARTEXT_HEADER_LINE = "-----BEGIN PGP SIGNED MESSAGE";
+    // the number of bytes looked at to decide if the stream is armored
+    private static final int MARK_LIMIT = 1024;
+    // the number of characters decoded at once
+    private static final int BLOCK_SIZE = 8192;
+
+    // the value of every radix64 character, and the kind of every other character
+    private static final int INVALID = -1;
+    private static final int WHITESPACE = -2;
+    private static final int NEW_LINE = -3;
+    private static final int[] DECODING_TABLE = new int[256];
+
+    static
+    {
+        Arrays.fill( DECODING_TABLE, INVALID );
+        for( int i = 0; i < Radix64OutputStream.ENCODING_TABLE.length; i++ )
+            DECODING_TABLE[ Radix64OutputStream.ENCODING_TABLE[ i ] ] = i;
+        DECODING_TABLE[ ' ' ] = WHITESPACE;
+        DECODING_TABLE[ '\t' ] = WHITESPACE;
+        DECODING_TABLE[ '\r' ] = NEW_LINE;
+        DECODING_TABLE[ '\n' ] = NEW_LINE;
+    }
+
+    // the part of the armor being decoded
+    private static final int DATA = 0;
+    private static final int CHECKSUM = 1;
+    private static final int END = 2;
+
+    private final InputStream in;
+    private final Crc24 crc = new Crc24();
+
+    // the characters read from the underlying stream, and the bytes decoded from them
+    // + the buffers are not taken from the buffer pool, since the decoded message's stream is usually left to the garbage collector instead of being closed
+    private final byte[] rawBuffer = new byte[BLOCK_SIZE];
+    private int rawPosition = 0;
+    private int rawLength = 0;
+    private final byte[] decodedBuffer = new byte[BLOCK_SIZE];
+    private int decodedPosition = 0;
+    private int decodedLength = 0;
+
+    private int mode = DATA;
+    private boolean isLineStart = true;
+    // the bits of the group being decoded, and the number of its characters (and padding characters) read so far
+    private int group = 0;
+    private int groupLength = 0;
+    private int paddingLength = 0;
+    private boolean isPadded = false;
+    // the checksum from the armor, and the number of its characters read so far
+    private int checksum = 0;
+    private int checksumLength = 0;
+
+    // read the armor header line and the armor headers of the given stream, so that the data can be read from this stream
+    public Radix64InputStream( InputStream in ) throws IOException
+    {
+        this.in = in.markSupported() ? in : new BufferedInputStream( in );
+        readArmorHeaders();
+    }
+
+    // check if the given stream starts with an armor header line this decoder supports, without consuming it
+    public static boolean isArmored( InputStream in ) throws IOException
+    {
+        if( !in.markSupported() )
+            return false;
+
+        in.mark( MARK_LIMIT );
+        try
+        {
+            int b;
+            do
+                b = in.read();
+            while( b != -1 && DECODING_TABLE[ b ] < INVALID );
+
+            StringBuilder line = new StringBuilder();
+            while( b != -1 && b != '\r' && b != '\n' && line.length() < CLEARTEXT_HEADER_LINE.length() )
+            {
+                line.append( ( char )b );
+                b = in.read();
+            }
+
+            return line.toString().startsWith( ARMOR_HEADER_LINE ) && !line.toString().startsWith( CLEARTEXT_HEADER_LINE );
+        }
+        finally
+        {
+            in.reset();
+        }
+    }
+
+    private void readArmorHeaders() throws IOException
+    {
+        // skip the whitespace before the armor header line
+        int b;
+        in.mark( 1 );
+        while( (b = in.read()) != -1 && DECODING_TABLE[ b ] < INVALID )
+            in.mark( 1 );
+        in.reset();
+
+        String headerLine = readLine();
+        if( headerLine == null || !headerLine.startsWith( ARMOR_HEADER_LINE ) || !headerLine.endsWith( "-----" ) )
+            throw new IOException( "Invalid radix64 armor header line." );
+
+        // the armor headers end with an empty line, but the line is left out by some implementations
+        while( true )
+        {
+            in.mark( MARK_LIMIT );
+            String line = readLine();
+            if( line == null )
+                throw new IOException( "Unexpected end of the radix64 armor." );
+            if( line.trim().isEmpty() )
+                break;
+            if( line.indexOf( ':' ) < 0 )
+            {
+                in.reset();
+                break;
+            }
+        }
+    }
+
+    // read a line of the armor, without its line ending
+    private String readLine() throws IOException
+    {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while( (b = in.read()) != -1 && b != '\n' )
+        {
+            if( b != '\r' )
+                line.append( ( char )b );
+        }
+
+        if( b == -1 && line.length() == 0 )
+            return null;
+        return line.toString();
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        if( decodedPosition == decodedLength && !fill() )
+            return -1;
+
+        return decodedBuffer[ decodedPosition++ ] & 0xff;
+    }
+
+    @Override
+    public int read( byte[] buffer, int offset, int length ) throws IOException
+    {
+        if( length == 0 )
+            return 0;
+        if( decodedPosition == decodedLength && !fill() )
+            return -1;
+
+        int count = Math.min( length, decodedLength - decodedPosition );
+        System.arraycopy( decodedBuffer, decodedPosition, buffer, offset, count );
+        decodedPosition += count;
+        return count;
+    }
+
+    @Override
+    public int available()
+    {
+        return decodedLength - decodedPosition;
+    }
+
+    // decode the next block of characters; returns false once all of the data has been read
+    private boolean fill() throws IOException
+    {
+        decodedPosition = 0;
+        decodedLength = 0;
+        while( decodedLength == 0 && mode != END )
+        {
+            if( rawPosition == rawLength )
+            {
+                rawPosition = 0;
+                rawLength = in.read( rawBuffer, 0, rawBuffer.length );
+                if( rawLength == -1 )
+                {
+                    rawLength = 0;
+                    // the data may end without the checksum line and the armor tail line
+                    if( groupLength != 0 || paddingLength != 0 || mode == CHECKSUM )
+                        throw new IOException( "Unexpected end of the radix64 armor." );
+                    mode = END;
+                    break;
+                }
+            }
+
+            decode();
+        }
+
+        if( mode == END && checksumLength == 4 && checksum != crc.getValue() )
+            throw new IOException( "The radix64 armor checksum doesn't match the data." );
+
+        return decodedLength > 0;
+    }
+
+    // decode the characters in the raw buffer into the decoded buffer, until the raw buffer is empty or the data ends
+    // + the decoded buffer is as large as the raw buffer, so it always has room for the decoded characters
+    private void decode() throws IOException
+    {
+        int length = 0;
+        while( rawPosition < rawLength && mode != END )
+        {
+            int c = rawBuffer[ rawPosition++ ] & 0xff;
+            int value = DECODING_TABLE[ c ];
+            if( value >= 0 )
+            {
+                isLineStart = false;
+                if( mode == CHECKSUM )
+                {
+                    checksum = (checksum << 6) | value;
+                    if( ++checksumLength == 4 )
+                        mode = END;
+                    continue;
+                }
+                if( isPadded || paddingLength != 0 )
+                    throw new IOException( "Invalid radix64 data after the padding." );
+
+                group = (group << 6) | value;
+                if( ++groupLength == 4 )
+                {
+                    decodedBuffer[ length++ ] = ( byte )(group >>> 16);
+                    decodedBuffer[ length++ ] = ( byte )(group >>> 8);
+                    decodedBuffer[ length++ ] = ( byte )group;
+                    group = 0;
+                    groupLength = 0;
+                }
+            }
+            else if( value == NEW_LINE )
+            {
+                isLineStart = true;
+            }
+            else if( value == WHITESPACE )
+            {
+            }
+            else if( c == '=' && isLineStart && groupLength == 0 && mode == DATA )
+            {
+                // the checksum line
+                isLineStart = false;
+                mode = CHECKSUM;
+            }
+            else if( c == '=' && groupLength >= 2 && mode == DATA )
+            {
+                // the padding of the last group, which holds one or two bytes
+                isLineStart = false;
+                if( groupLength + ++paddingLength == 4 )
+                {
+                    group <<= 6 * paddingLength;
+                    decodedBuffer[ length++ ] = ( byte )(group >>> 16);
+                    if( groupLength == 3 )
+                        decodedBuffer[ length++ ] = ( byte )(group >>> 8);
+                    group = 0;
+                    groupLength = 0;
+                    paddingLength = 0;
+                    isPadded = true;
+                }
+            }
+            else if( c == '-' && isLineStart && groupLength == 0 && paddingLength == 0 )
+            {
+                // the armor tail line
+                mode = END;
+            }
+            else
+            {
+                throw new IOException( "Invalid character in the radix64 armor." );
+            }
+        }
+
+        crc.update( decodedBuffer, 0, length );
+        decodedLength = length;
+    }
+
+    // close the underlying stream too, like bouncy castle's armored input stream does
+    @Override
+    public void close() throws IOException
+    {
+        in.close();
+    }
+}
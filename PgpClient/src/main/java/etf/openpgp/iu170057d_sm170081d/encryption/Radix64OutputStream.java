@@ -0,0 +1,210 @@
+package etf.openpgp.iu170057d_sm170081d.encryption;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import org.bouncycastle.bcpg.ArmoredOutputStream;
+
+// radix64 armor encoder, which writes the same bytes as bouncy castle's armored output stream with its default headers
+// + bouncy castle's stream encodes the data byte by byte, and writes every character to the underlying stream on its own
+// + this one encodes whole blocks into a line buffer, and writes it to the underlying stream once it is full
+// + the armor header line (message, signature, key block) is chosen by the tag of the first packet, as bouncy castle does
+// ! closing the stream writes the checksum and the armor tail line, but doesn't close the underlying stream
+public class Radix64OutputStream extends OutputStream
+{
+    static final byte[] ENCODING_TABLE = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes( StandardCharsets.US_ASCII );
+    // the number of radix64 characters per line
+    static final int LINE_LENGTH = 64;
+
+    private final OutputStream out;
+    private final byte[] newLine = System.lineSeparator().getBytes( StandardCharsets.US_ASCII );
+    private final Crc24 crc = new Crc24();
+
+    // the encoded characters, written to the underlying stream once the buffer can't hold another line
+    // + the buffer is taken from the buffer pool, and returned to it once the stream is closed
+    private byte[] lineBuffer = BufferPool.acquirePacketBuffer();
+    private int lineBufferLength = 0;
+    private int lineLength = 0;
+    // the bytes of the incomplete group at the end of the written data
+    private final byte[] group = new byte[3];
+    private int groupLength = 0;
+    // the armor type, once the header line has been written
+    private String type = null;
+
+    public Radix64OutputStream( OutputStream out )
+    {
+        this.out = out;
+    }
+
+    @Override
+    public void write( int b ) throws IOException
+    {
+        write( new byte[]
+        {
+            ( byte )b
+        }, 0, 1 );
+    }
+
+    @Override
+    public void write( byte[] buffer, int offset, int length ) throws IOException
+    {
+        if( length == 0 )
+            return;
+        if( type == null )
+            writeHeader( buffer[ offset ] );
+
+        int end = offset + length;
+
+        // complete the group left over from the previous write
+        while( groupLength > 0 && offset < end )
+        {
+            group[ groupLength++ ] = buffer[ offset++ ];
+            if( groupLength == 3 )
+            {
+                encodeGroup( group[ 0 ], group[ 1 ], group[ 2 ] );
+                groupLength = 0;
+            }
+        }
+
+        for( ; offset + 3 <= end; offset += 3 )
+            encodeGroup( buffer[ offset ], buffer[ offset + 1 ], buffer[ offset + 2 ] );
+
+        while( offset < end )
+            group[ groupLength++ ] = buffer[ offset++ ];
+    }
+
+    private void encodeGroup( byte b0, byte b1, byte b2 ) throws IOException
+    {
+        crc.update3( b0, b1, b2 );
+
+        // make room for the group and the new line after it
+        if( lineBufferLength + 4 + newLine.length > lineBuffer.length )
+            flushLineBuffer();
+
+        int bits = ((b0 & 0xff) << 16) | ((b1 & 0xff) << 8) | (b2 & 0xff);
+        lineBuffer[ lineBufferLength++ ] = ENCODING_TABLE[ bits >>> 18 ];
+        lineBuffer[ lineBufferLength++ ] = ENCODING_TABLE[ (bits >>> 12) & 0x3f ];
+        lineBuffer[ lineBufferLength++ ] = ENCODING_TABLE[ (bits >>> 6) & 0x3f ];
+        lineBuffer[ lineBufferLength++ ] = ENCODING_TABLE[ bits & 0x3f ];
+
+        lineLength += 4;
+        if( lineLength == LINE_LENGTH )
+            endLine();
+    }
+
+    private void endLine()
+    {
+        System.arraycopy( newLine, 0, lineBuffer, lineBufferLength, newLine.length );
+        lineBufferLength += newLine.length;
+        lineLength = 0;
+    }
+
+    private void writeHeader( byte firstByte ) throws IOException
+    {
+        type = getArmorType( firstByte );
+        writeAscii( "-----BEGIN PGP " + type + "-----" );
+        endLine();
+        writeAscii( ArmoredOutputStream.VERSION_HDR + ": " + ArmoredOutputStream.DEFAULT_VERSION );
+        endLine();
+        endLine();
+    }
+
+    // the armor type of the packet with the given first byte (its tag), as chosen by bouncy castle
+    private static String getArmorType( byte firstByte )
+    {
+        boolean isNewFormat = (firstByte & 0x40) != 0;
+        int tag = isNewFormat ? firstByte & 0x3f : (firstByte & 0x3f) >> 2;
+        switch( tag )
+        {
+            case 2:
+                return "SIGNATURE";
+            case 5:
+                return "PRIVATE KEY BLOCK";
+            case 6:
+                return "PUBLIC KEY BLOCK";
+            default:
+                return "MESSAGE";
+        }
+    }
+
+    private void writeAscii( String text ) throws IOException
+    {
+        byte[] bytes = text.getBytes( StandardCharsets.US_ASCII );
+        if( lineBufferLength + bytes.length + newLine.length > lineBuffer.length )
+            flushLineBuffer();
+        System.arraycopy( bytes, 0, lineBuffer, lineBufferLength, bytes.length );
+        lineBufferLength += bytes.length;
+    }
+
+    private void flushLineBuffer() throws IOException
+    {
+        out.write( lineBuffer, 0, lineBufferLength );
+        lineBufferLength = 0;
+    }
+
+    // write out the encoded lines; the last incomplete group stays buffered, since it can only be encoded once the data ends
+    @Override
+    public void flush() throws IOException
+    {
+        flushLineBuffer();
+        out.flush();
+    }
+
+    // encode the last incomplete group, and write the checksum and the armor tail line
+    @Override
+    public void close() throws IOException
+    {
+        if( lineBuffer == null )
+            return;
+
+        try
+        {
+            if( type != null )
+                writeTail();
+        }
+        finally
+        {
+            BufferPool.release( lineBuffer );
+            lineBuffer = null;
+        }
+    }
+
+    private void writeTail() throws IOException
+    {
+        if( groupLength > 0 )
+        {
+            for( int i = 0; i < groupLength; i++ )
+                crc.update( group[ i ] );
+
+            int b1 = groupLength > 1 ? group[ 1 ] & 0xff : 0;
+            int bits = ((group[ 0 ] & 0xff) << 16) | (b1 << 8);
+            if( lineBufferLength + 4 + newLine.length > lineBuffer.length )
+                flushLineBuffer();
+            lineBuffer[ lineBufferLength++ ] = ENCODING_TABLE[ bits >>> 18 ];
+            lineBuffer[ lineBufferLength++ ] = ENCODING_TABLE[ (bits >>> 12) & 0x3f ];
+            lineBuffer[ lineBufferLength++ ] = groupLength > 1 ? ENCODING_TABLE[ (bits >>> 6) & 0x3f ] : ( byte )'=';
+            lineBuffer[ lineBufferLength++ ] = '=';
+            lineLength += 4;
+            groupLength = 0;
+        }
+        if( lineLength > 0 )
+            endLine();
+
+        int checksum = crc.getValue();
+        byte[] checksumChars =
+        {
+            '=',
+            ENCODING_TABLE[ checksum >>> 18 ],
+            ENCODING_TABLE[ (checksum >>> 12) & 0x3f ],
+            ENCODING_TABLE[ (checksum >>> 6) & 0x3f ],
+            ENCODING_TABLE[ checksum & 0x3f ]
+        };
+        writeAscii( new String( checksumChars, StandardCharsets.US_ASCII ) );
+        endLine();
+        writeAscii( "-----END PGP " + type + "-----" );
+        endLine();
+
+        flushLineBuffer();
+        out.flush();
+    }
+}
@@ -0,0 +1,102 @@
+package etf.openpgp.iu170057d_sm170081d.encryption;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.bouncycastle.openpgp.PGPSessionKey;
+
+// cache of recovered message session keys, so that opening the same message again skips the public key decryption of its session key
+// + a session key is looked up by the hash of the message's session key packets, which are what the session key is recovered from
+// + the least recently used session key is evicted once the cache is full, and evicted session keys are zeroized
+// ! the cache doesn't replace the passphrase check: the receiver's private key still has to be unlocked before a cached session key is used
+public class SessionKeyCache
+{
+    private static class Entry
+    {
+        final int algorithm;
+        final byte[] key;
+
+        Entry( int algorithm, byte[] key )
+        {
+            this.algorithm = algorithm;
+            this.key = key;
+        }
+    }
+
+    private final Map<ByteBuffer, Entry> entries = new LinkedHashMap<>( 16, 0.75f, /*accessOrder=*/ true );
+    private int capacity;
+
+    // create a session key cache holding at most the given number of session keys; a capacity of zero disables the cache
+    public SessionKeyCache( int capacity )
+    {
+        setCapacity( capacity );
+    }
+
+    public synchronized void setCapacity( int capacity )
+    {
+        if( capacity < 0 )
+            throw new IllegalArgumentException( "Session key cache capacity must not be negative." );
+
+        this.capacity = capacity;
+        evictOverCapacity();
+    }
+
+    public synchronized boolean isEnabled()
+    {
+        return capacity > 0;
+    }
+
+    // get the session key of the message with the given hash, or null if it isn't cached
+    public synchronized PGPSessionKey get( byte[] messageHash )
+    {
+        Entry entry = entries.get( ByteBuffer.wrap( messageHash ) );
+        if( entry == null )
+            return null;
+
+        // ! a copy, so that evicting the entry doesn't zeroize a key which is still being used
+        return new PGPSessionKey( entry.algorithm, entry.key.clone() );
+    }
+
+    // cache the session key recovered from the message with the given hash
+    public synchronized void put( byte[] messageHash, PGPSessionKey sessionKey )
+    {
+        if( !isEnabled() )
+            return;
+
+        Entry oldEntry = entries.put( ByteBuffer.wrap( messageHash.clone() ), new Entry( sessionKey.getAlgorithm(), sessionKey.getKey().clone() ) );
+        if( oldEntry != null )
+            zeroize( oldEntry );
+
+        evictOverCapacity();
+    }
+
+    // remove all session keys from the cache
+    public synchronized void flush()
+    {
+        for( Entry entry : entries.values() )
+            zeroize( entry );
+        entries.clear();
+    }
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    private void evictOverCapacity()
+    {
+        Iterator<Entry> entryIter = entries.values().iterator();
+        while( entries.size() > capacity && entryIter.hasNext() )
+        {
+            zeroize( entryIter.next() );
+            entryIter.remove();
+        }
+    }
+
+    private static void zeroize( Entry entry )
+    {
+        Arrays.fill( entry.key, ( byte )0 );
+    }
+}
@@ -0,0 +1,112 @@
+package etf.openpgp.iu170057d_sm170081d.utils;
+
+import java.io.File;
+import javax.swing.JFileChooser;
+import javax.swing.JFrame;
+import javax.swing.filechooser.FileNameExtensionFilter;
+
+// swing file chooser dialogs
+// + kept apart from the file utilities, so that the headless command line doesn't load any awt classes
+public class FileChooserUtils
+{
+
+    private FileChooserUtils()
+    {
+    }
+
+    // file chooser dialog type
+    public static final int OPEN_DIALOG = JFileChooser.OPEN_DIALOG;
+    public static final int SAVE_DIALOG = JFileChooser.SAVE_DIALOG;
+    // file chooser file types
+    public static final int ANY_FILE = 0;
+    public static final int PGP_MESSAGE_FILE = 1;
+    public static final int PGP_KEY_FILE = 2;
+    public static final int TXT_FILE = 3;
+    // file chooser previous path
+    private static File previousPath = null;
+
+    public static String getUserSelectedFilePath( int dialogType, int allowedFileType )
+    {
+        JFileChooser jFileChooser = new javax.swing.JFileChooser();
+        jFileChooser.setFileSelectionMode( JFileChooser.FILES_ONLY );
+        jFileChooser.setMultiSelectionEnabled( false );
+        jFileChooser.setCurrentDirectory( previousPath );
+
+        switch( allowedFileType )
+        {
+            case ANY_FILE:
+            {
+                break;
+            }
+            case PGP_MESSAGE_FILE:
+            {
+                jFileChooser.setFileFilter( new FileNameExtensionFilter( "PGP message (*.gpg, *.sig)", "gpg", "sig" ) );
+                break;
+            }
+            case PGP_KEY_FILE:
+            {
+                jFileChooser.setFileFilter( new FileNameExtensionFilter( "PGP key file (*.asc)", "asc" ) );
+                break;
+            }
+            case TXT_FILE:
+            {
+                jFileChooser.setFileFilter( new FileNameExtensionFilter( "Text file (*.txt)", "txt" ) );
+                break;
+            }
+            default:
+            {
+                throw new IllegalArgumentException( "Invalid <allowed file type> provided" );
+            }
+        }
+
+        JFrame jFrame = new JFrame();
+        jFrame.setDefaultCloseOperation( javax.swing.WindowConstants.DISPOSE_ON_CLOSE );
+        // these two lines dont't work since we don't have internal access to the showOpenDialog and showSaveDialog methods
+        // jFrame.setTitle("Choose file");
+        // jFrame.getContentPane().setSize(new Dimension(640, 480));
+
+        int dialogStatus = -1;
+        switch( dialogType )
+        {
+            case OPEN_DIALOG:
+            {
+                dialogStatus = jFileChooser.showOpenDialog( jFrame );
+                break;
+            }
+            case SAVE_DIALOG:
+            {
+                dialogStatus = jFileChooser.showSaveDialog( jFrame );
+                break;
+            }
+            default:
+            {
+                throw new IllegalArgumentException( "Invalid dialog type provided" );
+            }
+        }
+
+        if( dialogStatus != JFileChooser.APPROVE_OPTION )
+        {
+            return null;
+        }
+
+        String filePath = jFileChooser.getSelectedFile().getAbsolutePath();
+        switch( allowedFileType )
+        {
+            case PGP_MESSAGE_FILE:
+            {
+                if( !filePath.endsWith( ".gpg" ) )
+                    filePath += ".gpg";
+                break;
+            }
+            case PGP_KEY_FILE:
+            {
+                if( !filePath.endsWith( ".asc" ) )
+                    filePath += ".asc";
+                break;
+            }
+        }
+
+        previousPath = jFileChooser.getCurrentDirectory();
+        return filePath;
+    }
+}
@@ -1,40 +1,58 @@
 package etf.openpgp.iu170057d_sm170081d.utils;
 
-import java.io.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.swing.JFileChooser;
-import javax.swing.JFrame;
-import javax.swing.filechooser.FileNameExtensionFilter;
 
 public class FileUtils
 {
+    // files from this size on are memory mapped instead of read through a buffer
+    private static final long MAPPED_READ_THRESHOLD = 1 << 20;
+    // how much of a large file is mapped at a time when it is streamed
+    private static final long MAPPED_WINDOW_SIZE = 1 << 26;
+    // size of the buffer used for streaming small files
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+    // the largest byte array the jvm reliably allocates
+    private static final long MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
 
     private FileUtils()
     {
     }
 
-    public static void writeToFile( String filePath, byte[] content )
+    // writes the contents of a file
+    public static interface ContentWriter
     {
-        File outputFile = new File( filePath );
-        try
-        {
-            outputFile.createNewFile();
-        }
-        catch( IOException ex )
-        {
-            Logger.getLogger( FileUtils.class.getName() ).log( Level.SEVERE, null, ex );
-        }
+        void write( OutputStream outputStream ) throws IOException;
+    }
 
-        FileOutputStream fos = null;
+    // write the content into the file, replacing what it held before
+    // + the file is replaced atomically, so after a crash it holds either its old or its new content
+    public static void writeToFile( String filePath, byte[] content )
+    {
         try
         {
-            fos = new FileOutputStream( filePath );
-            fos.write( content );
+            writeAtomically( Paths.get( filePath ), outputStream -> outputStream.write( content ) );
         }
-        catch( FileNotFoundException ex )
+        catch( NoSuchFileException ex )
         {
             Logger.getLogger( FileUtils.class.getName() ).log( Level.INFO, "Could not find file with given path", ex );
         }
@@ -42,177 +60,284 @@ public class FileUtils
         {
             Logger.getLogger( FileUtils.class.getName() ).log( Level.INFO, "Could not write file contents fully.", ex );
         }
-        finally
+    }
+
+    // write the text and a line separator into the file, in the platform's default charset
+    public static void writeToFile( String filePath, String content )
+    {
+        writeToFile( filePath, (content + System.lineSeparator()).getBytes() );
+    }
+
+    // write the file crash safely: into a temporary file next to it, which is forced to the disk and then renamed over the file
+    public static void writeAtomically( Path file, ContentWriter contentWriter ) throws IOException
+    {
+        try( AtomicFileOutputStream outputStream = openAtomicOutputStream( file ) )
         {
-            try
-            {
-                if( fos != null )
-                    fos.close();
-            }
-            catch( IOException ex )
-            {
-                Logger.getLogger( FileUtils.class.getName() ).log( Level.SEVERE, "Could not close file after IOException occured during write.", ex );
-            }
+            contentWriter.write( outputStream );
+            outputStream.commit();
         }
     }
 
-    public static void writeToFile( String filePath, String content )
+    // open the file for streaming contents into it, which replace what it held before only once the stream is committed
+    public static AtomicFileOutputStream openAtomicOutputStream( Path file ) throws IOException
+    {
+        return new AtomicFileOutputStream( file );
+    }
+
+    // force the directory's entries to the disk, so that a file created in or renamed into it survives a crash
+    // ! not every platform can open a directory (windows can't), and there the rename is left to the file system's own ordering
+    public static void syncDirectory( Path directory )
     {
-        try( PrintWriter out = new PrintWriter( filePath ) )
+        try( FileChannel channel = FileChannel.open( directory, StandardOpenOption.READ ) )
         {
-            out.println( content );
+            channel.force( true );
         }
-        catch( FileNotFoundException ex )
+        catch( IOException ex )
         {
-            Logger.getLogger( FileUtils.class.getName() ).log( Level.SEVERE, null, ex );
+            Logger.getLogger( FileUtils.class.getName() ).log( Level.FINE, "Could not sync directory " + directory + ".", ex );
         }
     }
 
-    public static byte[] readFromFile( String filePath )
+    // output stream into a temporary file next to the target file, which replaces the target file only when the stream is committed
+    // + committing forces the contents to the disk before the rename, and the rename to the disk after it
+    // + closing the stream without committing it deletes the temporary file, and leaves the target file untouched
+    // + every stream gets a new uniquely named temporary file, so it never truncates an existing file and concurrent writers of the same target don't share one
+    public static class AtomicFileOutputStream extends OutputStream
     {
-        File file = new File( filePath );
-        FileInputStream fin = null;
-        try
+        private final Path file;
+        private final Path temporaryFile;
+        private final FileChannel channel;
+        private final OutputStream outputStream;
+        private boolean isCommitted = false;
+        private boolean isClosed = false;
+        private static final Random temporaryFileRandom = new Random();
+
+        private AtomicFileOutputStream( Path file ) throws IOException
         {
-            fin = new FileInputStream( file );
-            byte fileContent[] = new byte[( int )file.length()];
-            fin.read( fileContent );
-            return fileContent;
+            this.file = file.toAbsolutePath();
+            this.temporaryFile = createTemporaryFile( this.file );
+            this.channel = FileChannel.open( temporaryFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE );
+            this.outputStream = new BufferedOutputStream( Channels.newOutputStream( channel ), STREAM_BUFFER_SIZE );
         }
-        catch( FileNotFoundException ex )
+
+        // a name for the temporary file which no other file next to the target file has
+        // ! the file is created by the caller with create new, which fails instead of reusing a file whose name was taken in the meantime
+        private static Path createTemporaryFile( Path file )
         {
-            Logger.getLogger( FileUtils.class.getName() ).log( Level.INFO, "Could not find file with given path.", ex );
+            Path temporaryFile;
+            do
+                temporaryFile = file.resolveSibling( file.getFileName() + "." + Long.toHexString( temporaryFileRandom.nextLong() ) + ".tmp" );
+            while( Files.exists( temporaryFile, LinkOption.NOFOLLOW_LINKS ) );
+
+            return temporaryFile;
         }
-        catch( IOException ex )
+
+        @Override
+        public void write( int b ) throws IOException
         {
-            Logger.getLogger( FileUtils.class.getName() ).log( Level.INFO, "Could not read file contents fully.", ex );
+            outputStream.write( b );
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len ) throws IOException
+        {
+            outputStream.write( b, off, len );
         }
-        finally
+
+        @Override
+        public void flush() throws IOException
+        {
+            outputStream.flush();
+        }
+
+        // replace the target file with everything written so far, and close the stream
+        public void commit() throws IOException
         {
+            if( isClosed )
+                throw new IOException( "The stream is already closed." );
+
+            outputStream.flush();
+            channel.force( true );
+            outputStream.close();
+            isClosed = true;
+
+            Files.move( temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            isCommitted = true;
+            syncDirectory( file.getParent() );
+        }
+
+        // discard everything written, unless the stream was committed
+        @Override
+        public void close() throws IOException
+        {
+            if( isCommitted )
+                return;
+
             try
             {
-                if( fin != null )
-                    fin.close();
+                if( !isClosed )
+                    channel.close();
             }
-            catch( IOException ex )
+            finally
             {
-                Logger.getLogger( FileUtils.class.getName() ).log( Level.SEVERE, "Could not close file after IOException occured during read.", ex );
+                isClosed = true;
+                Files.deleteIfExists( temporaryFile );
             }
         }
+    }
+
+    // read the whole file into memory, or return null if it can't be read or doesn't fit into a byte array
+    // + large files are memory mapped and copied out of the mapping, small ones are read until the whole file is in
+    public static byte[] readFromFile( String filePath )
+    {
+        try( FileChannel channel = FileChannel.open( Paths.get( filePath ), StandardOpenOption.READ ) )
+        {
+            long size = channel.size();
+            if( size > MAX_ARRAY_SIZE )
+            {
+                Logger.getLogger( FileUtils.class.getName() ).log( Level.INFO, "File is too large to be read into memory: {0} bytes.", size );
+                return null;
+            }
+
+            byte[] fileContent = new byte[( int )size];
+            if( size >= MAPPED_READ_THRESHOLD )
+            {
+                channel.map( FileChannel.MapMode.READ_ONLY, 0, size ).get( fileContent );
+                return fileContent;
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap( fileContent );
+            while( buffer.hasRemaining() )
+            {
+                if( channel.read( buffer ) < 0 )
+                    throw new EOFException( "File was truncated while it was read." );
+            }
+            return fileContent;
+        }
+        catch( NoSuchFileException ex )
+        {
+            Logger.getLogger( FileUtils.class.getName() ).log( Level.INFO, "Could not find file with given path.", ex );
+        }
+        catch( IOException ex )
+        {
+            Logger.getLogger( FileUtils.class.getName() ).log( Level.INFO, "Could not read file contents fully.", ex );
+        }
 
         return null;
     }
 
-    public static void ensureFileExists( File file ) throws FileNotFoundException
+    // open the file for streaming its contents, so that the whole file never has to be held in memory
+    // + large files are read through a sliding memory mapped window, which saves a read system call per buffer
+    public static InputStream openInputStream( Path file ) throws IOException
     {
-        file.getParentFile().mkdirs();
-
+        FileChannel channel = FileChannel.open( file, StandardOpenOption.READ );
         try
         {
-            file.createNewFile();
+            if( channel.size() >= MAPPED_READ_THRESHOLD )
+                return new MappedInputStream( channel );
+
+            return new BufferedInputStream( Channels.newInputStream( channel ), STREAM_BUFFER_SIZE );
         }
-        catch( IOException ex )
+        catch( IOException | RuntimeException ex )
         {
-            if( Files.notExists( Paths.get( file.getAbsolutePath() ) ) )
-            {
-                throw new FileNotFoundException( "Could not ensure the file exists" );
-            }
+            channel.close();
+            throw ex;
         }
     }
 
-    // file chooser dialog type
-    public static final int OPEN_DIALOG = JFileChooser.OPEN_DIALOG;
-    public static final int SAVE_DIALOG = JFileChooser.SAVE_DIALOG;
-    // file chooser file types
-    public static final int ANY_FILE = 0;
-    public static final int PGP_MESSAGE_FILE = 1;
-    public static final int PGP_KEY_FILE = 2;
-    public static final int TXT_FILE = 3;
-    // file chooser previous path
-    private static File previousPath = null;
-
-    public static String getUserSelectedFilePath( int dialogType, int allowedFileType )
+    // input stream over a file, which maps the file one window at a time
+    // + a window is unmapped by the garbage collector once it is no longer referenced, so only the current window stays reachable
+    private static class MappedInputStream extends InputStream
     {
-        JFileChooser jFileChooser = new javax.swing.JFileChooser();
-        jFileChooser.setFileSelectionMode( JFileChooser.FILES_ONLY );
-        jFileChooser.setMultiSelectionEnabled( false );
-        jFileChooser.setCurrentDirectory( previousPath );
+        private final FileChannel channel;
+        private final long size;
+        // file position at which the current window starts
+        private long windowStart = 0;
+        private MappedByteBuffer window = null;
 
-        switch( allowedFileType )
+        MappedInputStream( FileChannel channel ) throws IOException
         {
-            case ANY_FILE:
-            {
-                break;
-            }
-            case PGP_MESSAGE_FILE:
-            {
-                jFileChooser.setFileFilter( new FileNameExtensionFilter( "PGP message (*.gpg, *.sig)", "gpg", "sig" ) );
-                break;
-            }
-            case PGP_KEY_FILE:
-            {
-                jFileChooser.setFileFilter( new FileNameExtensionFilter( "PGP key file (*.asc)", "asc" ) );
-                break;
-            }
-            case TXT_FILE:
-            {
-                jFileChooser.setFileFilter( new FileNameExtensionFilter( "Text file (*.txt)", "txt" ) );
-                break;
-            }
-            default:
-            {
-                throw new IllegalArgumentException( "Invalid <allowed file type> provided" );
-            }
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        // map the next window if the current one has been read through, and return false at the end of the file
+        private boolean nextWindow() throws IOException
+        {
+            if( window != null && window.hasRemaining() )
+                return true;
+
+            if( window != null )
+                windowStart += window.capacity();
+            if( windowStart >= size )
+                return false;
+
+            window = channel.map( FileChannel.MapMode.READ_ONLY, windowStart, Math.min( MAPPED_WINDOW_SIZE, size - windowStart ) );
+            return true;
         }
 
-        JFrame jFrame = new JFrame();
-        jFrame.setDefaultCloseOperation( javax.swing.WindowConstants.DISPOSE_ON_CLOSE );
-        // these two lines dont't work since we don't have internal access to the showOpenDialog and showSaveDialog methods
-        // jFrame.setTitle("Choose file");
-        // jFrame.getContentPane().setSize(new Dimension(640, 480));
+        @Override
+        public int read() throws IOException
+        {
+            if( !nextWindow() )
+                return -1;
+            return window.get() & 0xff;
+        }
 
-        int dialogStatus = -1;
-        switch( dialogType )
+        @Override
+        public int read( byte[] b, int off, int len ) throws IOException
         {
-            case OPEN_DIALOG:
-            {
-                dialogStatus = jFileChooser.showOpenDialog( jFrame );
-                break;
-            }
-            case SAVE_DIALOG:
-            {
-                dialogStatus = jFileChooser.showSaveDialog( jFrame );
-                break;
-            }
-            default:
+            if( len == 0 )
+                return 0;
+            if( !nextWindow() )
+                return -1;
+
+            int count = Math.min( len, window.remaining() );
+            window.get( b, off, count );
+            return count;
+        }
+
+        @Override
+        public long skip( long n ) throws IOException
+        {
+            long skipped = 0;
+            while( skipped < n && nextWindow() )
             {
-                throw new IllegalArgumentException( "Invalid dialog type provided" );
+                int count = ( int )Math.min( n - skipped, window.remaining() );
+                window.position( window.position() + count );
+                skipped += count;
             }
+            return skipped;
         }
 
-        if( dialogStatus != JFileChooser.APPROVE_OPTION )
+        @Override
+        public int available()
         {
-            return null;
+            return window == null ? 0 : window.remaining();
         }
 
-        String filePath = jFileChooser.getSelectedFile().getAbsolutePath();
-        switch( allowedFileType )
+        @Override
+        public void close() throws IOException
         {
-            case PGP_MESSAGE_FILE:
-            {
-                if( !filePath.endsWith( ".gpg" ) )
-                    filePath += ".gpg";
-                break;
-            }
-            case PGP_KEY_FILE:
+            window = null;
+            channel.close();
+        }
+    }
+
+    public static void ensureFileExists( File file ) throws FileNotFoundException
+    {
+        file.getParentFile().mkdirs();
+
+        try
+        {
+            file.createNewFile();
+        }
+        catch( IOException ex )
+        {
+            if( Files.notExists( Paths.get( file.getAbsolutePath() ) ) )
             {
-                if( !filePath.endsWith( ".asc" ) )
-                    filePath += ".asc";
-                break;
+                throw new FileNotFoundException( "Could not ensure the file exists" );
             }
         }
-
-        previousPath = jFileChooser.getCurrentDirectory();
-        return filePath;
     }
 }
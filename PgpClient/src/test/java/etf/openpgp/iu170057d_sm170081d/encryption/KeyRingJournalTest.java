@@ -0,0 +1,319 @@
+package etf.openpgp.iu170057d_sm170081d.encryption;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.bouncycastle.bcpg.ArmoredInputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// on-disk format of the key ring journal: replaying its records, ignoring a torn tail, and crashes at every step of compaction
+public class KeyRingJournalTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File snapshotFile;
+    private File journalFile;
+    private File compactingJournalFile;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        snapshotFile = new File( folder.getRoot(), "keyrings.asc" );
+        journalFile = new File( snapshotFile.getPath() + ".journal" );
+        compactingJournalFile = new File( snapshotFile.getPath() + ".journal.compacting" );
+    }
+
+    // records the replayed changes as strings, so that whole replays can be compared at once
+    private static class RecordingReplayer implements KeyRingJournal.Replayer
+    {
+        final List<String> changes = new ArrayList<>();
+
+        @Override
+        public void added( byte[] encodedKeyRing )
+        {
+            changes.add( "added " + new String( encodedKeyRing, StandardCharsets.US_ASCII ) );
+        }
+
+        @Override
+        public void removed( long masterKeyId )
+        {
+            changes.add( "removed " + masterKeyId );
+        }
+    }
+
+    // snapshot writer which writes the given content
+    private static KeyRingJournal.SnapshotWriter snapshotOf( String content )
+    {
+        return outputStream -> outputStream.write( content.getBytes( StandardCharsets.US_ASCII ) );
+    }
+
+    private List<String> replay() throws Exception
+    {
+        RecordingReplayer replayer = new RecordingReplayer();
+        new KeyRingJournal( snapshotFile, () -> snapshotOf( "" ) ).replay( replayer );
+        return replayer.changes;
+    }
+
+    private String readSnapshot() throws IOException
+    {
+        try( InputStream inputStream = new ArmoredInputStream( new FileInputStream( snapshotFile ) ) )
+        {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int length;
+            while( (length = inputStream.read( buffer )) >= 0 )
+                content.write( buffer, 0, length );
+
+            return new String( content.toByteArray(), StandardCharsets.US_ASCII );
+        }
+    }
+
+    private static byte[] bytes( String s )
+    {
+        return s.getBytes( StandardCharsets.US_ASCII );
+    }
+
+    @Test
+    public void replaysRecordsInOrder() throws Exception
+    {
+        KeyRingJournal journal = new KeyRingJournal( snapshotFile, () -> snapshotOf( "" ) );
+        journal.sync( journal.appendAdded( bytes( "ring a" ) ) );
+        journal.sync( journal.appendRemoved( 42 ) );
+        journal.sync( journal.appendAdded( bytes( "ring b" ) ) );
+
+        assertFalse( journal.isEmpty() );
+        assertEquals( Arrays.asList( "added ring a", "removed 42", "added ring b" ), replay() );
+    }
+
+    @Test
+    public void replayOfMissingJournalIsEmpty() throws Exception
+    {
+        assertTrue( new KeyRingJournal( snapshotFile, () -> snapshotOf( "" ) ).isEmpty() );
+        assertEquals( Arrays.asList(), replay() );
+    }
+
+    @Test
+    public void ignoresRecordTornInItsPayload() throws Exception
+    {
+        KeyRingJournal journal = new KeyRingJournal( snapshotFile, () -> snapshotOf( "" ) );
+        journal.appendAdded( bytes( "ring a" ) );
+        journal.appendAdded( bytes( "ring b" ) );
+
+        // cut the last record in the middle of its payload
+        truncate( journalFile, journalFile.length() - Integer.BYTES - 2 );
+
+        assertEquals( Arrays.asList( "added ring a" ), replay() );
+    }
+
+    @Test
+    public void ignoresRecordTornInItsHeader() throws Exception
+    {
+        KeyRingJournal journal = new KeyRingJournal( snapshotFile, () -> snapshotOf( "" ) );
+        journal.appendAdded( bytes( "ring a" ) );
+        long firstRecordEnd = journalFile.length();
+        journal.appendRemoved( 7 );
+
+        // leave only the type and half of the length of the last record
+        truncate( journalFile, firstRecordEnd + 3 );
+
+        assertEquals( Arrays.asList( "added ring a" ), replay() );
+    }
+
+    @Test
+    public void ignoresRecordWithWrongChecksum() throws Exception
+    {
+        KeyRingJournal journal = new KeyRingJournal( snapshotFile, () -> snapshotOf( "" ) );
+        journal.appendAdded( bytes( "ring a" ) );
+        journal.appendAdded( bytes( "ring b" ) );
+
+        // a record whose length made it to the disk, but whose payload didn't
+        try( RandomAccessFile file = new RandomAccessFile( journalFile, "rw" ) )
+        {
+            file.seek( file.length() - Integer.BYTES - 1 );
+            file.write( 'x' );
+        }
+
+        assertEquals( Arrays.asList( "added ring a" ), replay() );
+    }
+
+    @Test
+    public void appendsAfterTornTailAreReplayed() throws Exception
+    {
+        KeyRingJournal journal = new KeyRingJournal( snapshotFile, () -> snapshotOf( "" ) );
+        journal.appendAdded( bytes( "ring a" ) );
+        journal.appendAdded( bytes( "ring b" ) );
+        truncate( journalFile, journalFile.length() - 1 );
+
+        // the torn record is cut off when replaying, so the records appended after the restart don't end up behind it
+        KeyRingJournal reopened = new KeyRingJournal( snapshotFile, () -> snapshotOf( "" ) );
+        reopened.replay( new RecordingReplayer() );
+        reopened.appendRemoved( 42 );
+
+        assertEquals( Arrays.asList( "added ring a", "removed 42" ), replay() );
+    }
+
+    @Test
+    public void compactionMergesJournalIntoSnapshot() throws Exception
+    {
+        KeyRingJournal journal = new KeyRingJournal( snapshotFile, () -> snapshotOf( "ring a, ring b" ) );
+        journal.appendAdded( bytes( "ring a" ) );
+        journal.appendAdded( bytes( "ring b" ) );
+
+        journal.compact();
+
+        assertTrue( journal.isEmpty() );
+        assertFalse( compactingJournalFile.exists() );
+        assertEquals( "ring a, ring b", readSnapshot() );
+        assertEquals( Arrays.asList(), replay() );
+    }
+
+    @Test
+    public void appendsAfterCompactionGoToNewJournal() throws Exception
+    {
+        KeyRingJournal journal = new KeyRingJournal( snapshotFile, () -> snapshotOf( "ring a" ) );
+        journal.appendAdded( bytes( "ring a" ) );
+        journal.compact();
+        journal.sync( journal.appendRemoved( 42 ) );
+
+        assertEquals( "ring a", readSnapshot() );
+        assertEquals( Arrays.asList( "removed 42" ), replay() );
+    }
+
+    @Test
+    public void crashWhileWritingSnapshotKeepsOldSnapshotAndRecords() throws Exception
+    {
+        KeyRingJournal journal = new KeyRingJournal( snapshotFile, () -> snapshotOf( "old" ) );
+        journal.appendAdded( bytes( "ring a" ) );
+        journal.compact();
+
+        KeyRingJournal failingJournal = new KeyRingJournal( snapshotFile, () -> outputStream ->
+        {
+            outputStream.write( bytes( "partial" ) );
+            throw new IOException( "disk full" );
+        } );
+        failingJournal.appendAdded( bytes( "ring b" ) );
+        assertThrows( IOException.class, failingJournal::compact );
+
+        // the journal was moved aside, but the new snapshot never replaced the old one
+        assertTrue( compactingJournalFile.exists() );
+        assertEquals( "old", readSnapshot() );
+
+        // changes made after the failed compaction are replayed after the moved journal
+        failingJournal.appendAdded( bytes( "ring c" ) );
+        assertEquals( Arrays.asList( "added ring b", "added ring c" ), replay() );
+    }
+
+    @Test
+    public void crashAfterWritingSnapshotReplaysCompactedRecordsAgain() throws Exception
+    {
+        KeyRingJournal journal = new KeyRingJournal( snapshotFile, () -> new KeyRingJournal.SnapshotWriter()
+        {
+            @Override
+            public void write( OutputStream outputStream ) throws IOException
+            {
+                outputStream.write( bytes( "ring a" ) );
+            }
+
+            @Override
+            public void written() throws IOException
+            {
+                throw new IOException( "crashed before the moved journal was deleted" );
+            }
+        } );
+        journal.appendAdded( bytes( "ring a" ) );
+        assertThrows( IOException.class, journal::compact );
+
+        // the change is both in the snapshot and in the moved journal, which is why replaying has to be idempotent
+        assertEquals( "ring a", readSnapshot() );
+        assertTrue( compactingJournalFile.exists() );
+        assertEquals( Arrays.asList( "added ring a" ), replay() );
+    }
+
+    @Test
+    public void compactionAfterCrashFinishesMergingMovedJournal() throws Exception
+    {
+        KeyRingJournal failingJournal = new KeyRingJournal( snapshotFile, () -> outputStream ->
+        {
+            throw new IOException( "disk full" );
+        } );
+        failingJournal.appendAdded( bytes( "ring a" ) );
+        assertThrows( IOException.class, failingJournal::compact );
+
+        KeyRingJournal journal = new KeyRingJournal( snapshotFile, () -> snapshotOf( "ring a, ring b" ) );
+        journal.replay( new RecordingReplayer() );
+        journal.appendAdded( bytes( "ring b" ) );
+        journal.compact();
+
+        // the moved journal is kept until a snapshot including it is written
+        // + the current journal isn't moved while the old one is still there, so it is merged only by the next compaction
+        assertFalse( compactingJournalFile.exists() );
+        assertEquals( "ring a, ring b", readSnapshot() );
+        assertEquals( Arrays.asList( "added ring b" ), replay() );
+    }
+
+    @Test
+    public void failingSnapshotSupplierDoesNotBlockLaterCompactions() throws Exception
+    {
+        boolean[] isFailing = { true };
+        KeyRingJournal journal = new KeyRingJournal( snapshotFile, () ->
+        {
+            if( isFailing[ 0 ] )
+                throw new IllegalStateException( "no snapshot" );
+            return snapshotOf( "ring a" );
+        } );
+        journal.appendAdded( bytes( "ring a" ) );
+        assertThrows( IllegalStateException.class, journal::compact );
+
+        // a compaction still marked as running would make this return without compacting
+        isFailing[ 0 ] = false;
+        journal.compactAsync();
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while( !journal.isEmpty() && System.currentTimeMillis() < deadline )
+            Thread.sleep( 10 );
+
+        assertTrue( journal.isEmpty() );
+        assertEquals( "ring a", readSnapshot() );
+    }
+
+    @Test
+    public void snapshotIsArmored() throws Exception
+    {
+        KeyRingJournal journal = new KeyRingJournal( snapshotFile, () -> snapshotOf( "ring a" ) );
+        journal.appendAdded( bytes( "ring a" ) );
+        journal.compact();
+
+        byte[] header = new byte[5];
+        try( InputStream inputStream = new FileInputStream( snapshotFile ) )
+        {
+            assertEquals( header.length, inputStream.read( header ) );
+        }
+        assertArrayEquals( bytes( "-----" ), header );
+    }
+
+    private static void truncate( File file, long length ) throws IOException
+    {
+        try( RandomAccessFile randomAccessFile = new RandomAccessFile( file, "rw" ) )
+        {
+            randomAccessFile.setLength( length );
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package etf.openpgp.iu170057d_sm170081d.encryption;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import org.bouncycastle.bcpg.PublicKeyAlgorithmTags;
+import org.bouncycastle.bcpg.PublicKeyPacket;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPPublicKeyRing;
+import org.bouncycastle.openpgp.operator.bc.BcKeyFingerprintCalculator;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPKeyPair;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// on-disk format of the binary key ring file: writing key rings, and finding them again through the mapped offset index
+public class MappedKeyRingFileTest
+{
+    private static final int RING_COUNT = 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final List<PGPPublicKeyRing> keyRings = new ArrayList<>();
+
+    // key rings with a single ed25519 key each, which are quick to generate
+    @BeforeClass
+    public static void createKeyRings() throws Exception
+    {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance( "Ed25519", new BouncyCastleProvider() );
+        for( int i = 0; i < RING_COUNT; i++ )
+        {
+            JcaPGPKeyPair keyPair = new JcaPGPKeyPair( PublicKeyPacket.VERSION_4, PublicKeyAlgorithmTags.EDDSA_LEGACY, keyPairGenerator.generateKeyPair(), new Date() );
+            keyRings.add( new PGPPublicKeyRing( Collections.singletonList( keyPair.getPublicKey() ) ) );
+        }
+    }
+
+    private static MappedKeyRingFile<PGPPublicKeyRing> open( File file ) throws IOException
+    {
+        return MappedKeyRingFile.open( file, encodedKeyRing -> new PGPPublicKeyRing( encodedKeyRing, new BcKeyFingerprintCalculator() ) );
+    }
+
+    @Test
+    public void roundTrip() throws Exception
+    {
+        File file = new File( folder.getRoot(), "keyrings.bin" );
+        MappedKeyRingFile.write( file, keyRings.iterator() );
+
+        MappedKeyRingFile<PGPPublicKeyRing> mappedFile = open( file );
+        assertEquals( RING_COUNT, mappedFile.size() );
+
+        // the key table is sorted by key id, so every ring has to be found no matter where its key ended up
+        for( PGPPublicKeyRing keyRing : keyRings )
+        {
+            long keyId = keyRing.getPublicKey().getKeyID();
+            assertArrayEquals( keyRing.getEncoded(), mappedFile.getByKeyId( keyId ).getEncoded() );
+        }
+
+        // the rings keep the order they were written in
+        List<PGPPublicKeyRing> all = mappedFile.getAll();
+        assertEquals( RING_COUNT, all.size() );
+        for( int i = 0; i < RING_COUNT; i++ )
+            assertArrayEquals( keyRings.get( i ).getEncoded(), all.get( i ).getEncoded() );
+    }
+
+    @Test
+    public void decodesEachRingOnce() throws Exception
+    {
+        File file = new File( folder.getRoot(), "keyrings.bin" );
+        MappedKeyRingFile.write( file, keyRings.iterator() );
+
+        MappedKeyRingFile<PGPPublicKeyRing> mappedFile = open( file );
+        long keyId = keyRings.get( 0 ).getPublicKey().getKeyID();
+        assertSame( mappedFile.getByKeyId( keyId ), mappedFile.getByKeyId( keyId ) );
+    }
+
+    @Test
+    public void missingKeyIsNull() throws Exception
+    {
+        File file = new File( folder.getRoot(), "keyrings.bin" );
+        MappedKeyRingFile.write( file, keyRings.iterator() );
+
+        // ids at both ends and in the middle of the key id range (a random key id matching one of them is practically impossible)
+        MappedKeyRingFile<PGPPublicKeyRing> mappedFile = open( file );
+        assertNull( mappedFile.getByKeyId( 0 ) );
+        assertNull( mappedFile.getByKeyId( Long.MIN_VALUE ) );
+        assertNull( mappedFile.getByKeyId( Long.MAX_VALUE ) );
+    }
+
+    @Test
+    public void emptyRoundTrip() throws Exception
+    {
+        File file = new File( folder.getRoot(), "keyrings.bin" );
+        MappedKeyRingFile.write( file, Collections.<PGPPublicKeyRing>emptyIterator() );
+
+        MappedKeyRingFile<PGPPublicKeyRing> mappedFile = open( file );
+        assertEquals( 0, mappedFile.size() );
+        assertEquals( 0, mappedFile.getAll().size() );
+        assertNull( mappedFile.getByKeyId( keyRings.get( 0 ).getPublicKey().getKeyID() ) );
+    }
+
+    @Test
+    public void rewriteReplacesFile() throws Exception
+    {
+        File file = new File( folder.getRoot(), "keyrings.bin" );
+        MappedKeyRingFile.write( file, keyRings.iterator() );
+        MappedKeyRingFile.write( file, keyRings.subList( 0, 2 ).iterator() );
+
+        MappedKeyRingFile<PGPPublicKeyRing> mappedFile = open( file );
+        assertEquals( 2, mappedFile.size() );
+        assertNull( mappedFile.getByKeyId( keyRings.get( 2 ).getPublicKey().getKeyID() ) );
+    }
+
+    @Test
+    public void rejectsWrongMagic() throws Exception
+    {
+        File file = new File( folder.getRoot(), "keyrings.bin" );
+        MappedKeyRingFile.write( file, keyRings.iterator() );
+        try( RandomAccessFile randomAccessFile = new RandomAccessFile( file, "rw" ) )
+        {
+            randomAccessFile.write( 'X' );
+        }
+
+        assertThrows( IOException.class, () -> open( file ) );
+    }
+
+    @Test
+    public void rejectsTruncatedTables() throws Exception
+    {
+        File file = new File( folder.getRoot(), "keyrings.bin" );
+        MappedKeyRingFile.write( file, keyRings.iterator() );
+        // keep the header, and only a part of the ring table
+        truncate( file, 8 + 2 * Integer.BYTES + 12 );
+
+        assertThrows( IOException.class, () -> open( file ) );
+    }
+
+    @Test
+    public void rejectsTooShortHeader() throws Exception
+    {
+        File file = new File( folder.getRoot(), "keyrings.bin" );
+        MappedKeyRingFile.write( file, keyRings.iterator() );
+        truncate( file, 10 );
+
+        assertThrows( IOException.class, () -> open( file ) );
+    }
+
+    @Test
+    public void rejectsNegativeRingCount() throws Exception
+    {
+        assertThrows( IOException.class, () -> open( fileWithCounts( -1, 0 ) ) );
+    }
+
+    @Test
+    public void rejectsNegativeKeyCount() throws Exception
+    {
+        assertThrows( IOException.class, () -> open( fileWithCounts( 0, Integer.MIN_VALUE ) ) );
+    }
+
+    @Test
+    public void rejectsHugeCounts() throws Exception
+    {
+        // counts whose tables would overflow an int offset, or need more memory than there is
+        assertThrows( IOException.class, () -> open( fileWithCounts( Integer.MAX_VALUE, 0 ) ) );
+        assertThrows( IOException.class, () -> open( fileWithCounts( 0, Integer.MAX_VALUE ) ) );
+        assertThrows( IOException.class, () -> open( fileWithCounts( Integer.MAX_VALUE, Integer.MAX_VALUE ) ) );
+    }
+
+    @Test
+    public void rejectsTruncatedRingData() throws Exception
+    {
+        File file = new File( folder.getRoot(), "keyrings.bin" );
+        MappedKeyRingFile.write( file, keyRings.iterator() );
+        truncate( file, file.length() - 1 );
+
+        // the tables are intact, so the file opens, but the last ring points past its end
+        MappedKeyRingFile<PGPPublicKeyRing> mappedFile = open( file );
+        long lastKeyId = keyRings.get( RING_COUNT - 1 ).getPublicKey().getKeyID();
+        assertThrows( IOException.class, () -> mappedFile.getByKeyId( lastKeyId ) );
+    }
+
+    // a valid key ring file whose header is overwritten with the given counts
+    private File fileWithCounts( int ringCount, int keyCount ) throws IOException
+    {
+        File file = new File( folder.getRoot(), "keyrings.bin" );
+        MappedKeyRingFile.write( file, keyRings.iterator() );
+        try( RandomAccessFile randomAccessFile = new RandomAccessFile( file, "rw" ) )
+        {
+            randomAccessFile.seek( 8 );
+            randomAccessFile.writeInt( ringCount );
+            randomAccessFile.writeInt( keyCount );
+        }
+
+        return file;
+    }
+
+    private static void truncate( File file, long length ) throws IOException
+    {
+        try( RandomAccessFile randomAccessFile = new RandomAccessFile( file, "rw" ) )
+        {
+            randomAccessFile.setLength( length );
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package etf.openpgp.iu170057d_sm170081d.encryption;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.bcpg.ArmoredInputStream;
+import org.bouncycastle.bcpg.ArmoredOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// benchmarks of the radix64 armor codec against bouncy castle's armored streams
+// + both encoders write the same bytes, so the decoders get the same armored payload
+// + the encoders write into a stream which only counts the bytes, so that only the codec is measured
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( value = 1, jvmArgsAppend =
+{
+    "-Xms6g", "-Xmx6g"
+} )
+public class ArmorBenchmark
+{
+    // an output stream which discards the bytes written to it, and only counts them
+    private static class CountingOutputStream extends OutputStream
+    {
+        public long count = 0;
+
+        @Override
+        public void write( int b )
+        {
+            count++;
+        }
+
+        @Override
+        public void write( byte[] buffer, int offset, int length )
+        {
+            count += length;
+        }
+    }
+
+    @Param(
+    {
+        "1024", "65536", "1048576", "16777216", "268435456"
+    } )
+    public int payloadSize;
+
+    private byte[] payload;
+    private byte[] armoredPayload;
+    private final byte[] readBuffer = new byte[BufferPool.PACKET_BUFFER_SIZE];
+
+    @Setup( Level.Trial )
+    public void setUp() throws IOException
+    {
+        payload = BenchmarkKeys.createPayload( payloadSize );
+
+        ByteArrayOutputStream armoredStream = new ByteArrayOutputStream();
+        try( OutputStream encoder = new Radix64OutputStream( armoredStream ) )
+        {
+            encoder.write( payload );
+        }
+        armoredPayload = armoredStream.toByteArray();
+    }
+
+    @Benchmark
+    public long encodeBouncyCastle() throws IOException
+    {
+        CountingOutputStream countingStream = new CountingOutputStream();
+        try( OutputStream encoder = new ArmoredOutputStream( countingStream ) )
+        {
+            encoder.write( payload );
+        }
+        return countingStream.count;
+    }
+
+    @Benchmark
+    public long encodeRadix64() throws IOException
+    {
+        CountingOutputStream countingStream = new CountingOutputStream();
+        try( OutputStream encoder = new Radix64OutputStream( countingStream ) )
+        {
+            encoder.write( payload );
+        }
+        return countingStream.count;
+    }
+
+    @Benchmark
+    public long decodeBouncyCastle() throws IOException
+    {
+        try( InputStream decoder = new ArmoredInputStream( new ByteArrayInputStream( armoredPayload ) ) )
+        {
+            return readAll( decoder );
+        }
+    }
+
+    @Benchmark
+    public long decodeRadix64() throws IOException
+    {
+        try( InputStream decoder = new Radix64InputStream( new ByteArrayInputStream( armoredPayload ) ) )
+        {
+            return readAll( decoder );
+        }
+    }
+
+    private long readAll( InputStream decoder ) throws IOException
+    {
+        long count = 0;
+        int len;
+        while( (len = decoder.read( readBuffer )) > 0 )
+            count += len;
+
+        return count;
+    }
+}
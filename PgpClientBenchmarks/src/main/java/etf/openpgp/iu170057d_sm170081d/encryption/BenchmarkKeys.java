@@ -0,0 +1,82 @@
+package etf.openpgp.iu170057d_sm170081d.encryption;
+
+import java.io.IOException;
+import java.security.KeyPair;
+import java.util.Iterator;
+import java.util.Random;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPKeyRingGenerator;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPPublicKeyRing;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// a dsa/elgamal key ring generated for the benchmark run
+// + the key rings advertise aead support, so that the aead algorithms are benchmarked instead of falling back to the cfb mode
+// + benchmarks of other key types add their own key ring with addKeyRing
+// + the key rings are added to the key ring files in the working directory, since decryption looks up the receiver's secret key there, and are removed after the run
+@State( Scope.Benchmark )
+public class BenchmarkKeys
+{
+    public static final char[] PASSPHRASE = "benchmark".toCharArray();
+
+    public PGPSecretKey senderSecretKey;
+    public PGPPublicKey receiverPublicKey;
+
+    private PGPPublicKeyRing publicKeyRing;
+    private PGPSecretKeyRing secretKeyRing;
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception
+    {
+        addKeyRing( PGPKeys.generateDsaKeyPair( 2048 ), PGPKeys.generateElGamalKeyPair( 2048 ) );
+    }
+
+    // add a key ring with the given signing and encryption key pairs to the key ring files
+    public void addKeyRing( KeyPair signingKeyPair, KeyPair encryptionKeyPair ) throws Exception
+    {
+        PGPKeyRingGenerator keyRingGenerator = PGPKeys.createPGPKeyRingGenerator(
+                signingKeyPair,
+                encryptionKeyPair,
+                "Benchmark <benchmark@localhost>",
+                PASSPHRASE,
+                /*isAeadAdvertised=*/ true );
+        publicKeyRing = keyRingGenerator.generatePublicKeyRing();
+        secretKeyRing = keyRingGenerator.generateSecretKeyRing();
+        PGPKeys.addPublicKey( keyRingGenerator );
+        PGPKeys.addSecretKey( keyRingGenerator );
+
+        senderSecretKey = secretKeyRing.getSecretKey();
+        // the elgamal (or x25519) subkey is the encryption key
+        Iterator<PGPPublicKey> publicKeyIter = publicKeyRing.getPublicKeys();
+        while( publicKeyIter.hasNext() )
+        {
+            PGPPublicKey publicKey = publicKeyIter.next();
+            if( publicKey.isEncryptionKey() && !publicKey.isMasterKey() )
+                receiverPublicKey = publicKey;
+        }
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() throws IOException, PGPException
+    {
+        PGPKeys.removePublicKey( PGPKeys.getPublicKeyRing( publicKeyRing.getPublicKey().getKeyID() ) );
+        PGPKeys.removeSecretKey( PGPKeys.getSecretKeyRing( secretKeyRing.getPublicKey().getKeyID() ) );
+    }
+
+    // create a text-like payload of the given size, so that compression behaves like it does for a real message
+    public static byte[] createPayload( int size )
+    {
+        byte[] payload = new byte[size];
+        Random random = new Random( 42 );
+        for( int i = 0; i < size; i++ )
+            payload[ i ] = random.nextInt( 6 ) == 0 ? ( byte )' ' : ( byte )('a' + random.nextInt( 26 ));
+
+        return payload;
+    }
+}
@@ -0,0 +1,25 @@
+package etf.openpgp.iu170057d_sm170081d.encryption;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// runs the benchmarks with the gc profiler, so that every result reports the allocation rate next to the throughput
+// + gc.alloc.rate.norm is the number of bytes allocated per benchmark call, i.e. per created (or round tripped) message
+// + the buffer pool keeps at most 64 MiB of buffers by default; for the larger payloads raise it with
+//   -jvmArgsAppend -Dpgpclient.bufferPool.maxRetainedBytes=..., otherwise their stage buffers are allocated on every call
+// + accepts the usual jmh command line options, e.g. a benchmark name regex or -p payloadSize=1024
+public class BenchmarkMain
+{
+    public static void main( String[] args ) throws Exception
+    {
+        CommandLineOptions commandLineOptions = new CommandLineOptions( args );
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent( commandLineOptions )
+                .addProfiler( GCProfiler.class );
+
+        new Runner( options.build() ).run();
+    }
+}
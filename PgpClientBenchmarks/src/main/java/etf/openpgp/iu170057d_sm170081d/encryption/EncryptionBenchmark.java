@@ -0,0 +1,100 @@
+package etf.openpgp.iu170057d_sm170081d.encryption;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.openpgp.PGPException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// benchmarks of the encryption pipeline stages which depend on the encryption algorithm, and of the whole message round trip
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( value = 1, jvmArgsAppend =
+{
+    "-Xms6g", "-Xmx6g"
+} )
+public class EncryptionBenchmark
+{
+    @Param(
+    {
+        "1024", "65536", "1048576", "16777216", "268435456", "1073741824"
+    } )
+    public int payloadSize;
+
+    @Param(
+    {
+        "ELGAMAL_IDEA", "ELGAMAL_3DES", "ELGAMAL_AES_128", "ELGAMAL_AES_256", "ELGAMAL_AES_256_OCB", "ELGAMAL_AES_256_GCM"
+    } )
+    public Encryption.EncryptionAlgorithm encryptionAlgorithm;
+
+    private byte[] payload;
+
+    @Setup( Level.Trial )
+    public void setUp()
+    {
+        payload = BenchmarkKeys.createPayload( payloadSize );
+    }
+
+    @Benchmark
+    public byte[] createEncryptedPacket( BenchmarkKeys keys ) throws IOException
+    {
+        return Encryption.createEncryptedPacket(
+                payload,
+                Collections.singletonList( keys.receiverPublicKey ),
+                encryptionAlgorithm,
+                BenchmarkKeys.PASSPHRASE );
+    }
+
+    // signed, compressed, encrypted and radix64 encoded message
+    // + its gc.alloc.rate.norm is the garbage allocated per message; everything but the message itself comes from the buffer pool
+    @Benchmark
+    public byte[] createPgpMessage( BenchmarkKeys keys ) throws IOException
+    {
+        return Encryption.createPgpMessage(
+                payload,
+                keys.senderSecretKey,
+                Collections.singletonList( keys.receiverPublicKey ),
+                encryptionAlgorithm,
+                BenchmarkKeys.PASSPHRASE,
+                /*addSignature=*/ true,
+                Encryption.CompressionAlgorithm.ZIP,
+                Encryption.DEFAULT_COMPRESSION_LEVEL,
+                /*addConversionToRadix64=*/ true );
+    }
+
+    // signed, compressed, encrypted and radix64 encoded message, decrypted and verified by the receiver
+    @Benchmark
+    public byte[] roundTrip( BenchmarkKeys keys ) throws IOException, PGPException
+    {
+        Encryption.PgpMessage pgpMessage = new Encryption.PgpMessage();
+        pgpMessage.encryptedMessage = Encryption.createPgpMessage(
+                payload,
+                keys.senderSecretKey,
+                keys.receiverPublicKey,
+                encryptionAlgorithm,
+                BenchmarkKeys.PASSPHRASE,
+                /*addSignature=*/ true,
+                /*addCompression=*/ true,
+                /*addConversionToRadix64=*/ true );
+
+        Encryption.decryptPgpMessage( BenchmarkKeys.PASSPHRASE, pgpMessage );
+        if( !pgpMessage.isIntegrityVerified || !pgpMessage.isSignatureVerified )
+            throw new IllegalStateException( "The decrypted message could not be verified." );
+
+        return pgpMessage.decryptedMessage;
+    }
+}
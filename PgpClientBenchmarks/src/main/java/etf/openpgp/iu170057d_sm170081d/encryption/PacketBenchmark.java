@@ -0,0 +1,68 @@
+package etf.openpgp.iu170057d_sm170081d.encryption;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// benchmarks of the encryption pipeline stages which don't depend on the encryption algorithm
+// + every stage gets the same plaintext payload, so that the stages can be compared with each other
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( value = 1, jvmArgsAppend =
+{
+    "-Xms6g", "-Xmx6g"
+} )
+public class PacketBenchmark
+{
+    @Param(
+    {
+        "1024", "65536", "1048576", "16777216", "268435456", "1073741824"
+    } )
+    public int payloadSize;
+
+    private byte[] payload;
+
+    @Setup( Level.Trial )
+    public void setUp()
+    {
+        payload = BenchmarkKeys.createPayload( payloadSize );
+    }
+
+    @Benchmark
+    public byte[] createLiteralPacket() throws IOException
+    {
+        return Encryption.createLiteralPacket( payload );
+    }
+
+    @Benchmark
+    public byte[] createSignaturePackets( BenchmarkKeys keys ) throws IOException
+    {
+        return Encryption.createSignaturePackets( payload, keys.senderSecretKey, BenchmarkKeys.PASSPHRASE );
+    }
+
+    @Benchmark
+    public byte[] createCompressedPacket() throws IOException
+    {
+        return Encryption.createCompressedPacket( payload );
+    }
+
+    @Benchmark
+    public byte[] encodeAsRadix64() throws IOException
+    {
+        return Encryption.encodeAsRadix64( payload );
+    }
+}
@@ -0,0 +1,105 @@
+package etf.openpgp.iu170057d_sm170081d.encryption;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.openpgp.PGPException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// benchmarks of the public key operations, for the dsa/elgamal and the ed25519/x25519 key rings
+// + the message is small, so that the round trip is dominated by the signature and the session key encryption and decryption
+// + every round trip creates a new message, so the session key cache never skips the session key decryption
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class PublicKeyBenchmark
+{
+    public static enum KeyType
+    {
+        DSA_ELGAMAL,
+        ED25519_X25519
+    }
+
+    @Param(
+    {
+        "DSA_ELGAMAL", "ED25519_X25519"
+    } )
+    public KeyType keyType;
+
+    private final BenchmarkKeys keys = new BenchmarkKeys();
+    private byte[] payload;
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception
+    {
+        KeyPair[] keyPairs = generateKeyPairs();
+        keys.addKeyRing( keyPairs[ 0 ], keyPairs[ 1 ] );
+        payload = BenchmarkKeys.createPayload( 1024 );
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() throws IOException, PGPException
+    {
+        keys.tearDown();
+    }
+
+    // the signing and the encryption key pair of a key ring
+    // + the dsa and elgamal key pairs use the stored domain parameters, so this doesn't include searching for primes
+    @Benchmark
+    public KeyPair[] generateKeyPairs() throws GeneralSecurityException, IOException
+    {
+        switch( keyType )
+        {
+            case ED25519_X25519:
+                return new KeyPair[]
+                {
+                    PGPKeys.generateEd25519KeyPair(), PGPKeys.generateX25519KeyPair()
+                };
+            default:
+                return new KeyPair[]
+                {
+                    PGPKeys.generateDsaKeyPair( 2048 ), PGPKeys.generateElGamalKeyPair( 2048 )
+                };
+        }
+    }
+
+    // signed and encrypted message, decrypted and verified by the receiver
+    @Benchmark
+    public byte[] roundTrip() throws IOException, PGPException
+    {
+        Encryption.PgpMessage pgpMessage = new Encryption.PgpMessage();
+        pgpMessage.encryptedMessage = Encryption.createPgpMessage(
+                payload,
+                keys.senderSecretKey,
+                Collections.singletonList( keys.receiverPublicKey ),
+                Encryption.EncryptionAlgorithm.ELGAMAL_AES_256,
+                BenchmarkKeys.PASSPHRASE,
+                /*addSignature=*/ true,
+                Encryption.CompressionAlgorithm.NONE,
+                Encryption.DEFAULT_COMPRESSION_LEVEL,
+                /*addConversionToRadix64=*/ false );
+
+        Encryption.decryptPgpMessage( BenchmarkKeys.PASSPHRASE, pgpMessage );
+        if( !pgpMessage.isIntegrityVerified || !pgpMessage.isSignatureVerified )
+            throw new IllegalStateException( "The decrypted message could not be verified." );
+
+        return pgpMessage.decryptedMessage;
+    }
+}